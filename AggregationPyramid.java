@@ -0,0 +1,373 @@
+import java.util.Arrays;
+
+/**
+ * A multi-resolution summary of a dataset: for square cells of 1km, 2km, 5km, 10km and
+ * 25km it holds the mean, maximum and number of data points in each cell.
+ *
+ * All levels are built together in a single pass over the dataset when it is loaded.
+ * National views and large-area statistics can then use the coarsest level that is good
+ * enough, instead of touching every data point.
+ *
+ * @author Tejas Raj
+ * @version 2.0
+ */
+public class AggregationPyramid {
+    public static final int[] CELL_SIZES = {1000, 2000, 5000, 10000, 25000};
+
+    private final Level[] levels;
+
+    /**
+     * Build the pyramid for a dataset in one pass over its columns.
+     *
+     * @param dataset The dataset to summarise
+     */
+    public AggregationPyramid(DataSet dataset) {
+        int size = dataset.size();
+        levels = new Level[CELL_SIZES.length];
+        for (int i = 0; i < levels.length; i++) {
+            int cellsPerSide = CELL_SIZES[i] / CELL_SIZES[0];
+            levels[i] = new Level(CELL_SIZES[i], size / (cellsPerSide * cellsPerSide) + 16);
+        }
+
+        int[] xs = dataset.getXColumn();
+        int[] ys = dataset.getYColumn();
+        ValueColumn values = dataset.getValues();
+        boolean complete = dataset.isComplete();
+        for (int row = 0; row < size; row++) {
+            if (!complete && !dataset.hasValue(row)) {
+                continue;
+            }
+            for (Level level : levels) {
+                level.add(xs[row], ys[row], values.get(row));
+            }
+        }
+
+        for (Level level : levels) {
+            level.finish();
+        }
+    }
+
+    /**
+     * Get the number of levels.
+     */
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    /**
+     * Get a level. Level 0 is the finest.
+     */
+    public Level getLevel(int index) {
+        return levels[index];
+    }
+
+    /**
+     * Get the memory used by all levels, in bytes.
+     */
+    public long getMemoryBytes() {
+        long bytes = 0;
+        for (Level level : levels) {
+            bytes += level.getMemoryBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Get the coarsest level whose cells are no larger than the given size, or the
+     * finest level if all are larger.
+     *
+     * @param maxCellSize The largest acceptable cell size, in metres (for example the
+     *                    ground distance covered by one screen pixel)
+     * @return The chosen level
+     */
+    public Level getCoarsestLevelFor(double maxCellSize) {
+        Level chosen = levels[0];
+        for (Level level : levels) {
+            if (level.getCellSize() <= maxCellSize) {
+                chosen = level;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * Summarise the data in a box using the coarsest level whose cells fit the box exactly,
+     * so the result is the same as scanning every point inside it.
+     *
+     * @param minEasting The minimum easting of the box
+     * @param maxEasting The maximum easting of the box (exclusive)
+     * @param minNorthing The minimum northing of the box
+     * @param maxNorthing The maximum northing of the box (exclusive)
+     * @return The summary, with a count of 0 if the box holds no data
+     */
+    public Summary summariseBox(double minEasting, double maxEasting, double minNorthing, double maxNorthing) {
+        return getLevelForBox(minEasting, maxEasting, minNorthing, maxNorthing)
+            .summariseBox(minEasting, maxEasting, minNorthing, maxNorthing);
+    }
+
+    /**
+     * Get the level summariseBox() uses for a box: the coarsest level whose cells fit the
+     * box exactly, or the finest level if none do.
+     *
+     * @param minEasting The minimum easting of the box
+     * @param maxEasting The maximum easting of the box (exclusive)
+     * @param minNorthing The minimum northing of the box
+     * @param maxNorthing The maximum northing of the box (exclusive)
+     * @return The level
+     */
+    public Level getLevelForBox(double minEasting, double maxEasting, double minNorthing, double maxNorthing) {
+        Level chosen = levels[0];
+        for (Level level : levels) {
+            int size = level.getCellSize();
+            if (minEasting % size == 0 && maxEasting % size == 0
+                    && minNorthing % size == 0 && maxNorthing % size == 0) {
+                chosen = level;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * The count, mean and maximum of a set of data points.
+     */
+    public record Summary(int count, double mean, double max) {
+    }
+
+    /**
+     * One level of the pyramid: a sparse set of square cells, each with the mean, maximum
+     * and count of the data points inside it. Cells are found with an open-addressing hash
+     * table keyed on the cell's column and row.
+     */
+    public static class Level {
+        private final int cellSize;
+        private int cellCount;
+        private int[] cellKeys;
+        private double[] means;
+        private double[] maxes;
+        private int[] counts;
+        private int[] table;
+
+        /**
+         * Create an empty level.
+         *
+         * @param cellSize The side of each cell, in metres
+         * @param expectedCells An estimate of the number of cells
+         */
+        private Level(int cellSize, int expectedCells) {
+            this.cellSize = cellSize;
+            cellKeys = new int[expectedCells];
+            means = new double[expectedCells];
+            maxes = new double[expectedCells];
+            counts = new int[expectedCells];
+            table = new int[tableSizeFor(expectedCells)];
+        }
+
+        /**
+         * Get the side of each cell, in metres.
+         */
+        public int getCellSize() {
+            return cellSize;
+        }
+
+        /**
+         * Get the number of cells holding data.
+         */
+        public int size() {
+            return cellCount;
+        }
+
+        /**
+         * Get the memory used by the level, in bytes.
+         */
+        public long getMemoryBytes() {
+            long bytes = (long) cellKeys.length * Integer.BYTES + (long) means.length * Double.BYTES
+                         + (long) table.length * Integer.BYTES;
+            if (maxes != means) {
+                bytes += (long) maxes.length * Double.BYTES;
+            }
+            if (counts != null) {
+                bytes += (long) counts.length * Integer.BYTES;
+            }
+            return bytes;
+        }
+
+        /**
+         * Get the easting of the south-west corner of a cell.
+         */
+        public int getMinEasting(int cell) {
+            return (cellKeys[cell] >>> 16) * cellSize;
+        }
+
+        /**
+         * Get the northing of the south-west corner of a cell.
+         */
+        public int getMinNorthing(int cell) {
+            return (cellKeys[cell] & 0xffff) * cellSize;
+        }
+
+        /**
+         * Get the mean value of a cell.
+         */
+        public double getMean(int cell) {
+            return means[cell];
+        }
+
+        /**
+         * Get the maximum value in a cell.
+         */
+        public double getMax(int cell) {
+            return maxes[cell];
+        }
+
+        /**
+         * Get the number of data points in a cell.
+         */
+        public int getCount(int cell) {
+            return counts == null ? 1 : counts[cell];
+        }
+
+        /**
+         * Find the cell containing a location.
+         *
+         * @return The cell, or -1 if there is no data there
+         */
+        public int find(double easting, double northing) {
+            if (easting < 0 || northing < 0) {
+                return -1;
+            }
+            int key = keyFor((int) (easting / cellSize), (int) (northing / cellSize));
+            int mask = table.length - 1;
+            for (int slot = mix(key) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+                if (cellKeys[table[slot] - 1] == key) {
+                    return table[slot] - 1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Summarise the cells whose south-west corner lies in a box.
+         */
+        private Summary summariseBox(double minEasting, double maxEasting, double minNorthing, double maxNorthing) {
+            double sum = 0;
+            double max = Double.NEGATIVE_INFINITY;
+            int count = 0;
+            for (int cell = 0; cell < cellCount; cell++) {
+                int easting = getMinEasting(cell);
+                int northing = getMinNorthing(cell);
+                if (easting >= minEasting && easting < maxEasting && northing >= minNorthing && northing < maxNorthing) {
+                    sum += means[cell] * getCount(cell);
+                    max = Math.max(max, maxes[cell]);
+                    count += getCount(cell);
+                }
+            }
+            return new Summary(count, count == 0 ? 0 : sum / count, max);
+        }
+
+        /**
+         * Add one data point. Until finish() is called, 'means' holds the running sums.
+         */
+        private void add(int x, int y, double value) {
+            if (x < 0 || y < 0) {
+                return;
+            }
+            int key = keyFor(x / cellSize, y / cellSize);
+            int mask = table.length - 1;
+            int slot = mix(key) & mask;
+            while (table[slot] != 0 && cellKeys[table[slot] - 1] != key) {
+                slot = (slot + 1) & mask;
+            }
+
+            int cell;
+            if (table[slot] == 0) {
+                cell = newCell(key);
+                if (cellCount * 2 > table.length) {
+                    rehash(table.length * 2);
+                } else {
+                    table[slot] = cell + 1;
+                }
+                maxes[cell] = value;
+            } else {
+                cell = table[slot] - 1;
+                maxes[cell] = Math.max(maxes[cell], value);
+            }
+            means[cell] += value;
+            counts[cell]++;
+        }
+
+        /**
+         * Append a new, empty cell.
+         */
+        private int newCell(int key) {
+            if (cellCount == cellKeys.length) {
+                int capacity = cellKeys.length * 2;
+                cellKeys = Arrays.copyOf(cellKeys, capacity);
+                means = Arrays.copyOf(means, capacity);
+                maxes = Arrays.copyOf(maxes, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+            }
+            cellKeys[cellCount] = key;
+            return cellCount++;
+        }
+
+        /**
+         * Rebuild the hash table with a new size.
+         */
+        private void rehash(int newSize) {
+            table = new int[newSize];
+            int mask = newSize - 1;
+            for (int cell = 0; cell < cellCount; cell++) {
+                int slot = mix(cellKeys[cell]) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = cell + 1;
+            }
+        }
+
+        /**
+         * Turn the running sums into means and trim the arrays.
+         */
+        private void finish() {
+            boolean singlePoints = true;
+            for (int cell = 0; cell < cellCount; cell++) {
+                means[cell] /= counts[cell];
+                singlePoints &= counts[cell] == 1;
+            }
+            cellKeys = Arrays.copyOf(cellKeys, cellCount);
+            means = Arrays.copyOf(means, cellCount);
+            
+            // At the finest level every cell usually holds one point, so its mean and
+            // maximum are the same and the count is always 1: don't store them twice
+            if (singlePoints) {
+                maxes = means;
+                counts = null;
+            } else {
+                maxes = Arrays.copyOf(maxes, cellCount);
+                counts = Arrays.copyOf(counts, cellCount);
+            }
+        }
+
+        /**
+         * Pack a cell's column and row into one int. Both fit easily in 16 bits for the UK.
+         */
+        private static int keyFor(int column, int row) {
+            return (column << 16) | (row & 0xffff);
+        }
+
+        /**
+         * Spread the bits of a key so that neighbouring cells land far apart in the table.
+         */
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        /**
+         * Get a power-of-two table size holding the given number of cells at most half full.
+         */
+        private static int tableSizeFor(int cells) {
+            return Integer.highestOneBit(Math.max(8, cells * 2 - 1)) << 1;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs batches of statistics queries from the command line, without JavaFX or a display,
+ * and writes the results as CSV or JSON.
+ *
+ * Two kinds of batch are supported:
+ *   summary - the count, average, minimum and maximum for every city, pollutant and year
+ *   compare - the change in average and maximum from each year to the next, for every
+ *             city and pollutant
+ *
+ * Queries run in parallel across all cores. Results are written in a fixed order as soon
+ * as each one is ready, so output starts before the whole batch has finished. Results go
+ * to standard output and progress messages to standard error, so the output can be
+ * redirected straight to a file:
+ *
+ * java BatchQueryCli summary --format json --cities London,Manchester > summary.json
+ *
+ * @author Ved Patel
+ * @version 2.0
+ */
+public class BatchQueryCli {
+    private static final List<String> ALL_YEARS = Arrays.asList("2018", "2019", "2020", "2021", "2022", "2023");
+    private static final List<String> ALL_POLLUTANTS = Arrays.asList("NO2", "PM10", "PM2.5");
+
+    /**
+     * The kinds of batch query, with the columns of their results.
+     */
+    public enum QueryType {
+        SUMMARY("city", "pollutant", "year", "units", "count", "average",
+                "min", "min_easting", "min_northing", "max", "max_easting", "max_northing"),
+        COMPARE("city", "pollutant", "from_year", "to_year", "units", "average_from", "average_to",
+                "average_change_percent", "max_from", "max_to", "max_change_percent");
+
+        private final String[] columns;
+
+        QueryType(String... columns) {
+            this.columns = columns;
+        }
+
+        /**
+         * Get the names of the result columns.
+         */
+        public String[] getColumns() {
+            return columns.clone();
+        }
+    }
+
+    /**
+     * The output formats.
+     */
+    public enum Format {
+        CSV, JSON
+    }
+
+    private final DataLoader dataLoader;
+    private final CityDataFilter cityDataFilter;
+    private final StatisticsCalculator statisticsCalculator;
+    private final CompareStatistics compareStatistics;
+
+    /**
+     * Constructor for BatchQueryCli
+     *
+     * @param dataLoader The loader holding the datasets to query
+     * @param cityDataFilter The city boundaries
+     */
+    public BatchQueryCli(DataLoader dataLoader, CityDataFilter cityDataFilter) {
+        this.dataLoader = dataLoader;
+        this.cityDataFilter = cityDataFilter;
+        this.statisticsCalculator = new StatisticsCalculator();
+        this.compareStatistics = new CompareStatistics(dataLoader, cityDataFilter);
+    }
+
+    /**
+     * Run a batch of queries over every combination of the given cities, pollutants and
+     * years, and write the results. Combinations with no data are left out.
+     *
+     * @param type The kind of query
+     * @param cities The cities to query
+     * @param pollutants The pollutants to query
+     * @param years The years to query, in order
+     * @param format The output format
+     * @param out Where to write the results
+     * @return The number of results written
+     * @throws IOException If the results cannot be written
+     */
+    public int run(QueryType type, List<String> cities, List<String> pollutants, List<String> years,
+                   Format format, Writer out) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<Object[]>> results = new ArrayList<>();
+            for (String city : cities) {
+                for (String pollutant : pollutants) {
+                    if (type == QueryType.SUMMARY) {
+                        for (String year : years) {
+                            results.add(executor.submit(() -> summary(city, pollutant, year)));
+                        }
+                    } else {
+                        for (int i = 0; i + 1 < years.size(); i++) {
+                            String fromYear = years.get(i);
+                            String toYear = years.get(i + 1);
+                            results.add(executor.submit(() -> comparison(city, pollutant, fromYear, toYear)));
+                        }
+                    }
+                }
+            }
+
+            String[] columns = type.getColumns();
+            if (format == Format.CSV) {
+                out.write(String.join(",", columns));
+                out.write('\n');
+            } else {
+                out.write("[\n");
+            }
+
+            int written = 0;
+            for (Future<Object[]> result : results) {
+                Object[] values = getResult(result);
+                if (values == null) {
+                    continue;
+                }
+                if (format == Format.CSV) {
+                    out.write(toCsv(values));
+                } else {
+                    out.write(written > 0 ? ",\n" : "");
+                    out.write(toJson(columns, values));
+                }
+                written++;
+            }
+
+            if (format == Format.JSON) {
+                out.write(written > 0 ? "\n]\n" : "]\n");
+            }
+            out.flush();
+            return written;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Calculate the summary of one city, pollutant and year.
+     */
+    private Object[] summary(String city, String pollutant, String year) {
+        DataSet dataset = dataLoader.getDataset(pollutant, year);
+        if (dataset == null) {
+            return null;
+        }
+        StatisticsCalculator.Summary summary = statisticsCalculator.summarise(cityDataFilter.filterCityArea(dataset, city));
+        if (summary == null) {
+            return null;
+        }
+        DataPoint min = summary.minPoint();
+        DataPoint max = summary.maxPoint();
+        return new Object[] {city, pollutant, year, dataset.getUnits(), summary.count(), summary.average(),
+                             min.value(), min.x(), min.y(), max.value(), max.x(), max.y()};
+    }
+
+    /**
+     * Calculate the change for one city and pollutant from one year to another.
+     */
+    private Object[] comparison(String city, String pollutant, String fromYear, String toYear) {
+        CompareStatistics.Comparison comparison = compareStatistics.compare(pollutant, toYear, fromYear, city);
+        if (comparison == null) {
+            return null;
+        }
+        return new Object[] {city, pollutant, fromYear, toYear, comparison.units(),
+                             comparison.average2(), comparison.average1(), comparison.averageChange(),
+                             comparison.maxPoint2().value(), comparison.maxPoint1().value(), comparison.maxChange()};
+    }
+
+    /**
+     * Wait for a query to finish. A query that fails is reported and left out.
+     */
+    private static Object[] getResult(Future<Object[]> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            System.err.println("Query failed: " + e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Format one result as a CSV line.
+     */
+    private static String toCsv(Object[] values) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            Object value = values[i];
+            if (value instanceof Double) {
+                line.append(formatNumber((Double) value));
+            } else {
+                String text = String.valueOf(value);
+                if (text.contains(",") || text.contains("\"") || text.contains("\n")) {
+                    text = "\"" + text.replace("\"", "\"\"") + "\"";
+                }
+                line.append(text);
+            }
+        }
+        return line.append('\n').toString();
+    }
+
+    /**
+     * Format one result as a JSON object.
+     */
+    private static String toJson(String[] columns, Object[] values) {
+        Json json = new Json();
+        for (int i = 0; i < columns.length; i++) {
+            Object value = values[i];
+            if (value instanceof Double) {
+                json.add(columns[i], (double) (Double) value);
+            } else if (value instanceof Integer) {
+                json.add(columns[i], (long) (Integer) value);
+            } else {
+                json.add(columns[i], value == null ? null : value.toString());
+            }
+        }
+        return "  " + json;
+    }
+
+    /**
+     * Format a number for CSV, leaving it empty if it is not a number.
+     */
+    private static String formatNumber(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "" : Json.number(value);
+    }
+
+    /**
+     * Run a batch from the command line.
+     *
+     * @param args The query type (summary or compare), then any of --format csv|json,
+     *             --cities, --pollutants and --years, each followed by a comma separated list
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            printUsage();
+            return;
+        }
+
+        QueryType type;
+        Format format = Format.CSV;
+        CityDataFilter cityDataFilter = new CityDataFilter();
+        List<String> cities = cityDataFilter.getAvailableCities();
+        List<String> pollutants = ALL_POLLUTANTS;
+        List<String> years = ALL_YEARS;
+        try {
+            type = QueryType.valueOf(args[0].toUpperCase());
+            for (int i = 1; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + args[i]);
+                }
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--format":
+                        format = Format.valueOf(value.toUpperCase());
+                        break;
+                    case "--cities":
+                        cities = Arrays.asList(value.split(","));
+                        break;
+                    case "--pollutants":
+                        pollutants = Arrays.asList(value.split(","));
+                        break;
+                    case "--years":
+                        years = Arrays.asList(value.split(","));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        // Standard output is kept for the results, so progress messages go to standard error
+        PrintStream results = System.out;
+        System.setOut(System.err);
+
+        DataLoader dataLoader = new DataLoader();
+        dataLoader.loadAllDatasets(years, pollutants);
+
+        long start = System.nanoTime();
+        Writer out = new BufferedWriter(new OutputStreamWriter(results, StandardCharsets.UTF_8));
+        int written = new BatchQueryCli(dataLoader, cityDataFilter).run(type, cities, pollutants, years, format, out);
+        System.err.printf("Wrote %d results in %.1f s%n", written, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Print how to run the command.
+     */
+    private static void printUsage() {
+        System.err.println("Usage: java BatchQueryCli summary|compare [--format csv|json]"
+            + " [--cities London,Manchester] [--pollutants NO2,PM10] [--years 2018,2019]");
+    }
+}
@@ -0,0 +1,50 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.StringWriter;
+import java.util.List;
+
+public class BatchQueryCliTest {
+    private BatchQueryCli batchQueryCli;
+
+    @BeforeEach
+    public void setUp() {
+        DataSet no2In2018 = new DataSet("NO2", "2018", "annual mean", "ugm-3");
+        no2In2018.addData(new String[] {"1", "520000", "180000", "12.5"});
+        no2In2018.addData(new String[] {"2", "530000", "185000", "7.5"});
+        DataSet no2In2019 = new DataSet("NO2", "2019", "annual mean", "ugm-3");
+        no2In2019.addData(new String[] {"1", "520000", "180000", "5"});
+        no2In2019.addData(new String[] {"2", "530000", "185000", "15"});
+        DataLoader dataLoader = new DataLoader() {
+            @Override
+            public DataSet getDataset(String pollutant, String year) {
+                return year.equals("2018") ? no2In2018 : year.equals("2019") ? no2In2019 : null;
+            }
+        };
+        batchQueryCli = new BatchQueryCli(dataLoader, new CityDataFilter());
+    }
+
+    @Test
+    public void testSummaryAsCsv() throws Exception {
+        StringWriter out = new StringWriter();
+        int written = batchQueryCli.run(BatchQueryCli.QueryType.SUMMARY, List.of("London", "Manchester"),
+                                        List.of("NO2"), List.of("2018", "2019", "2020"), BatchQueryCli.Format.CSV, out);
+
+        assertEquals(2, written);
+        assertEquals("city,pollutant,year,units,count,average,min,min_easting,min_northing,max,max_easting,max_northing\n"
+                     + "London,NO2,2018,ugm-3,2,10,7.5,530000,185000,12.5,520000,180000\n"
+                     + "London,NO2,2019,ugm-3,2,10,5,520000,180000,15,530000,185000\n", out.toString());
+    }
+
+    @Test
+    public void testCompareAsJson() throws Exception {
+        StringWriter out = new StringWriter();
+        int written = batchQueryCli.run(BatchQueryCli.QueryType.COMPARE, List.of("London"), List.of("NO2"),
+                                        List.of("2018", "2019"), BatchQueryCli.Format.JSON, out);
+
+        assertEquals(1, written);
+        assertEquals("[\n  {\"city\":\"London\",\"pollutant\":\"NO2\",\"from_year\":\"2018\",\"to_year\":\"2019\","
+                     + "\"units\":\"ugm-3\",\"average_from\":10,\"average_to\":10,\"average_change_percent\":0,"
+                     + "\"max_from\":12.5,\"max_to\":15,\"max_change_percent\":20}\n]\n", out.toString());
+    }
+}
@@ -0,0 +1,181 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * All loaded pollution data rearranged by location: for every grid cell, its values for
+ * every pollutant and year lie next to each other in one array.
+ *
+ * The datasets hold one year of one pollutant each, so the history of a single cell
+ * would otherwise mean a search in every dataset. Here a cell's whole history is one
+ * lookup of its grid code and one short copy.
+ *
+ * @author Tejas Raj
+ * @version 2.0
+ */
+public class CellHistoryStore {
+    /**
+     * The values of one cell for every pollutant and year.
+     *
+     * @param gridCode The grid code of the cell
+     * @param pollutants The pollutants, in order
+     * @param years The years, in order
+     * @param values The values, all years of the first pollutant first; NaN where there
+     *               is no data
+     */
+    public record History(int gridCode, List<String> pollutants, List<String> years, double[] values) {
+        /**
+         * Get the value for a pollutant and year.
+         *
+         * @param pollutant The index of the pollutant
+         * @param year The index of the year
+         * @return The value, or NaN if there is no data
+         */
+        public double value(int pollutant, int year) {
+            return values[pollutant * years.size() + year];
+        }
+    }
+
+    private final List<String> pollutants;
+    private final List<String> years;
+    private final int seriesCount;
+
+    // The cell number of each grid code with any data, in the order first seen
+    private final IntIntHashIndex cellOfGridCode;
+
+    // The values of each cell in turn, seriesCount values per cell
+    private final double[] values;
+
+    private CellHistoryStore(List<String> pollutants, List<String> years, IntIntHashIndex cellOfGridCode) {
+        this.pollutants = Collections.unmodifiableList(new ArrayList<>(pollutants));
+        this.years = Collections.unmodifiableList(new ArrayList<>(years));
+        this.seriesCount = pollutants.size() * years.size();
+        this.cellOfGridCode = cellOfGridCode;
+        this.values = new double[cellOfGridCode.size() * seriesCount];
+        Arrays.fill(values, Double.NaN);
+    }
+
+    /**
+     * Build the store from the datasets of a loader. Pollutants and years without a
+     * dataset are kept, with no values. Datasets are asked for one at a time and not
+     * held, so a loader that loads them on demand can evict them as it goes.
+     *
+     * @param dataLoader The loader holding the datasets
+     * @param pollutants The pollutants to include
+     * @param years The years to include
+     * @return The store
+     */
+    public static CellHistoryStore build(DataLoader dataLoader, List<String> pollutants, List<String> years) {
+        // Number every grid code seen in any dataset, once each. The loader's datasets
+        // share its dictionary, so it holds at most that many grid codes.
+        IntIntHashIndex cellOfGridCode = new IntIntHashIndex(dataLoader.getCoordinateDictionary().size());
+        for (String pollutant : pollutants) {
+            for (String year : years) {
+                DataSet dataset = dataLoader.getDataset(pollutant, year);
+                if (dataset == null) {
+                    continue;
+                }
+                int[] codes = dataset.getGridCodeColumn();
+                for (int row = 0; row < dataset.size(); row++) {
+                    if (!dataset.hasValue(row)) {
+                        continue;
+                    }
+                    cellOfGridCode.putIfAbsent(codes[row], cellOfGridCode.size());
+                }
+            }
+        }
+
+        CellHistoryStore store = new CellHistoryStore(pollutants, years, cellOfGridCode);
+        for (int series = 0; series < store.seriesCount; series++) {
+            DataSet dataset = dataLoader.getDataset(pollutants.get(series / years.size()),
+                                                    years.get(series % years.size()));
+            if (dataset == null) {
+                continue;
+            }
+            int[] codes = dataset.getGridCodeColumn();
+            ValueColumn datasetValues = dataset.getValues();
+            for (int row = 0; row < dataset.size(); row++) {
+                if (!dataset.hasValue(row)) {
+                    continue;
+                }
+                int cell = cellOfGridCode.get(codes[row]);
+                store.values[cell * store.seriesCount + series] = datasetValues.get(row);
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Read the history of one cell straight from the datasets of a loader, without
+     * building a store. Each dataset is asked for in turn and not held, so this suits a
+     * loader that loads datasets on demand; it may read data files, so should not be
+     * called on the JavaFX thread.
+     *
+     * @param dataLoader The loader holding the datasets
+     * @param pollutants The pollutants to include
+     * @param years The years to include
+     * @param gridCode The grid code of the cell
+     * @return The history, or null if no dataset has data for the cell
+     */
+    public static History read(DataLoader dataLoader, List<String> pollutants, List<String> years, int gridCode) {
+        double[] values = new double[pollutants.size() * years.size()];
+        boolean found = false;
+        for (int series = 0; series < values.length; series++) {
+            DataSet dataset = dataLoader.getDataset(pollutants.get(series / years.size()),
+                                                    years.get(series % years.size()));
+            int row = dataset == null ? -1 : dataset.findRow(gridCode);
+            values[series] = row < 0 ? Double.NaN : dataset.getValues().get(row);
+            found |= row >= 0;
+        }
+        if (!found) {
+            return null;
+        }
+        return new History(gridCode, Collections.unmodifiableList(new ArrayList<>(pollutants)),
+                           Collections.unmodifiableList(new ArrayList<>(years)), values);
+    }
+
+    /**
+     * Get the history of a cell.
+     *
+     * @param gridCode The grid code of the cell
+     * @return The history, or null if no dataset has data for the cell
+     */
+    public History getHistory(int gridCode) {
+        int cell = cellOfGridCode.get(gridCode);
+        if (cell == IntIntHashIndex.MISSING) {
+            return null;
+        }
+        double[] history = new double[seriesCount];
+        System.arraycopy(values, cell * seriesCount, history, 0, seriesCount);
+        return new History(gridCode, pollutants, years, history);
+    }
+
+    /**
+     * Get the pollutants in the store, in order.
+     */
+    public List<String> getPollutants() {
+        return pollutants;
+    }
+
+    /**
+     * Get the years in the store, in order.
+     */
+    public List<String> getYears() {
+        return years;
+    }
+
+    /**
+     * Get the number of cells with any data.
+     */
+    public int getCellCount() {
+        return cellOfGridCode.size();
+    }
+
+    /**
+     * Get the memory used by the store, in bytes.
+     */
+    public long getMemoryBytes() {
+        return cellOfGridCode.getMemoryBytes() + (long) values.length * Double.BYTES;
+    }
+}
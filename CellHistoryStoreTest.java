@@ -0,0 +1,47 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CellHistoryStoreTest {
+    @Test
+    public void testHistoryGathersEveryPollutantAndYear() {
+        DataSet no2In2018 = new DataSet("NO2", "2018", "annual mean", "ugm-3");
+        no2In2018.addData(new String[] {"7", "500", "500", "10"});
+        no2In2018.addData(new String[] {"3", "1500", "500", "11"});
+        DataSet no2In2019 = new DataSet("NO2", "2019", "annual mean", "ugm-3");
+        no2In2019.addData(new String[] {"3", "1500", "500", "12"});
+        DataSet pm10In2019 = new DataSet("PM10", "2019", "annual mean", "ugm-3");
+        pm10In2019.addData(new String[] {"7", "500", "500", "20"});
+        pm10In2019.addData(new String[] {"3", "1500", "500", "21"});
+        Map<String, DataSet> datasets = new HashMap<>();
+        datasets.put("NO2-2018", no2In2018);
+        datasets.put("NO2-2019", no2In2019);
+        datasets.put("PM10-2019", pm10In2019);
+        DataLoader dataLoader = new DataLoader() {
+            @Override
+            public DataSet getDataset(String pollutant, String year) {
+                return datasets.get(pollutant + "-" + year);
+            }
+        };
+
+        CellHistoryStore store = CellHistoryStore.build(dataLoader, List.of("NO2", "PM10"), List.of("2018", "2019"));
+        assertEquals(2, store.getCellCount());
+
+        CellHistoryStore.History history = store.getHistory(7);
+        assertEquals(10, history.value(0, 0));
+        assertTrue(Double.isNaN(history.value(0, 1)));
+        assertTrue(Double.isNaN(history.value(1, 0)));
+        assertEquals(20, history.value(1, 1));
+
+        assertEquals(12, store.getHistory(3).value(0, 1));
+        assertNull(store.getHistory(5));
+
+        // Reading one cell straight from the datasets gives the same history
+        CellHistoryStore.History read = CellHistoryStore.read(dataLoader, List.of("NO2", "PM10"),
+                                                              List.of("2018", "2019"), 7);
+        assertArrayEquals(history.values(), read.values());
+        assertNull(CellHistoryStore.read(dataLoader, List.of("NO2"), List.of("2018"), 5));
+    }
+}
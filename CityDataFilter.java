@@ -1,7 +1,11 @@
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 
 /**
  * This class filters data points to ensure they are within specified geographic boundaries.
@@ -85,6 +89,174 @@ public class CityDataFilter {
         return filteredList;
     }
     
+    /**
+     * Filter a dataset to only include points within the specified city boundaries.
+     * The boundary test runs over the dataset's primitive columns.
+     * 
+     * @param dataset The dataset to filter
+     * @param cityName The name of the city to filter for
+     * @return A filtered list containing only points within the city boundaries
+     */
+    public List<DataPoint> filterCityArea(DataSet dataset, String cityName) {
+        boolean[] mask = new boolean[dataset.size()];
+        int count = markCityArea(dataset, cityName, mask);
+        
+        List<DataPoint> filteredList = new ArrayList<>(count);
+        for (int row = 0; row < mask.length && filteredList.size() < count; row++) {
+            if (mask[row]) {
+                filteredList.add(dataset.getDataPoint(row));
+            }
+        }
+        
+        return filteredList;
+    }
+    
+    /**
+     * Mark the rows of a dataset that lie within the specified city boundaries.
+     * 
+     * @param dataset The dataset to test
+     * @param cityName The name of the city
+     * @param mask Output array with at least dataset.size() entries
+     * @return The number of rows marked, or 0 if the city is not found
+     */
+    public int markCityArea(DataSet dataset, String cityName, boolean[] mask) {
+        CityBoundary boundary = cityBoundaries.get(cityName);
+        
+        if (boundary == null) {
+            Arrays.fill(mask, 0, dataset.size(), false);
+            return 0;
+        }
+        
+        int count = ColumnKernels.boundingBoxMask(dataset.getXColumn(), dataset.getYColumn(), dataset.size(),
+                                                  boundary.minEasting, boundary.maxEasting,
+                                                  boundary.minNorthing, boundary.maxNorthing, mask);
+        return dataset.isComplete() ? count : dataset.maskMissing(mask);
+    }
+    
+    /**
+     * Filter data points for several cities at once. The data is scanned a single time and
+     * every point is assigned to all of the cities whose boundaries contain it, so the cost
+     * depends on the size of the data rather than on cities x data.
+     * 
+     * @param allData The complete list of data points
+     * @param cityNames The names of the cities to filter for
+     * @return A map from each requested city name (in the order given) to its filtered list;
+     *         unknown cities map to an empty list
+     */
+    public Map<String, List<DataPoint>> filterCities(List<DataPoint> allData, Collection<String> cityNames) {
+        Map<String, List<DataPoint>> result = new LinkedHashMap<>();
+        for (String cityName : cityNames) {
+            result.put(cityName, new ArrayList<>());
+        }
+        // A city named twice is filtered once
+        List<String> knownCities = new ArrayList<>();
+        for (String cityName : result.keySet()) {
+            if (cityBoundaries.containsKey(cityName)) {
+                knownCities.add(cityName);
+            }
+        }
+        
+        if (knownCities.isEmpty()) {
+            return result;
+        }
+        
+        CityIntervalIndex index = new CityIntervalIndex(knownCities);
+        List<List<DataPoint>> cityLists = new ArrayList<>();
+        for (String cityName : knownCities) {
+            cityLists.add(result.get(cityName));
+        }
+        
+        for (DataPoint point : allData) {
+            int[] candidates = index.candidatesFor(point.x());
+            for (int city : candidates) {
+                if (point.y() >= index.minNorthing[city] && point.y() <= index.maxNorthing[city]) {
+                    cityLists.get(city).add(point);
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Interval index over the easting ranges of a set of city boundaries.
+     * 
+     * The sorted, distinct boundary eastings split the axis into slots: slot 2k is the
+     * endpoint itself and slot 2k+1 is the open interval up to the next endpoint. Each slot
+     * holds the cities whose easting range covers it, so a point needs one binary search and
+     * a northing check against only those candidates.
+     */
+    private class CityIntervalIndex {
+        private final double[] endpoints;
+        private final int[][] slotCities;
+        private final double[] minNorthing;
+        private final double[] maxNorthing;
+        
+        /**
+         * Build the index for the given (known) cities. City i in the index is cityNames.get(i).
+         */
+        private CityIntervalIndex(List<String> cityNames) {
+            int count = cityNames.size();
+            double[] minEasting = new double[count];
+            double[] maxEasting = new double[count];
+            minNorthing = new double[count];
+            maxNorthing = new double[count];
+            
+            TreeSet<Double> distinct = new TreeSet<>();
+            for (int i = 0; i < count; i++) {
+                CityBoundary boundary = cityBoundaries.get(cityNames.get(i));
+                minEasting[i] = boundary.minEasting;
+                maxEasting[i] = boundary.maxEasting;
+                minNorthing[i] = boundary.minNorthing;
+                maxNorthing[i] = boundary.maxNorthing;
+                distinct.add(boundary.minEasting);
+                distinct.add(boundary.maxEasting);
+            }
+            
+            endpoints = new double[distinct.size()];
+            int e = 0;
+            for (double value : distinct) {
+                endpoints[e++] = value;
+            }
+            
+            // A slot is covered by a city when its representative easting lies in the city's range
+            slotCities = new int[endpoints.length * 2][];
+            int[] buffer = new int[count];
+            for (int slot = 0; slot < slotCities.length; slot++) {
+                int k = slot / 2;
+                double representative = (slot % 2 == 0 || k + 1 >= endpoints.length)
+                    ? endpoints[k]
+                    : (endpoints[k] + endpoints[k + 1]) / 2;
+                boolean open = slot % 2 == 1;
+                int found = 0;
+                if (!open || k + 1 < endpoints.length) {
+                    for (int city = 0; city < count; city++) {
+                        if (representative >= minEasting[city] && representative <= maxEasting[city]) {
+                            buffer[found++] = city;
+                        }
+                    }
+                }
+                slotCities[slot] = Arrays.copyOf(buffer, found);
+            }
+        }
+        
+        /**
+         * Return the cities whose easting range contains the given easting.
+         */
+        private int[] candidatesFor(double easting) {
+            int position = Arrays.binarySearch(endpoints, easting);
+            if (position >= 0) {
+                return slotCities[position * 2];
+            }
+            
+            int insertion = -position - 1;
+            if (insertion == 0 || insertion == endpoints.length) {
+                return slotCities[slotCities.length - 1]; // Outside every city: always empty
+            }
+            return slotCities[(insertion - 1) * 2 + 1];
+        }
+    }
+    
     /**
      * Inner class to represent city boundaries
      */
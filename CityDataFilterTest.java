@@ -0,0 +1,53 @@
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class CityDataFilterTest {
+    private CityDataFilter cityDataFilter;
+    private List<DataPoint> dataPoints;
+
+    @BeforeEach
+    public void setUp() {
+        cityDataFilter = new CityDataFilter();
+        cityDataFilter.addCity("Overlap", 372000, 380000, 391000, 400000);
+
+        dataPoints = Arrays.asList(
+            new DataPoint(1, 530000, 180000, 40),   // London
+            new DataPoint(2, 375000, 395000, 20),   // Manchester and Overlap
+            new DataPoint(3, 372737, 391515, 25),   // Manchester corner, inside Overlap
+            new DataPoint(4, 420000, 560000, 15),   // Newcastle
+            new DataPoint(5, 100000, 100000, 5)     // Nowhere
+        );
+    }
+
+    @Test
+    public void testFilterCitiesMatchesFilterCityArea() {
+        List<String> cities = cityDataFilter.getAvailableCities();
+        Map<String, List<DataPoint>> result = cityDataFilter.filterCities(dataPoints, cities);
+
+        for (String city : cities) {
+            assertEquals(cityDataFilter.filterCityArea(dataPoints, city), result.get(city),
+                         "Bulk filter should agree with single city filter for " + city);
+        }
+        assertEquals(2, result.get("Overlap").size());
+    }
+
+    @Test
+    public void testFilterCitiesRepeatedCity() {
+        Map<String, List<DataPoint>> result = cityDataFilter.filterCities(dataPoints,
+            Arrays.asList("Manchester", "London", "Manchester"));
+        assertEquals(2, result.size());
+        assertEquals(cityDataFilter.filterCityArea(dataPoints, "Manchester"), result.get("Manchester"));
+        assertEquals(1, result.get("London").size());
+    }
+
+    @Test
+    public void testFilterCitiesUnknownCity() {
+        Map<String, List<DataPoint>> result = cityDataFilter.filterCities(dataPoints, Arrays.asList("New York"));
+        assertTrue(result.get("New York").isEmpty());
+    }
+}
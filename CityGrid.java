@@ -0,0 +1,152 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A dense grid of the 1km data cells covering a city, used to line up the same cells
+ * across the datasets of different years.
+ *
+ * Cells are numbered row by row from the north-west corner, so a cell's index is the same
+ * in every dataset sampled onto the grid and can be used directly as a pixel index in an
+ * image with one pixel per cell.
+ *
+ * @author Tejas Raj
+ * @version 2.0
+ */
+public class CityGrid {
+    public static final int CELL_SIZE = 1000;
+
+    private final CityDataFilter.CityBoundary boundary;
+    private final int firstColumn;
+    private final int firstRow;
+    private final int columns;
+    private final int rows;
+
+    /**
+     * Create the grid of cells covering a city's boundary.
+     *
+     * @param boundary The city's boundary
+     */
+    public CityGrid(CityDataFilter.CityBoundary boundary) {
+        this.boundary = boundary;
+        this.firstColumn = (int) Math.floor(boundary.getMinEasting() / CELL_SIZE);
+        this.firstRow = (int) Math.floor(boundary.getMinNorthing() / CELL_SIZE);
+        this.columns = (int) Math.floor(boundary.getMaxEasting() / CELL_SIZE) - firstColumn + 1;
+        this.rows = (int) Math.floor(boundary.getMaxNorthing() / CELL_SIZE) - firstRow + 1;
+    }
+
+    /**
+     * Get the number of columns of cells, from west to east.
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Get the number of rows of cells, from north to south.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Get the total number of cells.
+     */
+    public int getCellCount() {
+        return columns * rows;
+    }
+
+    /**
+     * Get the easting of the grid's west edge.
+     */
+    public double getMinEasting() {
+        return (double) firstColumn * CELL_SIZE;
+    }
+
+    /**
+     * Get the easting of the grid's east edge.
+     */
+    public double getMaxEasting() {
+        return (double) (firstColumn + columns) * CELL_SIZE;
+    }
+
+    /**
+     * Get the northing of the grid's south edge.
+     */
+    public double getMinNorthing() {
+        return (double) firstRow * CELL_SIZE;
+    }
+
+    /**
+     * Get the northing of the grid's north edge.
+     */
+    public double getMaxNorthing() {
+        return (double) (firstRow + rows) * CELL_SIZE;
+    }
+
+    /**
+     * Get the index of the cell containing a location.
+     *
+     * @return The cell index, or -1 if the location is outside the grid
+     */
+    public int cellIndexOf(double easting, double northing) {
+        int column = (int) Math.floor(easting / CELL_SIZE) - firstColumn;
+        int row = rows - 1 - ((int) Math.floor(northing / CELL_SIZE) - firstRow);
+        if (column < 0 || column >= columns || row < 0 || row >= rows) {
+            return -1;
+        }
+        return row * columns + column;
+    }
+
+    /**
+     * Get the value of every cell from a list of data points, such as the points of a city
+     * returned by CityDataFilter.
+     *
+     * @param dataPoints The data points to place on the grid
+     * @return One value per cell, NaN where there is no data point
+     */
+    public double[] sample(List<DataPoint> dataPoints) {
+        double[] values = new double[getCellCount()];
+        Arrays.fill(values, Double.NaN);
+        for (DataPoint point : dataPoints) {
+            int cell = cellIndexOf(point.x(), point.y());
+            if (cell >= 0) {
+                values[cell] = point.value();
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Get the value of every cell in a dataset. Only points inside the city boundary are
+     * used, as for CityDataFilter.
+     *
+     * @param dataset The dataset to sample
+     * @return One value per cell, NaN where the dataset has no data
+     */
+    public double[] sample(DataSet dataset) {
+        double[] values = new double[getCellCount()];
+        Arrays.fill(values, Double.NaN);
+
+        int size = dataset.size();
+        boolean[] mask = new boolean[size];
+        ColumnKernels.boundingBoxMask(dataset.getXColumn(), dataset.getYColumn(), size,
+                                      boundary.getMinEasting(), boundary.getMaxEasting(),
+                                      boundary.getMinNorthing(), boundary.getMaxNorthing(), mask);
+        if (!dataset.isComplete()) {
+            dataset.maskMissing(mask);
+        }
+
+        int[] xs = dataset.getXColumn();
+        int[] ys = dataset.getYColumn();
+        ValueColumn column = dataset.getValues();
+        for (int row = 0; row < size; row++) {
+            if (mask[row]) {
+                int cell = cellIndexOf(xs[row], ys[row]);
+                if (cell >= 0) {
+                    values[cell] = column.get(row);
+                }
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,87 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The map image and size of each city. This class uses no JavaFX, so that headless tools
+ * such as MapExporter can find the maps without the JavaFX libraries; CityMapManager
+ * decodes the images for the user interface.
+ * 
+ * @author Amey Tripathi
+ * @version 2.0
+ */
+public class CityMapCatalog {
+    private final Map<String, CityMapInfo> cityMaps;
+    
+    /**
+     * Constructor for CityMapCatalog, holding the default cities
+     */
+    public CityMapCatalog() {
+        this.cityMaps = new HashMap<>();
+        
+        // Initialize with default cities
+        addCity("London", "London.png", 1200, 900);
+        addCity("Manchester", "Manchester.png", 1200, 900);
+        addCity("Newcastle", "Newcastle.png", 1200, 900);
+    }
+    
+    /**
+     * Add a city with its map information
+     * 
+     * @param cityName The name of the city
+     * @param mapImagePath The file path to the map image
+     * @param mapWidth The width of the map in pixels
+     * @param mapHeight The height of the map in pixels
+     */
+    public void addCity(String cityName, String mapImagePath, double mapWidth, double mapHeight) {
+        cityMaps.put(cityName, new CityMapInfo(mapImagePath, mapWidth, mapHeight));
+    }
+    
+    /**
+     * Get city map information
+     * 
+     * @param cityName The name of the city
+     * @return The city map info or null if not found
+     */
+    public CityMapInfo getCityMapInfo(String cityName) {
+        return cityMaps.get(cityName);
+    }
+    
+    /**
+     * Get the names of all cities with a map
+     */
+    public List<String> getCityNames() {
+        return new ArrayList<>(cityMaps.keySet());
+    }
+    
+    /**
+     * Inner class to represent city map information
+     */
+    public static class CityMapInfo {
+        private final String mapImagePath;
+        private final double mapWidth;
+        private final double mapHeight;
+        
+        /**
+         * Constructor for CityMapInfo
+         */
+        public CityMapInfo(String mapImagePath, double mapWidth, double mapHeight) {
+            this.mapImagePath = mapImagePath;
+            this.mapWidth = mapWidth;
+            this.mapHeight = mapHeight;
+        }
+        
+        public String getMapImagePath() { 
+            return mapImagePath; 
+        }
+        
+        public double getMapWidth() { 
+            return mapWidth; 
+        }
+        
+        public double getMapHeight() {
+            return mapHeight;
+        }
+    }
+}
@@ -1,26 +1,35 @@
 import javafx.scene.image.Image;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
- * This class manages map images and properties for different cities
+ * This class manages map images and properties for different cities.
+ * Map images are decoded in the background and kept in a small cache, so switching
+ * back to a city does not decode its map again.
  * 
  * @author Amey Tripathi
  * @version 2.0
  */
 public class CityMapManager {
-    private final Map<String, CityMapInfo> cityMaps;
+    // Maximum number of decoded map images kept in memory
+    private static final int MAX_CACHED_IMAGES = 6;
+    
+    private final CityMapCatalog catalog;
+    private final LruCache<String, Image> imageCache;
     
     /**
-     * Constructor for CityMapManager
+     * Constructor for CityMapManager, with the default cities
      */
     public CityMapManager() {
-        this.cityMaps = new HashMap<>();
-        
-        // Initialize with default cities
-        addCity("London", "London.png", 1200, 900);
-        addCity("Manchester", "Manchester.png", 1200, 900);
-        addCity("Newcastle", "Newcastle.png", 1200, 900);
+        this(new CityMapCatalog());
+    }
+    
+    /**
+     * Constructor for CityMapManager
+     * 
+     * @param catalog The map image and size of each city
+     */
+    public CityMapManager(CityMapCatalog catalog) {
+        this.catalog = catalog;
+        this.imageCache = new LruCache<>(MAX_CACHED_IMAGES);
     }
     
     /**
@@ -32,7 +41,7 @@ public class CityMapManager {
      * @param mapHeight The height of the map in pixels
      */
     public void addCity(String cityName, String mapImagePath, double mapWidth, double mapHeight) {
-        cityMaps.put(cityName, new CityMapInfo(mapImagePath, mapWidth, mapHeight));
+        catalog.addCity(cityName, mapImagePath, mapWidth, mapHeight);
     }
     
     /**
@@ -41,24 +50,42 @@ public class CityMapManager {
      * @param cityName The name of the city
      * @return The city map info or null if not found
      */
-    public CityMapInfo getCityMapInfo(String cityName) {
-        return cityMaps.get(cityName);
+    public CityMapCatalog.CityMapInfo getCityMapInfo(String cityName) {
+        return catalog.getCityMapInfo(cityName);
     }
     
     /**
-     * Try to load the image for a city
+     * Get the map image for a city. The image is decoded in the background the first time
+     * it is asked for, and taken from the cache after that. An ImageView showing the image
+     * will display it as soon as decoding has finished.
      * 
      * @param cityName The name of the city
      * @return The image or null if it couldn't be loaded
      */
     public Image loadCityMapImage(String cityName) {
-        CityMapInfo info = cityMaps.get(cityName);
+        CityMapCatalog.CityMapInfo info = catalog.getCityMapInfo(cityName);
         if (info == null) {
             return null;
         }
         
+        Image cached = imageCache.get(cityName);
+        if (cached != null) {
+            return cached;
+        }
+        
         try {
-            return new Image("file:" + info.mapImagePath);
+            Image image = new Image("file:" + info.getMapImagePath(), true);
+            
+            // Errors are only known once background loading has run, so drop failed images then
+            image.errorProperty().addListener((obs, wasError, isError) -> {
+                if (isError) {
+                    System.out.println("Error loading map image for " + cityName + ": " + image.getException());
+                    imageCache.remove(cityName);
+                }
+            });
+            
+            imageCache.put(cityName, image);
+            return image;
         } catch (Exception e) {
             System.out.println("Error loading map image for " + cityName + ": " + e.getMessage());
             return null;
@@ -66,32 +93,12 @@ public class CityMapManager {
     }
     
     /**
-     * Inner class to represent city map information
+     * Start decoding the map images of all cities in the background, so that later
+     * city switches can use them straight away.
      */
-    public static class CityMapInfo {
-        private final String mapImagePath;
-        private final double mapWidth;
-        private final double mapHeight;
-        
-        /**
-         * Constructor for CityMapInfo
-         */
-        public CityMapInfo(String mapImagePath, double mapWidth, double mapHeight) {
-            this.mapImagePath = mapImagePath;
-            this.mapWidth = mapWidth;
-            this.mapHeight = mapHeight;
-        }
-        
-        public String getMapImagePath() { 
-            return mapImagePath; 
-        }
-        
-        public double getMapWidth() { 
-            return mapWidth; 
-        }
-        
-        public double getMapHeight() { 
-            return mapHeight; 
+    public void prefetchAllCityMaps() {
+        for (String cityName : catalog.getCityNames()) {
+            loadCityMapImage(cityName);
         }
     }
 }
\ No newline at end of file
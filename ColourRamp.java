@@ -0,0 +1,159 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A precomputed colour ramp used to colour pollution values.
+ *
+ * The ramp is a table of RGB colours. Values are first normalised to 0..1 and then
+ * quantised into an index in the table, so colouring a value needs no allocation.
+ * The table only holds plain ints, so the ramp can also be used without JavaFX.
+ *
+ * @author Nitin Anantharaju
+ * @version 2.0
+ */
+public class ColourRamp {
+    public static final int DEFAULT_SIZE = 256;
+
+    // The original map colours: green for the lowest values through to red for the highest
+    public static final ColourRamp GREEN_RED = fromStops("Green to Red", DEFAULT_SIZE,
+        0x00ff00, 0xff0000);
+
+    // Perceptually uniform ramp (matplotlib's viridis)
+    public static final ColourRamp VIRIDIS = fromStops("Viridis", DEFAULT_SIZE,
+        0x440154, 0x472d7b, 0x3b528b, 0x2c728e, 0x21918c, 0x28ae80, 0x5ec962, 0xaddc30, 0xfde725);
+
+    // Colour-blind-safe, perceptually uniform ramp (cividis)
+    public static final ColourRamp CIVIDIS = fromStops("Cividis", DEFAULT_SIZE,
+        0x00224e, 0x123570, 0x3b496c, 0x575d6d, 0x707173, 0x8a8779, 0xa69d75, 0xc4b56c, 0xe4cf5b, 0xfee838);
+
+    private final String name;
+    private final int[] rgb;
+
+    /**
+     * Constructor for ColourRamp
+     *
+     * @param name The display name of the ramp
+     * @param rgb The table of colours, as 0xRRGGBB ints
+     */
+    public ColourRamp(String name, int[] rgb) {
+        if (rgb.length < 2) {
+            throw new IllegalArgumentException("A colour ramp needs at least two entries");
+        }
+        this.name = name;
+        this.rgb = rgb.clone();
+    }
+
+    /**
+     * Build a ramp by interpolating linearly between evenly spaced colour stops.
+     *
+     * @param name The display name of the ramp
+     * @param size The number of entries in the table (for example 256 or 1024)
+     * @param stops The colour stops, as 0xRRGGBB ints, from lowest to highest value
+     * @return The new ramp
+     */
+    public static ColourRamp fromStops(String name, int size, int... stops) {
+        int[] table = new int[size];
+        for (int i = 0; i < size; i++) {
+            double position = (double) i / (size - 1) * (stops.length - 1);
+            int stop = Math.min((int) position, stops.length - 2);
+            double fraction = position - stop;
+            table[i] = blend(stops[stop], stops[stop + 1], fraction);
+        }
+        return new ColourRamp(name, table);
+    }
+
+    /**
+     * Linearly blend two RGB colours.
+     */
+    private static int blend(int from, int to, double fraction) {
+        int r = (int) Math.round(((from >> 16) & 0xff) * (1 - fraction) + ((to >> 16) & 0xff) * fraction);
+        int g = (int) Math.round(((from >> 8) & 0xff) * (1 - fraction) + ((to >> 8) & 0xff) * fraction);
+        int b = (int) Math.round((from & 0xff) * (1 - fraction) + (to & 0xff) * fraction);
+        return (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Get all of the built-in ramps.
+     *
+     * @return List of ramps
+     */
+    public static List<ColourRamp> getAvailableRamps() {
+        return Arrays.asList(GREEN_RED, VIRIDIS, CIVIDIS);
+    }
+
+    /**
+     * Get the display name of this ramp.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the number of entries in this ramp.
+     */
+    public int size() {
+        return rgb.length;
+    }
+
+    /**
+     * Get the colour at an index, as a 0xRRGGBB int.
+     */
+    public int rgb(int index) {
+        return rgb[index];
+    }
+
+    /**
+     * Get the colour at an index with the given opacity, as a 0xAARRGGBB int.
+     */
+    public int argb(int index, double opacity) {
+        int alpha = (int) Math.round(opacity * 255);
+        return (alpha << 24) | rgb[index];
+    }
+
+    /**
+     * Get the whole table with the given opacity, as 0xAARRGGBB ints.
+     */
+    public int[] argbTable(double opacity) {
+        int[] table = new int[rgb.length];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = argb(i, opacity);
+        }
+        return table;
+    }
+
+    /**
+     * Quantise a normalised value (0..1) into an index in this ramp. Values outside
+     * the range are clamped.
+     */
+    public int indexOf(double normalisedValue) {
+        int index = (int) (normalisedValue * (rgb.length - 1) + 0.5);
+        return index < 0 ? 0 : (index >= rgb.length ? rgb.length - 1 : index);
+    }
+
+    /**
+     * Normalise and quantise the first n values in one pass. The lowest value maps to
+     * the first entry of the ramp and the highest to the last. If all values are equal,
+     * they all map to the first entry.
+     *
+     * @param values The values to quantise
+     * @param n The number of values
+     * @param min The minimum of the values
+     * @param max The maximum of the values
+     * @param indices Output array of at least n entries for the ramp indices
+     */
+    public void quantise(double[] values, int n, double min, double max, int[] indices) {
+        double scale = max > min ? (rgb.length - 1) / (max - min) : 0;
+        int last = rgb.length - 1;
+        for (int i = 0; i < n; i++) {
+            int index = (int) ((values[i] - min) * scale + 0.5);
+            indices[i] = index < 0 ? 0 : (index > last ? last : index);
+        }
+    }
+
+    /**
+     * Return the name of this ramp.
+     */
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,120 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A small benchmark comparing the scalar and blocked column kernels, the original list
+ * based loops, and the value column encodings, on a synthetic national-scale dataset.
+ *
+ * Run with: java ColumnKernelsBenchmark [points] [rounds]
+ *
+ * @author Tejas Raj
+ * @version 2.0
+ */
+public class ColumnKernelsBenchmark {
+    // London's boundary, as used by CityDataFilter
+    private static final double MIN_X = 510394, MAX_X = 553297, MIN_Y = 168504, MAX_Y = 193305;
+
+    private final int points;
+    private final int rounds;
+    private final int[] xs;
+    private final int[] ys;
+    private final double[] values;
+    private final List<DataPoint> dataPoints;
+
+    /**
+     * Create a benchmark over the given number of random 1km grid points.
+     *
+     * @param points The number of data points
+     * @param rounds The number of timed rounds per kernel
+     */
+    public ColumnKernelsBenchmark(int points, int rounds) {
+        this.points = points;
+        this.rounds = rounds;
+        xs = new int[points];
+        ys = new int[points];
+        values = new double[points];
+        dataPoints = new ArrayList<>(points);
+
+        Random random = new Random(42);
+        for (int i = 0; i < points; i++) {
+            xs[i] = random.nextInt(700) * 1000 + 500;
+            ys[i] = random.nextInt(1250) * 1000 + 500;
+            values[i] = random.nextDouble() * 60;
+            dataPoints.add(new DataPoint(i, xs[i], ys[i], values[i]));
+        }
+    }
+
+    /**
+     * Run all kernels and print the average time per round.
+     */
+    public void run() {
+        System.out.println("Points: " + points + ", selected kernels: " + ColumnKernels.selectedKernels());
+        boolean[] mask = new boolean[points];
+
+        time("list filter  ", () -> {
+            int count = 0;
+            for (DataPoint point : dataPoints) {
+                if (point.x() >= MIN_X && point.x() <= MAX_X && point.y() >= MIN_Y && point.y() <= MAX_Y) {
+                    count++;
+                }
+            }
+            return count;
+        });
+        time("scalar mask  ", () -> ColumnKernels.Scalar.boundingBoxMask(xs, ys, points, MIN_X, MAX_X, MIN_Y, MAX_Y, mask));
+        time("blocked mask ", () -> ColumnKernels.Blocked.boundingBoxMask(xs, ys, points, MIN_X, MAX_X, MIN_Y, MAX_Y, mask));
+
+        time("list sum     ", () -> {
+            double sum = 0;
+            for (DataPoint point : dataPoints) {
+                sum += point.value();
+            }
+            return sum;
+        });
+        time("scalar sum   ", () -> ColumnKernels.Scalar.sum(values, points));
+        time("blocked sum  ", () -> ColumnKernels.Blocked.sum(values, points));
+
+        time("list min/max   ", () -> {
+            double min = java.util.Collections.min(dataPoints.stream().map(DataPoint::value).toList());
+            double max = java.util.Collections.max(dataPoints.stream().map(DataPoint::value).toList());
+            return max - min;
+        });
+        time("scalar min/max ", () -> ColumnKernels.Scalar.max(values, points) - ColumnKernels.Scalar.min(values, points));
+        time("blocked min/max", () -> ColumnKernels.Blocked.max(values, points) - ColumnKernels.Blocked.min(values, points));
+
+        ColumnKernels.boundingBoxMask(xs, ys, points, MIN_X, MAX_X, MIN_Y, MAX_Y, mask);
+        for (ValueColumn.Encoding encoding : ValueColumn.Encoding.values()) {
+            ValueColumn column = ValueColumn.encode(values, points, encoding);
+            System.out.println(String.format("%-8s %d bytes, max error %.6f", encoding,
+                                             column.getMemoryBytes(), column.maxError(values, points)));
+            time(String.format("%-8s masked sum", encoding), () -> column.maskedSum(mask, points));
+            time(String.format("%-8s min/max   ", encoding), () -> column.max(points) - column.min(points));
+        }
+    }
+
+    /**
+     * Warm up and then time a kernel, printing the mean time per call.
+     */
+    private void time(String name, java.util.function.Supplier<Object> kernel) {
+        Object sink = null;
+        for (int i = 0; i < rounds; i++) {
+            sink = kernel.get();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            sink = kernel.get();
+        }
+        double micros = (System.nanoTime() - start) / 1000.0 / rounds;
+        System.out.println(String.format("%s %10.1f us  (%s)", name, micros, sink));
+    }
+
+    /**
+     * Main method to run the benchmark from the command line.
+     */
+    public static void main(String[] args) {
+        int points = args.length > 0 ? Integer.parseInt(args[0]) : 250000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        new ColumnKernelsBenchmark(points, rounds).run();
+    }
+}
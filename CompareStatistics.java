@@ -9,7 +9,6 @@ import java.util.*;
 public class CompareStatistics {
     private DataLoader dataLoader;
     private CityDataFilter cityDataFilter;
-    private Graph graph;
 
     /**
      * Constructor for CompareStatistics which initialises all components for caculating statistics.
@@ -20,7 +19,6 @@ public class CompareStatistics {
     public CompareStatistics(DataLoader dataLoader, CityDataFilter cityDataFilter) {
         this.dataLoader = dataLoader;
         this.cityDataFilter = cityDataFilter;
-        this.graph = new Graph();
     }
 
     /**
@@ -33,34 +31,19 @@ public class CompareStatistics {
      * @return A formatted string with comparison results
      */
     public String compareAveragePollution(String pollutant, String year1, String year2, String cityName) {
-        // Load datasets for both years
-        DataSet dataset1 = dataLoader.getDataset(pollutant, year1);
-        DataSet dataset2 = dataLoader.getDataset(pollutant, year2);
-        
-        if (dataset1 == null || dataset2 == null) {
-            return "Missing data for one or both selected years.";
-        }
-        
-        // Filter data for the city
-        List<DataPoint> cityData1 = cityDataFilter.filterCityArea(dataset1.getData(), cityName);
-        List<DataPoint> cityData2 = cityDataFilter.filterCityArea(dataset2.getData(), cityName);
-        
-        if (cityData1.isEmpty() || cityData2.isEmpty()) {
-            return "No data available for " + cityName + " in one or both selected years.";
+        Comparison comparison = compare(pollutant, year1, year2, cityName);
+        if (comparison == null) {
+            return describeMissingData(pollutant, year1, year2, cityName);
         }
         
-        // Calculate averages
-        double avg1 = calculateAverage(cityData1);
-        double avg2 = calculateAverage(cityData2);
-        
-        // Calculate percentage difference (from year2 to year1)
-        double percentageDifference = ((avg1 - avg2) / avg2) * 100;
+        // Percentage difference from year2 to year1
+        double percentageDifference = comparison.averageChange();
         
         // Format the result
         StringBuilder result = new StringBuilder();
         result.append(String.format("COMPARISON OF %s LEVELS IN %s\n\n", pollutant, cityName.toUpperCase()));
-        result.append(String.format("Average %s in %s: %.2f %s\n", pollutant, year1, avg1, dataset1.getUnits()));
-        result.append(String.format("Average %s in %s: %.2f %s\n\n", pollutant, year2, avg2, dataset2.getUnits()));
+        result.append(String.format("Average %s in %s: %.2f %s\n", pollutant, year1, comparison.average1(), comparison.units()));
+        result.append(String.format("Average %s in %s: %.2f %s\n\n", pollutant, year2, comparison.average2(), comparison.units()));
         
         if (percentageDifference > 0) {
             result.append(String.format("Increase from %s to %s: %.2f%% higher\n", year2, year1, percentageDifference));
@@ -83,28 +66,16 @@ public class CompareStatistics {
      * @return A formatted string with comparison results
      */
     public String compareMaxPollution(String pollutant, String year1, String year2, String cityName) {
-        // Load datasets for both years
-        DataSet dataset1 = dataLoader.getDataset(pollutant, year1);
-        DataSet dataset2 = dataLoader.getDataset(pollutant, year2);
-        
-        if (dataset1 == null || dataset2 == null) {
-            return "Missing data for one or both selected years.";
+        Comparison comparison = compare(pollutant, year1, year2, cityName);
+        if (comparison == null) {
+            return describeMissingData(pollutant, year1, year2, cityName);
         }
         
-        // Filter data for the city
-        List<DataPoint> cityData1 = cityDataFilter.filterCityArea(dataset1.getData(), cityName);
-        List<DataPoint> cityData2 = cityDataFilter.filterCityArea(dataset2.getData(), cityName);
+        DataPoint maxPoint1 = comparison.maxPoint1();
+        DataPoint maxPoint2 = comparison.maxPoint2();
         
-        if (cityData1.isEmpty() || cityData2.isEmpty()) {
-            return "No data available for " + cityName + " in one or both selected years.";
-        }
-        
-        // Find max points
-        DataPoint maxPoint1 = findMaxPoint(cityData1);
-        DataPoint maxPoint2 = findMaxPoint(cityData2);
-        
-        // Calculate percentage difference (from year2 to year1)
-        double percentageDifference = ((maxPoint1.value() - maxPoint2.value()) / maxPoint2.value()) * 100;
+        // Percentage difference from year2 to year1
+        double percentageDifference = comparison.maxChange();
         
         // Format the result
         StringBuilder result = new StringBuilder();
@@ -112,12 +83,12 @@ public class CompareStatistics {
         result.append(String.format("%s - Maximum Point\n", year1));
         result.append(String.format("  Grid Code: %d\n", maxPoint1.gridCode()));
         result.append(String.format("  Location: Easting = %.2f, Northing = %.2f\n", (double)maxPoint1.x(), (double)maxPoint1.y()));
-        result.append(String.format("  Value: %.2f %s\n\n", (double)maxPoint1.value(), dataset1.getUnits()));
+        result.append(String.format("  Value: %.2f %s\n\n", (double)maxPoint1.value(), comparison.units()));
         
         result.append(String.format("%s - Maximum Point\n", year2));
         result.append(String.format("  Grid Code: %d\n", maxPoint2.gridCode()));
         result.append(String.format("  Location: Easting = %.2f, Northing = %.2f\n", (double)maxPoint2.x(), (double)maxPoint2.y()));
-        result.append(String.format("  Value: %.2f %s\n\n", (double)maxPoint2.value(), dataset2.getUnits()));
+        result.append(String.format("  Value: %.2f %s\n\n", (double)maxPoint2.value(), comparison.units()));
         
         if (percentageDifference > 0) {
             result.append(String.format("The maximum %s level in %s was %.2f%% higher than in %s\n", 
@@ -133,6 +104,49 @@ public class CompareStatistics {
         return result.toString();
     }
     
+    /**
+     * Compare the average and maximum pollution values between two years as numbers,
+     * for use where no formatted text is wanted.
+     * 
+     * @param pollutant The pollutant to compare
+     * @param year1 The first year for comparison
+     * @param year2 The second year for comparison
+     * @param cityName The name of the city to compare data for
+     * @return The comparison, or null if either year has no data for the city
+     */
+    public Comparison compare(String pollutant, String year1, String year2, String cityName) {
+        DataSet dataset1 = dataLoader.getDataset(pollutant, year1);
+        DataSet dataset2 = dataLoader.getDataset(pollutant, year2);
+        
+        if (dataset1 == null || dataset2 == null) {
+            return null;
+        }
+        
+        boolean[] cityMask1 = new boolean[dataset1.size()];
+        boolean[] cityMask2 = new boolean[dataset2.size()];
+        int count1 = cityDataFilter.markCityArea(dataset1, cityName, cityMask1);
+        int count2 = cityDataFilter.markCityArea(dataset2, cityName, cityMask2);
+        
+        if (count1 == 0 || count2 == 0) {
+            return null;
+        }
+        
+        double avg1 = dataset1.getValues().maskedSum(cityMask1, dataset1.size()) / count1;
+        double avg2 = dataset2.getValues().maskedSum(cityMask2, dataset2.size()) / count2;
+        return new Comparison(avg1, avg2, findMaxPoint(dataset1, cityMask1), findMaxPoint(dataset2, cityMask2),
+                              dataset1.getUnits());
+    }
+    
+    /**
+     * Explain why two years could not be compared for a city.
+     */
+    private String describeMissingData(String pollutant, String year1, String year2, String cityName) {
+        if (!dataLoader.hasDataset(pollutant, year1) || !dataLoader.hasDataset(pollutant, year2)) {
+            return "Missing data for one or both selected years.";
+        }
+        return "No data available for " + cityName + " in one or both selected years.";
+    }
+    
     /**
      * Calculate the average value from a list of data points.
      * 
@@ -153,23 +167,40 @@ public class CompareStatistics {
     }
     
     /**
-     * Find the data point with the maximum value.
+     * Find the data point with the maximum value among the marked rows of a dataset.
      * 
-     * @param dataPoints The list of data points
-     * @return The data point with the maximum value
+     * @param dataset The dataset to search
+     * @param mask The rows to consider
+     * @return The data point with the maximum value, or null if no rows are marked
      */
-    private DataPoint findMaxPoint(List<DataPoint> dataPoints) {
-        if (dataPoints.isEmpty()) {
-            return null;
+    private DataPoint findMaxPoint(DataSet dataset, boolean[] mask) {
+        int row = dataset.getValues().maskedArgMax(mask, dataset.size());
+        return row < 0 ? null : dataset.getDataPoint(row);
+    }
+    
+    /**
+     * The result of comparing one city's pollution between two years.
+     * 
+     * @param average1 The average value in the first year
+     * @param average2 The average value in the second year
+     * @param maxPoint1 The highest data point in the first year
+     * @param maxPoint2 The highest data point in the second year
+     * @param units The units of the values
+     */
+    public record Comparison(double average1, double average2, DataPoint maxPoint1, DataPoint maxPoint2,
+                             String units) {
+        /**
+         * Get the percentage change in the average from the second year to the first.
+         */
+        public double averageChange() {
+            return (average1 - average2) / average2 * 100;
         }
         
-        DataPoint maxPoint = dataPoints.get(0);
-        for (DataPoint point : dataPoints) {
-            if (point.value() > maxPoint.value()) {
-                maxPoint = point;
-            }
+        /**
+         * Get the percentage change in the maximum from the second year to the first.
+         */
+        public double maxChange() {
+            return (maxPoint1.value() - maxPoint2.value()) / maxPoint2.value() * 100;
         }
-        
-        return maxPoint;
     }
-}
\ No newline at end of file
+}
@@ -4,7 +4,9 @@ import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class CompareStatisticsTest {
     private CompareStatistics compareStatistics;
@@ -43,4 +45,53 @@ public class CompareStatisticsTest {
         String result = compareStatistics.compareMaxPollution("NO2", "2019", "2021", "New York");
         assertEquals("Missing data for one or both selected years.", result);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCompare_MissingData() {
+        assertNull(compareStatistics.compare("NO2", "2018", "2020", "London"));
+    }
+
+    @Test
+    public void testCompare_CityValues() {
+        DataSet no2In2018 = new DataSet("NO2", "2018", "annual mean", "ugm-3");
+        no2In2018.addData(new String[] {"1", "520000", "180000", "10"});
+        no2In2018.addData(new String[] {"2", "530000", "185000", "20"});
+        no2In2018.addData(new String[] {"3", "100000", "100000", "99"});
+        DataSet no2In2019 = new DataSet("NO2", "2019", "annual mean", "ugm-3");
+        no2In2019.addData(new String[] {"1", "520000", "180000", "30"});
+        no2In2019.addData(new String[] {"2", "530000", "185000", "60"});
+        no2In2019.addData(new String[] {"3", "100000", "100000", "1"});
+        Map<String, DataSet> datasets = new HashMap<>();
+        datasets.put("NO2-2018", no2In2018);
+        datasets.put("NO2-2019", no2In2019);
+        DataLoader dataLoader = new DataLoader() {
+            @Override
+            public DataSet getDataset(String pollutant, String year) {
+                return datasets.get(pollutant + "-" + year);
+            }
+
+            @Override
+            public boolean hasDataset(String pollutant, String year) {
+                return datasets.containsKey(pollutant + "-" + year);
+            }
+        };
+        CompareStatistics statistics = new CompareStatistics(dataLoader, mockCityDataFilter);
+
+        CompareStatistics.Comparison comparison = statistics.compare("NO2", "2019", "2018", "London");
+        assertEquals(45.0, comparison.average1(), 1e-9);
+        assertEquals(15.0, comparison.average2(), 1e-9);
+        assertEquals(200.0, comparison.averageChange(), 1e-9);
+        assertEquals(2, comparison.maxPoint1().gridCode());
+        assertEquals(20.0, comparison.maxPoint2().value(), 1e-9);
+        assertEquals(200.0, comparison.maxChange(), 1e-9);
+        assertEquals("ugm-3", comparison.units());
+
+        String average = statistics.compareAveragePollution("NO2", "2019", "2018", "London");
+        assertTrue(average.contains("Average NO2 in 2019: 45.00 ugm-3"));
+        assertTrue(average.contains("Increase from 2018 to 2019: 200.00% higher"));
+        String max = statistics.compareMaxPollution("NO2", "2018", "2019", "London");
+        assertTrue(max.contains("The maximum NO2 level in 2018 was 66.67% lower than in 2019"));
+        assertEquals("No data available for Manchester in one or both selected years.",
+                     statistics.compareAveragePollution("NO2", "2019", "2018", "Manchester"));
+    }
+}
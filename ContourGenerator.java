@@ -0,0 +1,277 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Traces contour lines through gridded values with the marching squares algorithm.
+ *
+ * For a level, the generator finds the boundary of the region where the values are at or
+ * above that level. The grid is treated as if surrounded by a border of cells without
+ * data, and cells without data count as below every level, so every boundary is a closed
+ * loop. The boundaries of two levels never cross, so the band between them can be filled
+ * by filling both sets of loops with the even-odd rule.
+ *
+ * Loops are given in grid coordinates, where (column, row) is the centre of that cell.
+ * The grid is split into tiles whose segments are found in parallel before being joined.
+ *
+ * @author Nitin Anantharaju
+ * @version 2.0
+ */
+public class ContourGenerator {
+    // Side of the square tiles of cells processed in parallel
+    private static final int TILE_SIZE = 32;
+
+    private final double[] values;
+    private final int columns;
+    private final int rows;
+
+    // Number of sample points per row of the padded grid
+    private final int pointColumns;
+    private final int pointRows;
+
+    /**
+     * Constructor for ContourGenerator
+     *
+     * @param values The value of each cell, row by row from the north-west corner, NaN for no data
+     * @param columns The number of columns of cells
+     * @param rows The number of rows of cells
+     */
+    public ContourGenerator(double[] values, int columns, int rows) {
+        this.values = values;
+        this.columns = columns;
+        this.rows = rows;
+        this.pointColumns = columns + 2;
+        this.pointRows = rows + 2;
+    }
+
+    /**
+     * Trace the boundaries of the regions at or above several levels, in parallel.
+     *
+     * @param levels The levels to trace
+     * @return The loops of each level, in the same order as the levels
+     */
+    public List<List<float[]>> contours(double[] levels) {
+        List<List<float[]>> result = new ArrayList<>();
+        IntStream.range(0, levels.length).parallel()
+                 .mapToObj(i -> contour(levels[i]))
+                 .forEachOrdered(result::add);
+        return result;
+    }
+
+    /**
+     * Trace the boundary of the region at or above a level.
+     *
+     * @param level The level
+     * @return Closed loops, each as x, y pairs in grid coordinates
+     */
+    public List<float[]> contour(double level) {
+        // Find the segments of each tile of squares in parallel
+        int squareColumns = pointColumns - 1;
+        int squareRows = pointRows - 1;
+        int tileColumns = (squareColumns + TILE_SIZE - 1) / TILE_SIZE;
+        int tileRows = (squareRows + TILE_SIZE - 1) / TILE_SIZE;
+        List<int[]> tileSegments = IntStream.range(0, tileColumns * tileRows).parallel()
+            .mapToObj(tile -> {
+                int firstColumn = (tile % tileColumns) * TILE_SIZE;
+                int firstRow = (tile / tileColumns) * TILE_SIZE;
+                return segments(level, firstColumn, Math.min(squareColumns, firstColumn + TILE_SIZE),
+                                firstRow, Math.min(squareRows, firstRow + TILE_SIZE));
+            })
+            .collect(ArrayList::new, ArrayList::add, ArrayList::addAll);
+
+        // Each crossed edge is shared by exactly two segments; link them
+        Map<Integer, int[]> neighbours = new HashMap<>();
+        for (int[] segments : tileSegments) {
+            for (int i = 1; i < segments[0]; i += 2) {
+                link(neighbours, segments[i], segments[i + 1]);
+                link(neighbours, segments[i + 1], segments[i]);
+            }
+        }
+        return joinLoops(neighbours, level);
+    }
+
+    /**
+     * Find the contour segments in a block of squares. Each segment joins two crossed
+     * edges, given by their ids.
+     *
+     * @return The number of ints used (including this one) followed by pairs of edge ids
+     */
+    private int[] segments(double level, int firstColumn, int lastColumn, int firstRow, int lastRow) {
+        int[] out = new int[64];
+        int used = 1;
+        for (int row = firstRow; row < lastRow; row++) {
+            for (int column = firstColumn; column < lastColumn; column++) {
+                double a = pointValue(column, row);
+                double b = pointValue(column + 1, row);
+                double c = pointValue(column + 1, row + 1);
+                double d = pointValue(column, row + 1);
+                int pattern = (a >= level ? 8 : 0) | (b >= level ? 4 : 0) | (c >= level ? 2 : 0) | (d >= level ? 1 : 0);
+                if (pattern == 0 || pattern == 15) {
+                    continue;
+                }
+
+                int top = horizontalEdge(column, row);
+                int right = verticalEdge(column + 1, row);
+                int bottom = horizontalEdge(column, row + 1);
+                int left = verticalEdge(column, row);
+                boolean centreInside = (a + b + c + d) / 4 >= level;
+
+                if (out.length < used + 4) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                switch (pattern) {
+                    case 1: case 14:
+                        used = add(out, used, left, bottom);
+                        break;
+                    case 2: case 13:
+                        used = add(out, used, bottom, right);
+                        break;
+                    case 3: case 12:
+                        used = add(out, used, left, right);
+                        break;
+                    case 4: case 11:
+                        used = add(out, used, top, right);
+                        break;
+                    case 6: case 9:
+                        used = add(out, used, top, bottom);
+                        break;
+                    case 7: case 8:
+                        used = add(out, used, left, top);
+                        break;
+                    case 5:
+                        // Saddle with b and d inside: cut off a and c if they are joined through the centre
+                        if (centreInside) {
+                            used = add(out, used, left, top);
+                            used = add(out, used, bottom, right);
+                        } else {
+                            used = add(out, used, top, right);
+                            used = add(out, used, left, bottom);
+                        }
+                        break;
+                    case 10:
+                        // Saddle with a and c inside
+                        if (centreInside) {
+                            used = add(out, used, top, right);
+                            used = add(out, used, left, bottom);
+                        } else {
+                            used = add(out, used, left, top);
+                            used = add(out, used, bottom, right);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        out[0] = used;
+        return out;
+    }
+
+    /**
+     * Follow the linked edges round each loop and turn the loops into coordinates.
+     */
+    private List<float[]> joinLoops(Map<Integer, int[]> neighbours, double level) {
+        List<float[]> loops = new ArrayList<>();
+        for (Map.Entry<Integer, int[]> entry : neighbours.entrySet()) {
+            if (entry.getValue()[2] != 0) {
+                continue;
+            }
+
+            float[] coordinates = new float[16];
+            int length = 0;
+            int previous = -1;
+            int edge = entry.getKey();
+            while (true) {
+                int[] links = neighbours.get(edge);
+                if (links == null || links[2] != 0) {
+                    break;
+                }
+                links[2] = 1;
+
+                if (length + 2 > coordinates.length) {
+                    coordinates = Arrays.copyOf(coordinates, coordinates.length * 2);
+                }
+                length = addCrossing(coordinates, length, edge, level);
+
+                int next = links[0] != previous ? links[0] : links[1];
+                previous = edge;
+                edge = next;
+            }
+            loops.add(Arrays.copyOf(coordinates, length));
+        }
+        return loops;
+    }
+
+    /**
+     * Append the point where the contour crosses an edge, interpolated between its ends.
+     */
+    private int addCrossing(float[] coordinates, int length, int edge, double level) {
+        int point = edge >> 1;
+        int column = point % pointColumns;
+        int row = point / pointColumns;
+        double from = pointValue(column, row);
+        double to = (edge & 1) == 0 ? pointValue(column + 1, row) : pointValue(column, row + 1);
+
+        // Edges next to cells without data are cut half way, at the edge of the data cell
+        double t = Double.isNaN(from) || Double.isNaN(to) ? 0.5 : (level - from) / (to - from);
+        double x = column - 1;
+        double y = row - 1;
+        if ((edge & 1) == 0) {
+            x += t;
+        } else {
+            y += t;
+        }
+        coordinates[length] = (float) x;
+        coordinates[length + 1] = (float) y;
+        return length + 2;
+    }
+
+    /**
+     * Get the value at a point of the padded grid, NaN for the border and cells without data.
+     */
+    private double pointValue(int column, int row) {
+        if (column < 1 || column > columns || row < 1 || row > rows) {
+            return Double.NaN;
+        }
+        return values[(row - 1) * columns + column - 1];
+    }
+
+    /**
+     * Get the id of the edge from a point to the point on its right.
+     */
+    private int horizontalEdge(int column, int row) {
+        return (row * pointColumns + column) << 1;
+    }
+
+    /**
+     * Get the id of the edge from a point to the point below it.
+     */
+    private int verticalEdge(int column, int row) {
+        return ((row * pointColumns + column) << 1) | 1;
+    }
+
+    /**
+     * Append a segment between two edges.
+     */
+    private static int add(int[] out, int used, int from, int to) {
+        out[used] = from;
+        out[used + 1] = to;
+        return used + 2;
+    }
+
+    /**
+     * Record that a segment joins one edge to another. Each edge has two links and a
+     * visited flag.
+     */
+    private static void link(Map<Integer, int[]> neighbours, int edge, int other) {
+        int[] links = neighbours.get(edge);
+        if (links == null) {
+            neighbours.put(edge, new int[] {other, -1, 0});
+        } else {
+            links[1] = other;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.util.List;
+
+public class ContourGeneratorTest {
+    private static final double NO_DATA = Double.NaN;
+
+    @Test
+    public void testSinglePeakGivesOneClosedLoop() {
+        double[] values = {
+            1, 1, 1,
+            1, 9, 1,
+            1, 1, 1
+        };
+        List<float[]> loops = new ContourGenerator(values, 3, 3).contour(5);
+
+        assertEquals(1, loops.size());
+        // The contour crosses half way between the peak and each of its neighbours
+        for (int i = 0; i < loops.get(0).length; i += 2) {
+            float x = loops.get(0)[i];
+            float y = loops.get(0)[i + 1];
+            assertEquals(0.5, Math.abs(x - 1) + Math.abs(y - 1), 1e-6);
+        }
+    }
+
+    @Test
+    public void testSeparatePeaksGiveSeparateLoops() {
+        double[] values = {
+            9, 1, 9,
+            1, 1, 1,
+            NO_DATA, 1, 9
+        };
+        assertEquals(3, new ContourGenerator(values, 3, 3).contour(5).size());
+    }
+
+    @Test
+    public void testRegionAtTheEdgeIsClosed() {
+        double[] values = {
+            9, 9,
+            9, 9
+        };
+        List<float[]> loops = new ContourGenerator(values, 2, 2).contour(5);
+
+        // The loop runs round the outside of the data cells, half a cell beyond their centres
+        assertEquals(1, loops.size());
+        float[] loop = loops.get(0);
+        for (int i = 0; i < loop.length; i += 2) {
+            double distanceFromCentre = Math.max(Math.abs(loop[i] - 0.5), Math.abs(loop[i + 1] - 0.5));
+            assertEquals(1.0, distanceFromCentre, 1e-6);
+        }
+    }
+
+    @Test
+    public void testLevelAboveAllValuesGivesNoLoops() {
+        double[] values = {1, 2, 3, 4};
+        assertTrue(new ContourGenerator(values, 2, 2).contour(10).isEmpty());
+    }
+}
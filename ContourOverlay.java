@@ -0,0 +1,307 @@
+import javafx.application.Platform;
+import javafx.scene.Group;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.ClosePath;
+import javafx.scene.shape.FillRule;
+import javafx.scene.shape.LineTo;
+import javafx.scene.shape.MoveTo;
+import javafx.scene.shape.Path;
+import javafx.scene.shape.PathElement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An overlay of contour lines and filled bands between them, in place of one square per
+ * data cell.
+ *
+ * The data is placed on the city's grid and traced at a set of concentration levels with
+ * a ContourGenerator. Each band between two levels becomes one Path, so drawing costs
+ * in proportion to the length of the contours rather than the number of cells. By
+ * default the levels run from the city's low pollution threshold to its high pollution
+ * threshold. In the high and low pollution modes only the region above the high threshold
+ * or below the low threshold is shown.
+ *
+ * Contours are traced on a background thread, and the finished paths are cached so that
+ * showing the same data again is immediate.
+ *
+ * @author Nitin Anantharaju
+ * @version 2.0
+ */
+public class ContourOverlay {
+    private static final int DEFAULT_LEVEL_COUNT = 5;
+    private static final int CACHED_CONTOUR_SETS = 16;
+    private static final double LINE_WIDTH = 1.0;
+    private static final Color HIGH_POLLUTION_COLOUR = Color.RED;
+    private static final Color LOW_POLLUTION_COLOUR = Color.LIME;
+
+    /**
+     * Identifies a set of contours in the cache.
+     */
+    private record ContourKey(String pollutant, String year, OverlayMode mode,
+                              List<Double> levels, ColourRamp ramp) {
+    }
+
+    private final Group layer;
+    private final CityGrid grid;
+    private final CoordinateConverter converter;
+    private final CityVisualizationHelper.VisualizationParams vizParams;
+    private final LruCache<ContourKey, Group> cache;
+
+    // Incremented by every update, so that contours finishing late are ignored
+    private final AtomicLong generation = new AtomicLong();
+
+    private ColourRamp colourRamp = ColourRamp.GREEN_RED;
+    private double[] levels;
+    private List<DataPoint> dataPoints;
+    private OverlayMode mode;
+    private String pollutant;
+    private String year;
+
+    /**
+     * Constructor for ContourOverlay
+     *
+     * @param grid The grid of cells covering the city
+     * @param converter The coordinate converter for the city map
+     * @param vizParams The visualization parameters for the city
+     */
+    public ContourOverlay(CityGrid grid, CoordinateConverter converter,
+                          CityVisualizationHelper.VisualizationParams vizParams) {
+        this.grid = grid;
+        this.converter = converter;
+        this.vizParams = vizParams;
+        this.cache = new LruCache<>(CACHED_CONTOUR_SETS);
+        this.layer = new Group();
+
+        // The map pane handles all mouse events
+        layer.setMouseTransparent(true);
+    }
+
+    /**
+     * Get the node holding the contours, to be added to the map pane.
+     */
+    public Group getLayer() {
+        return layer;
+    }
+
+    /**
+     * Set the concentration levels to draw contours at in the full view.
+     *
+     * @param levels The levels in increasing order, or null for levels between the city's
+     *               low and high pollution thresholds
+     */
+    public void setLevels(double[] levels) {
+        this.levels = levels == null ? null : levels.clone();
+        if (dataPoints != null) {
+            update();
+        }
+    }
+
+    /**
+     * Set the colour ramp used to colour the bands.
+     *
+     * @param colourRamp The colour ramp to use
+     */
+    public void setColourRamp(ColourRamp colourRamp) {
+        if (colourRamp == this.colourRamp) {
+            return;
+        }
+        this.colourRamp = colourRamp;
+        if (dataPoints != null) {
+            update();
+        }
+    }
+
+    /**
+     * Trace and show contours for the given data. The current contours stay on screen
+     * until the new ones are ready.
+     *
+     * @param dataPoints The data points of the city
+     * @param mode Whether to show all levels, or only high or low pollution areas
+     * @param pollutant The pollutant of the data, or null if the contours should not be cached
+     * @param year The year of the data, or null if the contours should not be cached
+     */
+    public void show(List<DataPoint> dataPoints, OverlayMode mode, String pollutant, String year) {
+        if (dataPoints == null || dataPoints.isEmpty()) {
+            clear();
+            return;
+        }
+        this.dataPoints = dataPoints;
+        this.mode = mode;
+        this.pollutant = pollutant;
+        this.year = year;
+        update();
+    }
+
+    /**
+     * Remove the contours.
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        dataPoints = null;
+        mode = null;
+        layer.getChildren().clear();
+    }
+
+    /**
+     * Show the contours for the current settings, from the cache or by tracing them in
+     * the background.
+     */
+    private void update() {
+        long request = generation.incrementAndGet();
+        ContourKey key = pollutant == null || year == null ? null
+            : new ContourKey(pollutant, year, mode, levels == null ? null : toList(levels), colourRamp);
+        if (key != null) {
+            Group cached = cache.get(key);
+            if (cached != null) {
+                layer.getChildren().setAll(cached);
+                return;
+            }
+        }
+
+        List<DataPoint> data = dataPoints;
+        OverlayMode contourMode = mode;
+        double[] contourLevels = levels;
+        ColourRamp ramp = colourRamp;
+        CompletableFuture
+            .supplyAsync(() -> buildContours(data, contourMode, contourLevels, ramp))
+            .thenAccept(contours -> Platform.runLater(() -> {
+                if (key != null) {
+                    cache.put(key, contours);
+                }
+                if (request == generation.get()) {
+                    layer.getChildren().setAll(contours);
+                }
+            }))
+            .exceptionally(e -> {
+                System.out.println("Error tracing contours: " + e.getMessage());
+                return null;
+            });
+    }
+
+    /**
+     * Trace the contours of some data and build their paths.
+     */
+    private Group buildContours(List<DataPoint> data, OverlayMode contourMode,
+                                double[] contourLevels, ColourRamp ramp) {
+        double[] values = grid.sample(data);
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : values) {
+            if (!Double.isNaN(value)) {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+        }
+
+        Group contours = new Group();
+        if (!(max > min)) {
+            return contours;
+        }
+        double high = min + vizParams.getHighPollutionThreshold() * (max - min);
+        double low = min + vizParams.getLowPollutionThreshold() * (max - min);
+
+        switch (contourMode) {
+            case HIGH: {
+                List<float[]> loops = new ContourGenerator(values, grid.getColumns(), grid.getRows()).contour(high);
+                contours.getChildren().addAll(band(loops, List.of(), HIGH_POLLUTION_COLOUR), line(loops, HIGH_POLLUTION_COLOUR));
+                break;
+            }
+            case LOW: {
+                // The region below a level is the region above it for the negated values
+                double[] negated = new double[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    negated[i] = -values[i];
+                }
+                List<float[]> loops = new ContourGenerator(negated, grid.getColumns(), grid.getRows()).contour(-low);
+                contours.getChildren().addAll(band(loops, List.of(), LOW_POLLUTION_COLOUR), line(loops, LOW_POLLUTION_COLOUR));
+                break;
+            }
+            default: {
+                double[] fullLevels = contourLevels != null ? contourLevels : defaultLevels(low, high);
+                List<List<float[]>> loops = new ContourGenerator(values, grid.getColumns(), grid.getRows())
+                    .contours(fullLevels);
+                for (int i = 0; i < fullLevels.length; i++) {
+                    Color colour = rampColour(ramp, (fullLevels[i] - min) / (max - min));
+                    List<float[]> above = i + 1 < fullLevels.length ? loops.get(i + 1) : List.of();
+                    contours.getChildren().add(band(loops.get(i), above, colour));
+                }
+                for (int i = 0; i < fullLevels.length; i++) {
+                    Color colour = rampColour(ramp, (fullLevels[i] - min) / (max - min));
+                    contours.getChildren().add(line(loops.get(i), colour.darker()));
+                }
+                break;
+            }
+        }
+        return contours;
+    }
+
+    /**
+     * Build a filled path covering the region inside one set of loops but outside another.
+     */
+    private Path band(List<float[]> outer, List<float[]> inner, Color colour) {
+        Path path = new Path();
+        addLoops(path, outer);
+        addLoops(path, inner);
+        path.setFillRule(FillRule.EVEN_ODD);
+        path.setFill(new Color(colour.getRed(), colour.getGreen(), colour.getBlue(), OverlayRasterizer.OVERLAY_OPACITY));
+        path.setStroke(null);
+        return path;
+    }
+
+    /**
+     * Build a path drawing a set of loops as lines.
+     */
+    private Path line(List<float[]> loops, Color colour) {
+        Path path = new Path();
+        addLoops(path, loops);
+        path.setFill(null);
+        path.setStroke(colour);
+        path.setStrokeWidth(LINE_WIDTH);
+        return path;
+    }
+
+    /**
+     * Add loops in grid coordinates to a path, converting them to map pixels.
+     */
+    private void addLoops(Path path, List<float[]> loops) {
+        List<PathElement> elements = new ArrayList<>();
+        for (float[] loop : loops) {
+            for (int i = 0; i < loop.length; i += 2) {
+                double x = converter.convertToPixelX(grid.getMinEasting() + (loop[i] + 0.5) * CityGrid.CELL_SIZE);
+                double y = converter.convertToPixelY(grid.getMaxNorthing() - (loop[i + 1] + 0.5) * CityGrid.CELL_SIZE);
+                elements.add(i == 0 ? new MoveTo(x, y) : new LineTo(x, y));
+            }
+            elements.add(new ClosePath());
+        }
+        path.getElements().addAll(elements);
+    }
+
+    /**
+     * Get evenly spaced levels from the low to the high pollution threshold.
+     */
+    private static double[] defaultLevels(double low, double high) {
+        double[] defaults = new double[DEFAULT_LEVEL_COUNT];
+        for (int i = 0; i < defaults.length; i++) {
+            defaults[i] = low + (high - low) * i / (defaults.length - 1);
+        }
+        return defaults;
+    }
+
+    /**
+     * Get the colour of a ramp at a normalised value.
+     */
+    private static Color rampColour(ColourRamp ramp, double normalisedValue) {
+        int rgb = ramp.rgb(ramp.indexOf(normalisedValue));
+        return Color.rgb((rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff);
+    }
+
+    /**
+     * Copy levels into a list, for use as part of a cache key.
+     */
+    private static List<Double> toList(double[] values) {
+        return Arrays.stream(values).boxed().toList();
+    }
+}
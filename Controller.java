@@ -2,6 +2,7 @@ import javafx.event.ActionEvent;
 import javafx.geometry.Insets;
 import javafx.scene.control.*;
 import javafx.scene.layout.*;
+import javafx.util.StringConverter;
 import java.util.List;
 
 /**
@@ -12,6 +13,9 @@ import java.util.List;
  * @version 2.0
  */
 public class Controller {
+    // Number of blended frames shown between years in smooth playback
+    private static final int PLAYBACK_STEPS_BETWEEN_YEARS = 11;
+    
     // Data services
     private final DataLoader dataLoader;
     private final CityDataFilter cityDataFilter;
@@ -20,7 +24,9 @@ public class Controller {
     // UI Components
     private MapComponent mapComponent;
     private StatisticsComponent statisticsComponent;
+    private TiledMapView overviewMap;
     private ComboBox<String> citySelector;
+    private Slider yearSlider;
     private Label resultLabel;
     
     // Application state
@@ -28,6 +34,14 @@ public class Controller {
     private String selectedPollutant;
     private String selectedYear;
     
+    // City data for the current selection, kept so that filters can reuse the shown overlay
+    private DataSet cityDataSource;
+    private String cityDataCity;
+    private List<DataPoint> cityDataList;
+    
+    // Set while the year slider is moved to match the Year menu, so it doesn't reload the map
+    private boolean syncingYearSlider;
+    
     // Data
     private List<String> years = java.util.Arrays.asList("2018", "2019", "2020", "2021", "2022", "2023");
     private List<String> pollutants = java.util.Arrays.asList("NO2", "PM10", "PM2.5");
@@ -58,12 +72,18 @@ public class Controller {
         mapComponent = new MapComponent(cityDataFilter, cityMapManager, selectedCity);
         mapComponent.setDataLoader(dataLoader);
         
+        // Initialize the zoomable map of the whole country
+        overviewMap = new TiledMapView();
+        
         // Initialize statistics component
         statisticsComponent = new StatisticsComponent(dataLoader, cityDataFilter, graph, selectedCity);
         
         // Set up city selector
         setupCitySelector();
         
+        // Set up the year slider
+        setupYearSlider();
+        
         // Create result label
         resultLabel = new Label("Select a pollutant and year to view data");
         resultLabel.getStyleClass().add("title-label");
@@ -124,19 +144,128 @@ public class Controller {
         lowPollutionItem.setOnAction(e -> filterLowPollution());
         
         MenuItem resetFilterItem = new MenuItem("Reset Filter");
-        resetFilterItem.setOnAction(e -> {
-            mapComponent.clearMapData();
-            updateVisualization();
-        });
+        resetFilterItem.setOnAction(e -> updateVisualization());
         
         filterMenu.getItems().addAll(highPollutionItem, lowPollutionItem, resetFilterItem);
         
+        // Palette menu
+        Menu paletteMenu = new Menu("Palette");
+        for (ColourRamp ramp : ColourRamp.getAvailableRamps()) {
+            MenuItem item = new MenuItem(ramp.getName());
+            item.setOnAction(e -> {
+                mapComponent.setColourRamp(ramp);
+                overviewMap.setColourRamp(ramp);
+            });
+            paletteMenu.getItems().add(item);
+        }
+        
+        // View menu
+        Menu viewMenu = new Menu("View");
+        ToggleGroup styleGroup = new ToggleGroup();
+        RadioMenuItem cellsItem = new RadioMenuItem("Cells");
+        cellsItem.setOnAction(e -> mapComponent.setOverlayStyle(MapVisualizer.OverlayStyle.CELLS));
+        cellsItem.setToggleGroup(styleGroup);
+        cellsItem.setSelected(true);
+        
+        RadioMenuItem rasterItem = new RadioMenuItem("Cells Rendered in Background");
+        rasterItem.setOnAction(e -> mapComponent.setOverlayStyle(MapVisualizer.OverlayStyle.RASTER));
+        rasterItem.setToggleGroup(styleGroup);
+        
+        RadioMenuItem contoursItem = new RadioMenuItem("Contours");
+        contoursItem.setOnAction(e -> mapComponent.setOverlayStyle(MapVisualizer.OverlayStyle.CONTOURS));
+        contoursItem.setToggleGroup(styleGroup);
+        
+        MenuItem contourLevelsItem = new MenuItem("Contour Levels...");
+        contourLevelsItem.setOnAction(e -> editContourLevels());
+        
+        MenuItem cacheStatsItem = new MenuItem("Overlay Cache Statistics");
+        cacheStatsItem.setOnAction(e -> showOverlayCacheStatistics());
+        
+        viewMenu.getItems().addAll(cellsItem, rasterItem, contoursItem, new SeparatorMenuItem(),
+                                   contourLevelsItem, cacheStatsItem);
+        
+        // Playback menu
+        Menu playbackMenu = new Menu("Playback");
+        CheckMenuItem smoothItem = new CheckMenuItem("Smooth Between Years");
+        MenuItem playItem = new MenuItem("Play All Years");
+        playItem.setOnAction(e -> playYears(smoothItem.isSelected()));
+        MenuItem stopItem = new MenuItem("Stop");
+        stopItem.setOnAction(e -> mapComponent.stopPlayback());
+        playbackMenu.getItems().addAll(playItem, stopItem, smoothItem);
+        
         // Add menus to menu bar
-        menuBar.getMenus().addAll(pollutionMenu, yearMenu, filterMenu);
+        menuBar.getMenus().addAll(pollutionMenu, yearMenu, filterMenu, paletteMenu, viewMenu, playbackMenu);
         
         return menuBar;
     }
     
+    /**
+     * Animate the selected pollutant over all years in the selected city
+     */
+    private void playYears(boolean smooth) {
+        if (selectedPollutant == null) {
+            resultLabel.setText("Please select a pollutant.");
+            return;
+        }
+        
+        String pollutant = selectedPollutant;
+        resultLabel.setText("Preparing " + selectedPollutant + " playback for " + selectedCity + "...");
+        mapComponent.playYears(years, year -> dataLoader.getDataset(pollutant, year),
+            smooth ? PLAYBACK_STEPS_BETWEEN_YEARS : 0,
+            label -> resultLabel.setText("Playing " + selectedPollutant + " in " + selectedCity + ": " + label));
+    }
+    
+    /**
+     * Ask for the concentration levels to draw contours at. Leaving the field empty goes
+     * back to levels between the city's low and high pollution thresholds.
+     */
+    private void editContourLevels() {
+        TextInputDialog dialog = new TextInputDialog();
+        dialog.setTitle("Contour Levels");
+        dialog.setHeaderText(null);
+        dialog.setContentText("Levels (comma separated, empty for default):");
+        dialog.showAndWait().ifPresent(text -> {
+            if (text.isBlank()) {
+                mapComponent.setContourLevels(null);
+                resultLabel.setText("Using default contour levels");
+                return;
+            }
+            
+            try {
+                double[] levels = java.util.Arrays.stream(text.split(","))
+                    .map(String::trim)
+                    .mapToDouble(Double::parseDouble)
+                    .sorted()
+                    .toArray();
+                mapComponent.setContourLevels(levels);
+                resultLabel.setText("Contour levels set to " + java.util.Arrays.toString(levels));
+            } catch (NumberFormatException ex) {
+                resultLabel.setText("Invalid contour levels: " + text);
+            }
+        });
+    }
+    
+    /**
+     * Show how well the cache of background-rendered overlays is working
+     */
+    private void showOverlayCacheStatistics() {
+        LruCache<?, ?> cache = mapComponent.getOverlayCache();
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle("Overlay Cache Statistics");
+        alert.setHeaderText(null);
+        alert.setContentText(String.format(
+            "Cached overlays: %d\nMemory used: %.1f of %.1f MB\nHits: %d\nMisses: %d\nHit rate: %.1f%%\nEvictions: %d",
+            cache.size(),
+            cache.getTotalWeight() / (1024.0 * 1024.0),
+            cache.getCapacity() / (1024.0 * 1024.0),
+            cache.getHitCount(),
+            cache.getMissCount(),
+            cache.getHitRate() * 100,
+            cache.getEvictionCount()
+        ));
+        alert.showAndWait();
+    }
+    
     /**
      * Create the controls box with city selector and coordinate input
      */
@@ -179,9 +308,16 @@ public class Controller {
         TabPane tabPane = new TabPane();
         
         Tab mapTab = new Tab("Map Visualisation");
-        mapTab.setContent(mapComponent.getScrollPane());
+        BorderPane mapContent = new BorderPane(mapComponent.getScrollPane());
+        mapContent.setBottom(yearSlider);
+        BorderPane.setMargin(yearSlider, new Insets(5, 20, 5, 20));
+        mapTab.setContent(mapContent);
         mapTab.setClosable(false);
         
+        Tab overviewTab = new Tab("UK Overview");
+        overviewTab.setContent(overviewMap.getView());
+        overviewTab.setClosable(false);
+        
         Tab statsTab = new Tab("Statistics");
         statsTab.setContent(statisticsComponent.getStatsContent());
         statsTab.setClosable(false);
@@ -190,7 +326,7 @@ public class Controller {
         detailsTab.setContent(createCityDetailsContent());
         detailsTab.setClosable(false);
         
-        tabPane.getTabs().addAll(mapTab, statsTab, detailsTab);
+        tabPane.getTabs().addAll(mapTab, overviewTab, statsTab, detailsTab);
         
         return tabPane;
     }
@@ -281,6 +417,48 @@ public class Controller {
         });
     }
     
+    /**
+     * Set up the year slider. Dragging it scrubs through the years of the selected
+     * pollutant; the full view for the year is loaded when it is let go.
+     */
+    private void setupYearSlider() {
+        yearSlider = new Slider(0, years.size() - 1, 0);
+        yearSlider.setMajorTickUnit(1);
+        yearSlider.setMinorTickCount(0);
+        yearSlider.setSnapToTicks(true);
+        yearSlider.setShowTickMarks(true);
+        yearSlider.setShowTickLabels(true);
+        yearSlider.setLabelFormatter(new StringConverter<Double>() {
+            @Override
+            public String toString(Double value) {
+                return years.get((int) Math.round(value));
+            }
+            
+            @Override
+            public Double fromString(String year) {
+                return (double) years.indexOf(year);
+            }
+        });
+        
+        yearSlider.valueProperty().addListener((obs, oldVal, newVal) -> {
+            if (syncingYearSlider) {
+                return;
+            }
+            int index = (int) Math.round(newVal.doubleValue());
+            if (yearSlider.isValueChanging() && mapComponent.scrubToYear(index)) {
+                resultLabel.setText("Showing " + selectedPollutant + " in " + selectedCity + " for " + years.get(index));
+            } else if (!yearSlider.isValueChanging() && !years.get(index).equals(selectedYear)) {
+                updateYear(years.get(index));
+            }
+        });
+        
+        yearSlider.valueChangingProperty().addListener((obs, wasChanging, isChanging) -> {
+            if (!isChanging) {
+                updateYear(years.get((int) Math.round(yearSlider.getValue())));
+            }
+        });
+    }
+    
     /**
      * Update the selected pollutant
      */
@@ -296,6 +474,11 @@ public class Controller {
      */
     private void updateYear(String year) {
         selectedYear = year;
+        
+        syncingYearSlider = true;
+        yearSlider.setValue(years.indexOf(year));
+        syncingYearSlider = false;
+        
         statisticsComponent.setSelectedYear(year);
         resultLabel.setText("Selected year: " + year);
         updateVisualization();
@@ -305,80 +488,101 @@ public class Controller {
      * Filter high pollution areas
      */
     private void filterHighPollution() {
-        mapComponent.clearMapData();
-        
-        if (selectedPollutant == null || selectedYear == null) {
-            resultLabel.setText("Please select a pollutant and a year.");
-            return;
-        }
-        
-        DataSet dataset = dataLoader.getDataset(selectedPollutant, selectedYear);
-        if (dataset != null) {
-            List<DataPoint> cityDataList = cityDataFilter.filterCityArea(dataset.getData(), selectedCity);
-            
-            if (cityDataList.isEmpty()) {
-                resultLabel.setText("No data found for the selected pollutant and year in " + selectedCity);
-                return;
-            }
-            
-            mapComponent.visualizeHighPollutionAreas(cityDataList);
-            resultLabel.setText("Showing high pollution areas for " + selectedPollutant + " in " + selectedCity + " (" + selectedYear + ")");
-        } else {
-            resultLabel.setText("No dataset found for the selected pollutant and year.");
-        }
+        showFilteredPollution(OverlayMode.HIGH, "high");
     }
     
     /**
      * Filter low pollution areas
      */
     private void filterLowPollution() {
-        mapComponent.clearMapData();
-        
+        showFilteredPollution(OverlayMode.LOW, "low");
+    }
+    
+    /**
+     * Show only the high or low pollution areas of the current selection. When the selection
+     * is already on the map, only the cells whose state changes are updated.
+     */
+    private void showFilteredPollution(OverlayMode mode, String description) {
         if (selectedPollutant == null || selectedYear == null) {
+            mapComponent.clearMapData();
             resultLabel.setText("Please select a pollutant and a year.");
             return;
         }
         
         DataSet dataset = dataLoader.getDataset(selectedPollutant, selectedYear);
         if (dataset != null) {
-            List<DataPoint> cityDataList = cityDataFilter.filterCityArea(dataset.getData(), selectedCity);
+            List<DataPoint> cityDataList = getCityData(dataset);
             
             if (cityDataList.isEmpty()) {
+                mapComponent.clearMapData();
                 resultLabel.setText("No data found for the selected pollutant and year in " + selectedCity);
                 return;
             }
             
-            mapComponent.visualizeLowPollutionAreas(cityDataList);
-            resultLabel.setText("Showing low pollution areas for " + selectedPollutant + " in " + selectedCity + " (" + selectedYear + ")");
+            mapComponent.clearPlottedPoints();
+            mapComponent.showPollutionData(cityDataList, mode, selectedPollutant, selectedYear);
+            resultLabel.setText("Showing " + description + " pollution areas for " + selectedPollutant + " in " + selectedCity + " (" + selectedYear + ")");
         } else {
+            mapComponent.clearMapData();
             resultLabel.setText("No dataset found for the selected pollutant and year.");
         }
     }
     
+    /**
+     * Get the data points of a dataset within the selected city. The list is kept while the
+     * dataset and city stay the same, so the map can recognise data it is already showing.
+     */
+    private List<DataPoint> getCityData(DataSet dataset) {
+        if (dataset != cityDataSource || !selectedCity.equals(cityDataCity)) {
+            cityDataList = cityDataFilter.filterCityArea(dataset, selectedCity);
+            cityDataSource = dataset;
+            cityDataCity = selectedCity;
+        }
+        return cityDataList;
+    }
+    
     /**
      * Update visualization based on current selections
      */
     private void updateVisualization() {
-        mapComponent.clearMapData();
+        mapComponent.stopPlayback();
+        mapComponent.endYearScrubbing();
+        mapComponent.clearPlottedPoints();
         
         if (selectedYear != null && selectedPollutant != null) {
             DataSet dataset = dataLoader.getDataset(selectedPollutant, selectedYear);
+            overviewMap.setDataSet(dataset);
             
             if (dataset != null) {
-                List<DataPoint> cityDataList = cityDataFilter.filterCityArea(dataset.getData(), selectedCity);
+                List<DataPoint> cityDataList = getCityData(dataset);
                 
                 if (!cityDataList.isEmpty()) {
-                    mapComponent.visualizePollutionData(cityDataList);
+                    mapComponent.showPollutionData(cityDataList, OverlayMode.FULL, selectedPollutant, selectedYear);
                     // Update map component with current data for double-click functionality
                     mapComponent.setSelectedData(selectedPollutant, selectedYear, cityDataList);
                     statisticsComponent.updateStatistics(cityDataList, dataset);
                     resultLabel.setText("Showing " + selectedPollutant + " data for " + selectedCity + " in " + selectedYear);
                 } else {
+                    mapComponent.clearMapData();
                     resultLabel.setText("No data found within " + selectedCity + " area.");
                 }
             } else {
+                mapComponent.clearMapData();
                 resultLabel.setText("No dataset found for " + selectedPollutant + " in " + selectedYear);
             }
         }
+        
+        // The slider's years are read in the background, and only again when the pollutant
+        // or city changes. If they would not all fit in the loader's memory budget, preparing
+        // them would evict the dataset on show, so the slider reloads the map instead. This
+        // comes after the dataset on show is loaded, so the budget check has one to go by.
+        if (selectedPollutant != null) {
+            String pollutant = selectedPollutant;
+            if (dataLoader.canHoldDatasets(years.size())) {
+                mapComponent.prepareYearScrubbing(pollutant, years, year -> dataLoader.getDataset(pollutant, year));
+            } else {
+                mapComponent.discardYearScrubbing();
+            }
+        }
     }
 }
\ No newline at end of file
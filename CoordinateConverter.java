@@ -79,6 +79,24 @@ public class CoordinateConverter {
         return MAP_HEIGHT - ((northing - MIN_NORTHING) / (MAX_NORTHING - MIN_NORTHING)) * MAP_HEIGHT;
     }
 
+    /**
+     * Get the width of the map in pixels
+     * 
+     * @return The map width
+     */
+    public double getMapWidth() {
+        return MAP_WIDTH;
+    }
+
+    /**
+     * Get the height of the map in pixels
+     * 
+     * @return The map height
+     */
+    public double getMapHeight() {
+        return MAP_HEIGHT;
+    }
+
     /**
      * Check if the given pixel coordinates are within the map bounds
      * 
@@ -0,0 +1,95 @@
+import java.util.Arrays;
+
+/**
+ * The grid cells of all loaded datasets, shared between them. Each distinct grid code is
+ * given a cell number, in the order first seen, with its easting and northing stored
+ * once here rather than in every dataset.
+ *
+ * Datasets made with a dictionary keep only a value column indexed by cell number, so
+ * the same row of any two of them is the same place, and comparing years or pollutants
+ * is a walk down aligned arrays.
+ *
+ * Cells are only ever added. Columns are replaced by longer copies as the dictionary
+ * grows, so a column that has been read stays valid for all cells that existed then.
+ *
+ * @author Tejas Raj
+ * @version 2.0
+ */
+public class CoordinateDictionary {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private volatile int[] gridCodes = new int[INITIAL_CAPACITY];
+    private volatile int[] xs = new int[INITIAL_CAPACITY];
+    private volatile int[] ys = new int[INITIAL_CAPACITY];
+    private volatile int size;
+    private final IntIntHashIndex cellOfGridCode = new IntIntHashIndex(INITIAL_CAPACITY);
+
+    /**
+     * Get the cell number of a grid code, adding the cell if it is new.
+     *
+     * @param gridCode The grid code
+     * @param x The easting of the cell, used if it is new
+     * @param y The northing of the cell, used if it is new
+     * @return The cell number
+     */
+    public synchronized int cellOf(int gridCode, int x, int y) {
+        int cell = cellOfGridCode.putIfAbsent(gridCode, size);
+        if (cell != IntIntHashIndex.MISSING) {
+            return cell;
+        }
+        if (size == gridCodes.length) {
+            int capacity = size * 2;
+            gridCodes = Arrays.copyOf(gridCodes, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+        }
+        gridCodes[size] = gridCode;
+        xs[size] = x;
+        ys[size] = y;
+        return size++;
+    }
+
+    /**
+     * Get the cell number of a grid code.
+     *
+     * @return The cell number, or -1 if no dataset has the grid code
+     */
+    public synchronized int find(int gridCode) {
+        return cellOfGridCode.get(gridCode);
+    }
+
+    /**
+     * Get the number of cells.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the grid code column. Only the first size() entries are valid.
+     */
+    public int[] getGridCodeColumn() {
+        return gridCodes;
+    }
+
+    /**
+     * Get the x (easting) column. Only the first size() entries are valid.
+     */
+    public int[] getXColumn() {
+        return xs;
+    }
+
+    /**
+     * Get the y (northing) column. Only the first size() entries are valid.
+     */
+    public int[] getYColumn() {
+        return ys;
+    }
+
+    /**
+     * Get the memory used by the dictionary, in bytes.
+     */
+    public synchronized long getMemoryBytes() {
+        return (long) gridCodes.length * Integer.BYTES * 3 + cellOfGridCode.getMemoryBytes();
+    }
+}
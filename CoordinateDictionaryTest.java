@@ -0,0 +1,32 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class CoordinateDictionaryTest {
+    @Test
+    public void testDatasetsShareAlignedRows() {
+        CoordinateDictionary coordinates = new CoordinateDictionary();
+        DataSet year1 = new DataSet("NO2", "2018", "annual mean", "ugm-3", coordinates);
+        year1.addData(new String[] {"10", "500", "500", "1"});
+        year1.addData(new String[] {"11", "1500", "500", "2"});
+        DataSet year2 = new DataSet("NO2", "2019", "annual mean", "ugm-3", coordinates);
+        year2.addData(new String[] {"12", "2500", "500", "3"});
+        year2.addData(new String[] {"10", "500", "500", "4"});
+
+        assertEquals(3, coordinates.size());
+        assertEquals(year1.findRow(10), year2.findRow(10));
+        assertEquals(0, year2.findRow(10));
+        assertEquals(2500, year2.getXColumn()[year2.findRow(12)]);
+
+        // The second year has no value for cell 11
+        assertEquals(3, year2.size());
+        assertEquals(2, year2.getValueCount());
+        assertFalse(year2.hasValue(1));
+        assertEquals(-1, year2.findRow(11));
+        assertEquals(2, year2.getData().size());
+        assertEquals(12, year2.getData().get(1).gridCode());
+
+        boolean[] mask = {true, true, true};
+        assertEquals(2, year2.maskMissing(mask));
+        assertFalse(mask[1]);
+    }
+}
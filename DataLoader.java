@@ -1,25 +1,89 @@
 import java.io.*;
 import java.net.*;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class loads air pollution data files from disk and manages datasets.
  * It handles loading multiple datasets for different pollutants and years.
  * 
+ * Datasets are normally all loaded up front and kept. Given a memory budget, the loader
+ * instead reads each file the first time its dataset is asked for, and keeps datasets in
+ * an LRU cache weighed by their estimated size, so memory stays within the budget
+ * however many pollutants and years are configured. Concurrent requests for a dataset
+ * that is not in memory share one load.
+ * 
  * @author Tejas Raj
  * @version 2.0
  */
 public class DataLoader {
     private static final String COMMA_DELIMITER = ",";
+    
+    // How to store dataset values, and the largest error allowed in any stored value.
+    // Values are shown to two decimal places, so the default error cannot be seen.
+    private static final double DEFAULT_VALUE_TOLERANCE = 0.005;
+    private static final ValueColumn.Encoding VALUE_ENCODING = readValueEncoding();
+    private static final double VALUE_TOLERANCE = readValueTolerance();
+    
+    // Whether double values are kept off the Java heap, and where binary copies of the
+    // datasets are cached (no cache if unset). Cached values are used straight from the
+    // mapped file when they are kept off the heap.
+    private static final boolean OFF_HEAP = Boolean.getBoolean("airpollution.offHeap");
+    private static final String DATASET_CACHE_DIR = System.getProperty("airpollution.datasetCacheDir");
+    
+    // The memory budget for datasets loaded on demand; all are loaded up front if unset
+    private static final long DATASET_BUDGET_MB = Long.getLong("airpollution.datasetBudgetMB", 0);
+    
     private Map<String, DataSet> datasetMap = new HashMap<>();
+    private final LruCache<String, DataSet> lazyDatasets;
+    private final SingleFlight<String, DataSet> datasetLoads = new SingleFlight<>();
+    private final Set<String> missingDatasets = ConcurrentHashMap.newKeySet();
+    private final AtomicLong loadCount = new AtomicLong();
+    private Set<String> loadedPollutants = new LinkedHashSet<>();
+    private Set<String> loadedYears = new LinkedHashSet<>();
+    private CellHistoryStore cellHistoryStore;
+    private final CoordinateDictionary coordinateDictionary = new CoordinateDictionary();
+    private final DataSetCache dataSetCache =
+        DATASET_CACHE_DIR == null ? null : new DataSetCache(Paths.get(DATASET_CACHE_DIR));
+    
+    /**
+     * Constructor for DataLoader, loading datasets up front unless the
+     * airpollution.datasetBudgetMB property gives a memory budget.
+     */
+    public DataLoader() {
+        this(DATASET_BUDGET_MB * 1024 * 1024);
+    }
+    
+    /**
+     * Constructor for a DataLoader that loads datasets on demand within a memory budget.
+     * 
+     * @param budgetBytes The most memory loaded datasets may use, in bytes, or 0 to load
+     *                    all datasets up front and keep them
+     */
+    public DataLoader(long budgetBytes) {
+        lazyDatasets = budgetBytes > 0 ? new LruCache<>(budgetBytes, DataSet::getMemoryBytes) : null;
+    }
     
     /**
-     * Loads all datasets for the given years and pollutants
+     * Loads all datasets for the given years and pollutants. When loading on demand,
+     * the datasets are only made available, and each is loaded when first asked for.
      * 
      * @param years List of years to load data for
      * @param pollutants List of pollutant types to load data for
      */
     public void loadAllDatasets(List<String> years, List<String> pollutants) {
+        loadedPollutants.addAll(pollutants);
+        loadedYears.addAll(years);
+        if (lazyDatasets != null) {
+            synchronized (this) {
+                cellHistoryStore = null;
+            }
+            System.out.println("Datasets will be loaded when first used, within "
+                               + lazyDatasets.getCapacity() / (1024 * 1024) + " MB");
+            return;
+        }
         System.out.println("Loading all datasets...");
 
         for (String pollutant : pollutants) {
@@ -29,6 +93,9 @@ public class DataLoader {
                     DataSet dataset = loadDataFile(filepath);
                     if (dataset != null) {
                         datasetMap.put(pollutant + "-" + year, dataset);
+                        synchronized (this) {
+                            cellHistoryStore = null;
+                        }
                         System.out.println("Loaded data for " + pollutant + " in " + year);
                     } else {
                         System.out.println("Data not found for " + pollutant + " in " + year);
@@ -46,7 +113,161 @@ public class DataLoader {
      * @return The dataset or null if not found
      */
     public DataSet getDataset(String pollutant, String year) {
-        return datasetMap.get(pollutant + "-" + year);
+        String key = pollutant + "-" + year;
+        if (lazyDatasets == null) {
+            return datasetMap.get(key);
+        }
+        if (!hasDataset(pollutant, year)) {
+            return null;
+        }
+        
+        DataSet dataset = lazyDatasets.get(key);
+        if (dataset != null) {
+            return dataset;
+        }
+        return datasetLoads.execute(key, () -> {
+            // Another caller may have loaded it since the check above
+            DataSet loaded = lazyDatasets.peek(key);
+            if (loaded == null) {
+                String filepath = getFilePath(year, pollutant);
+                loaded = filepath == null ? null : loadDataFile(filepath);
+                loadCount.incrementAndGet();
+                if (loaded != null) {
+                    if (loaded.getMemoryBytes() > lazyDatasets.getCapacity()) {
+                        System.out.println("The dataset for " + pollutant + " in " + year
+                                           + " is larger than the memory budget; only it will be kept");
+                    }
+                    lazyDatasets.put(key, loaded);
+                } else {
+                    missingDatasets.add(key);
+                    System.out.println("Data not found for " + pollutant + " in " + year);
+                }
+            }
+            return loaded;
+        });
+    }
+    
+    /**
+     * Check whether there may be a dataset for a pollutant and year, without loading it.
+     * When loading on demand, this is so for every requested pollutant and year whose
+     * file has not been found missing.
+     * 
+     * @param pollutant The pollutant type
+     * @param year The year
+     */
+    public boolean hasDataset(String pollutant, String year) {
+        String key = pollutant + "-" + year;
+        if (lazyDatasets == null) {
+            return datasetMap.containsKey(key);
+        }
+        return loadedPollutants.contains(pollutant) && loadedYears.contains(year) && !missingDatasets.contains(key);
+    }
+    
+    /**
+     * Get all of the datasets that have been loaded. When loading on demand, these are
+     * the datasets in memory at the moment.
+     * 
+     * @return The loaded datasets, in no particular order
+     */
+    public Collection<DataSet> getLoadedDatasets() {
+        if (lazyDatasets != null) {
+            return Collections.unmodifiableCollection(lazyDatasets.values());
+        }
+        return Collections.unmodifiableCollection(datasetMap.values());
+    }
+    
+    /**
+     * Get the pollutants datasets have been requested for, in order
+     */
+    public List<String> getPollutants() {
+        return new ArrayList<>(loadedPollutants);
+    }
+    
+    /**
+     * Get the years datasets have been requested for, in order
+     */
+    public List<String> getYears() {
+        return new ArrayList<>(loadedYears);
+    }
+    
+    /**
+     * Check whether datasets are loaded on demand within a memory budget
+     */
+    public boolean isLoadingOnDemand() {
+        return lazyDatasets != null;
+    }
+    
+    /**
+     * Check whether a number of datasets can be in memory at once. This is always so when
+     * all datasets are kept. When they are loaded on demand, the datasets in memory now
+     * are taken as typical; with none in memory yet, the answer is no.
+     * 
+     * @param count The number of datasets
+     */
+    public boolean canHoldDatasets(int count) {
+        if (lazyDatasets == null) {
+            return true;
+        }
+        int held = lazyDatasets.size();
+        return held > 0 && lazyDatasets.getTotalWeight() / held * count <= lazyDatasets.getCapacity();
+    }
+    
+    /**
+     * Get the cache of datasets loaded on demand, for its statistics
+     * 
+     * @return The cache, or null if all datasets are loaded up front
+     */
+    public LruCache<String, DataSet> getDatasetCache() {
+        return lazyDatasets;
+    }
+    
+    /**
+     * Get the number of data files read on demand, including files read again after
+     * their dataset was evicted
+     */
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+    
+    /**
+     * Get the dictionary of grid cells shared by all datasets from this loader
+     * 
+     * @return The dictionary
+     */
+    public CoordinateDictionary getCoordinateDictionary() {
+        return coordinateDictionary;
+    }
+    
+    /**
+     * Get the loaded data arranged by location, for the history of single cells. The
+     * store is built the first time it is needed after datasets are loaded. When loading
+     * on demand, building it reads every dataset in turn and the store holds every value,
+     * outside the budget; getCellHistory() reads single cells without it.
+     * 
+     * @return The store of every loaded pollutant and year
+     */
+    public synchronized CellHistoryStore getCellHistoryStore() {
+        if (cellHistoryStore == null) {
+            cellHistoryStore = CellHistoryStore.build(this, new ArrayList<>(loadedPollutants),
+                                                      new ArrayList<>(loadedYears));
+        }
+        return cellHistoryStore;
+    }
+    
+    /**
+     * Get the history of one grid cell over every loaded pollutant and year. When all
+     * datasets are kept, this comes from the cell history store. When they are loaded on
+     * demand, it is read from each dataset in turn within the memory budget, which may
+     * read data files, so this should not be called on the JavaFX thread.
+     * 
+     * @param gridCode The grid code of the cell
+     * @return The history, or null if no dataset has data for the cell
+     */
+    public CellHistoryStore.History getCellHistory(int gridCode) {
+        if (lazyDatasets == null) {
+            return getCellHistoryStore().getHistory(gridCode);
+        }
+        return CellHistoryStore.read(this, getPollutants(), getYears(), gridCode);
     }
     
     /**
@@ -72,6 +293,8 @@ public class DataLoader {
     /** 
      * Read a data file from disk. The data must be a csv file, and must be in the
      * DEFRA air pollution file format. The data is returned in a DataSet object.
+     * If a dataset cache is in use, the cached copy is read instead when it is up to
+     * date, and a new copy is cached when it is not.
      * 
      * @param fileName The file to load
      * @return A DataSet object holding the complete dataset
@@ -81,7 +304,56 @@ public class DataLoader {
         
         URL url = getClass().getResource(fileName);
         System.out.println(url);
-        try (BufferedReader br = new BufferedReader(new FileReader(new File(url.toURI()).getAbsolutePath()))) {
+        if (url == null) {
+            System.out.println("Could not find file " + fileName);
+            return null;
+        }
+        try {
+            File file = new File(url.toURI());
+            DataSet dataSet = null;
+            if (dataSetCache != null) {
+                dataSet = dataSetCache.read(fileName, file, coordinateDictionary,
+                                            OFF_HEAP && VALUE_ENCODING == ValueColumn.Encoding.DOUBLE);
+            }
+            if (dataSet == null) {
+                dataSet = readDataFile(file);
+                if (dataSetCache != null) {
+                    dataSetCache.write(fileName, dataSet);
+                }
+            } else {
+                System.out.println("Read cached copy of " + fileName);
+            }
+            
+            if (VALUE_ENCODING != ValueColumn.Encoding.DOUBLE) {
+                ValueColumn.Encoding used = dataSet.encodeValues(VALUE_ENCODING, VALUE_TOLERANCE);
+                if (used != VALUE_ENCODING) {
+                    System.out.println("Values of " + fileName + " do not fit " + VALUE_ENCODING
+                                       + " within " + VALUE_TOLERANCE + "; stored as " + used);
+                }
+            } else if (OFF_HEAP) {
+                dataSet.moveValuesOffHeap();
+            }
+            dataSet.buildAggregationPyramid();
+            dataSet.buildGridCodeIndex();
+            dataSet.buildPointRows();
+            System.out.println("Loading file... done.");
+            return dataSet;
+        }        
+        catch(IOException | URISyntaxException e) {
+            System.out.println("Could not read file " + fileName);
+            e.printStackTrace();
+            return null;
+        }
+    }
+    
+    /**
+     * Parse a data file into a new dataset over the shared coordinates.
+     * 
+     * @param file The csv file
+     * @return The dataset
+     */
+    private DataSet readDataFile(File file) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(file.getAbsolutePath()))) {
             // the first four lines of the file hold special information; read them in:
             String pollutant = readDataHeader(br);
             String year = readDataHeader(br);
@@ -93,7 +365,7 @@ public class DataLoader {
             br.readLine();
             br.readLine();
 
-            DataSet dataSet = new DataSet(pollutant, year, metric, units);
+            DataSet dataSet = new DataSet(pollutant, year, metric, units, coordinateDictionary);
             
             // read all the data lines
             String line;
@@ -101,16 +373,47 @@ public class DataLoader {
                 String[] values = line.split(COMMA_DELIMITER);
                 dataSet.addData(values);
             }
-            System.out.println("Loading file... done.");
             return dataSet;
-        }        
-        catch(IOException | URISyntaxException e) {
-            System.out.println("Could not read file " + fileName);
-            e.printStackTrace();
-            return null;
         }
     }
     
+    /**
+     * Read the value encoding from the airpollution.valueEncoding property. A value that
+     * names no encoding is reported and doubles are used.
+     */
+    private static ValueColumn.Encoding readValueEncoding() {
+        String name = System.getProperty("airpollution.valueEncoding", "double");
+        try {
+            return ValueColumn.Encoding.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown value encoding " + name + ", expected one of "
+                               + Arrays.toString(ValueColumn.Encoding.values()) + "; using DOUBLE");
+            return ValueColumn.Encoding.DOUBLE;
+        }
+    }
+    
+    /**
+     * Read the largest error allowed in a stored value from the airpollution.valueTolerance
+     * property. A value that is not a number of zero or more is reported and the default
+     * is used.
+     */
+    private static double readValueTolerance() {
+        String text = System.getProperty("airpollution.valueTolerance");
+        if (text == null) {
+            return DEFAULT_VALUE_TOLERANCE;
+        }
+        try {
+            double tolerance = Double.parseDouble(text.trim());
+            if (tolerance >= 0) {
+                return tolerance;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        System.out.println("Invalid value tolerance " + text + "; using " + DEFAULT_VALUE_TOLERANCE);
+        return DEFAULT_VALUE_TOLERANCE;
+    }
+    
     /**
      * Read one piece of information out of the header of the data file.
      * Each line in the header has the format
@@ -0,0 +1,91 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DataLoaderTest {
+    /**
+     * A loader that makes up a dataset of 1000 points for any file, recording the files.
+     */
+    private static class FakeLoader extends DataLoader {
+        private final List<String> filesRead = new ArrayList<>();
+
+        FakeLoader(long budgetBytes) {
+            super(budgetBytes);
+        }
+
+        @Override
+        public DataSet loadDataFile(String fileName) {
+            filesRead.add(fileName);
+            DataSet dataset = new DataSet("NO2", fileName, "annual mean", "ugm-3");
+            for (int point = 0; point < 1000; point++) {
+                dataset.addData(new String[] {Integer.toString(point), "500", "500", "10"});
+            }
+            return dataset;
+        }
+    }
+
+    @Test
+    public void testDatasetsAreLoadedWhenFirstAskedFor() {
+        FakeLoader dataLoader = new FakeLoader(1024 * 1024);
+        dataLoader.loadAllDatasets(List.of("2018", "2019"), List.of("NO2"));
+        assertTrue(dataLoader.filesRead.isEmpty());
+
+        DataSet dataset = dataLoader.getDataset("NO2", "2018");
+        assertSame(dataset, dataLoader.getDataset("NO2", "2018"));
+        assertEquals(List.of("UKAirPollutionData/NO2/mapno22018.csv"), dataLoader.filesRead);
+        assertEquals(1, dataLoader.getLoadCount());
+        assertEquals(1, dataLoader.getDatasetCache().getHitCount());
+        assertEquals(1, dataLoader.getDatasetCache().getMissCount());
+
+        assertNull(dataLoader.getDataset("NO2", "2020"));
+        assertNull(dataLoader.getDataset("PM10", "2018"));
+        assertEquals(1, dataLoader.getLoadCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedDatasetIsEvictedOverBudget() {
+        FakeLoader dataLoader = new FakeLoader(30000);
+        dataLoader.loadAllDatasets(List.of("2018", "2019"), List.of("NO2"));
+
+        DataSet first = dataLoader.getDataset("NO2", "2018");
+        assertTrue(first.getMemoryBytes() <= 30000 && first.getMemoryBytes() * 2 > 30000);
+        dataLoader.getDataset("NO2", "2019");
+        assertEquals(1, dataLoader.getDatasetCache().getEvictionCount());
+        assertEquals(1, dataLoader.getLoadedDatasets().size());
+        assertTrue(dataLoader.getDatasetCache().getTotalWeight() <= 30000);
+
+        assertNotSame(first, dataLoader.getDataset("NO2", "2018"));
+        assertEquals(3, dataLoader.getLoadCount());
+    }
+
+    @Test
+    public void testDatasetLargerThanBudgetIsKeptOnItsOwn() {
+        FakeLoader dataLoader = new FakeLoader(1000);
+        dataLoader.loadAllDatasets(List.of("2018", "2019"), List.of("NO2"));
+
+        DataSet first = dataLoader.getDataset("NO2", "2018");
+        assertSame(first, dataLoader.getDataset("NO2", "2018"));
+        assertEquals(1, dataLoader.getLoadCount());
+
+        dataLoader.getDataset("NO2", "2019");
+        assertEquals(1, dataLoader.getLoadedDatasets().size());
+        assertEquals(1, dataLoader.getDatasetCache().getEvictionCount());
+        assertFalse(dataLoader.canHoldDatasets(2));
+    }
+
+    @Test
+    public void testBudgetHoldsWhenCachedDatasetsGrow() {
+        FakeLoader dataLoader = new FakeLoader(30000);
+        dataLoader.loadAllDatasets(List.of("2018", "2019"), List.of("NO2"));
+
+        DataSet first = dataLoader.getDataset("NO2", "2018");
+        long weight = dataLoader.getDatasetCache().getTotalWeight();
+        first.findRow(5);
+        assertTrue(first.getMemoryBytes() > weight);
+
+        DataSet second = dataLoader.getDataset("NO2", "2019");
+        assertEquals(1, dataLoader.getDatasetCache().getEvictionCount());
+        assertEquals(second.getMemoryBytes(), dataLoader.getDatasetCache().getTotalWeight());
+    }
+}
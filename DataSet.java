@@ -14,24 +14,66 @@ import java.util.*;
  */
 public class DataSet
 {
+    private static final int INITIAL_CAPACITY = 1024;
+    
     private String pollutant;
     private String year;
     private String metric;
     private String units;
     
+    // The data points are held column by column so that scans can run over primitive arrays.
+    // Only the first 'size' entries of each column are in use. When the coordinates are
+    // shared, the coordinate columns are the dictionary's and each row is a dictionary
+    // cell; rows for cells this dataset has no data for are NaN and clear in 'present'.
+    private int size;
+    private int valueCount;
+    private final CoordinateDictionary coordinates;
+    private int[] gridCodes;
+    private int[] xs;
+    private int[] ys;
+    private double[] values;
+    private ValueColumn valueColumn;
+    private long[] present;
     private List<DataPoint> data;
+    
+    // Structures derived from the columns. DataLoader builds them all once a file is
+    // loaded; otherwise they are built on first use, possibly by several threads at
+    // once, so they are volatile to be published safely.
+    private volatile int[] rowOfPoint;
+    private volatile AggregationPyramid aggregationPyramid;
+    private volatile IntIntHashIndex gridCodeIndex;
 
     /**
      * Constructor for objects of class DataSet
      */
     public DataSet(String pollutant, String year, String metric, String units)
+    {
+        this(pollutant, year, metric, units, null);
+    }
+    
+    /**
+     * Constructor for a DataSet whose coordinates are held in a dictionary shared with
+     * other datasets.
+     * 
+     * @param coordinates The shared dictionary, or null to hold the coordinates here
+     */
+    public DataSet(String pollutant, String year, String metric, String units, CoordinateDictionary coordinates)
     {
         this.pollutant = pollutant;
         this.year = year;
         this.metric = metric;
         this.units = units;
+        this.coordinates = coordinates;
         
-        data = new ArrayList<DataPoint>();
+        if (coordinates == null) {
+            gridCodes = new int[INITIAL_CAPACITY];
+            xs = new int[INITIAL_CAPACITY];
+            ys = new int[INITIAL_CAPACITY];
+        }
+        values = new double[INITIAL_CAPACITY];
+        valueColumn = ValueColumn.of(values);
+        present = new long[INITIAL_CAPACITY / Long.SIZE];
+        data = new DataPointView();
     }
 
     /**
@@ -67,13 +109,245 @@ public class DataSet
     }
     
     /**
-     * Return the data points of this dataset.
+     * Return the data points of this dataset. The list is a read-only view onto the
+     * dataset's columns.
      */
     public List<DataPoint> getData()
     {
         return data;
     }
     
+    /**
+     * Return the number of rows in this dataset's columns. Where the coordinates are
+     * shared, some rows may have no value; see hasValue().
+     */
+    public int size()
+    {
+        return size;
+    }
+    
+    /**
+     * Return the number of data points in this dataset.
+     */
+    public int getValueCount()
+    {
+        return valueCount;
+    }
+    
+    /**
+     * Return whether every row has a value.
+     */
+    public boolean isComplete()
+    {
+        return valueCount == size;
+    }
+    
+    /**
+     * Return whether a row has a value.
+     */
+    public boolean hasValue(int row)
+    {
+        return (present[row >>> 6] & (1L << row)) != 0;
+    }
+    
+    /**
+     * Clear the entries of a row mask for rows without a value.
+     * 
+     * @param mask The mask, with at least size() entries
+     * @return The number of entries left set
+     */
+    public int maskMissing(boolean[] mask)
+    {
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            mask[row] &= hasValue(row);
+            count += mask[row] ? 1 : 0;
+        }
+        return count;
+    }
+    
+    /**
+     * Return the shared coordinate dictionary, or null if this dataset holds its own
+     * coordinates.
+     */
+    public CoordinateDictionary getCoordinates()
+    {
+        return coordinates;
+    }
+    
+    /**
+     * Return the grid code column. Only the first size() entries are valid.
+     */
+    public int[] getGridCodeColumn()
+    {
+        return coordinates == null ? gridCodes : coordinates.getGridCodeColumn();
+    }
+    
+    /**
+     * Return the x (easting) column. Only the first size() entries are valid.
+     */
+    public int[] getXColumn()
+    {
+        return coordinates == null ? xs : coordinates.getXColumn();
+    }
+    
+    /**
+     * Return the y (northing) column. Only the first size() entries are valid.
+     */
+    public int[] getYColumn()
+    {
+        return coordinates == null ? ys : coordinates.getYColumn();
+    }
+    
+    /**
+     * Return the value column. Only the first size() entries are valid, and rows
+     * without a value hold NaN.
+     */
+    public ValueColumn getValues()
+    {
+        return valueColumn;
+    }
+
+    /**
+     * Return an estimate of the memory used by this dataset, in bytes: its columns, on
+     * or off the heap, and the pyramid and index built from them. Shared coordinates
+     * belong to the dictionary and are not counted.
+     */
+    public long getMemoryBytes()
+    {
+        long bytes = valueColumn.getMemoryBytes() + (long) present.length * Long.BYTES;
+        if (coordinates == null) {
+            bytes += (long) gridCodes.length * Integer.BYTES * 3;
+        }
+        int[] rows = rowOfPoint;
+        if (rows != null) {
+            bytes += (long) rows.length * Integer.BYTES;
+        }
+        AggregationPyramid pyramid = aggregationPyramid;
+        if (pyramid != null) {
+            bytes += pyramid.getMemoryBytes();
+        }
+        IntIntHashIndex index = gridCodeIndex;
+        if (index != null) {
+            bytes += index.getMemoryBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Store the values in a more compact encoding, if it keeps every value within a
+     * tolerance of the original. Otherwise the next more precise encoding is tried, down
+     * to doubles. Adding data afterwards returns the values to doubles.
+     * 
+     * @param encoding The encoding wanted
+     * @param tolerance The largest error allowed in any value
+     * @return The encoding used
+     */
+    public ValueColumn.Encoding encodeValues(ValueColumn.Encoding encoding, double tolerance)
+    {
+        if (values == null) {
+            values = valueColumn.toArray(present.length * Long.SIZE, size);
+        }
+        for (int i = encoding.ordinal(); i > 0; i--) {
+            ValueColumn encoded = ValueColumn.encode(values, size, ValueColumn.Encoding.values()[i]);
+            if (encoded.maxError(values, size) <= tolerance) {
+                valueColumn = encoded;
+                values = null;
+                return encoded.getEncoding();
+            }
+        }
+        valueColumn = ValueColumn.of(values);
+        return ValueColumn.Encoding.DOUBLE;
+    }
+    
+    /**
+     * Build the aggregation pyramid for this dataset. This should be called once all
+     * data has been added.
+     */
+    public void buildAggregationPyramid()
+    {
+        aggregationPyramid = new AggregationPyramid(this);
+    }
+    
+    /**
+     * Return the aggregation pyramid (mean, max and count on coarser grids) for this
+     * dataset, building it first if that has not been done yet.
+     */
+    public AggregationPyramid getAggregationPyramid()
+    {
+        AggregationPyramid pyramid = aggregationPyramid;
+        if (pyramid == null) {
+            pyramid = new AggregationPyramid(this);
+            aggregationPyramid = pyramid;
+        }
+        return pyramid;
+    }
+    
+    /**
+     * Build the index from grid code to row for this dataset. This should be called
+     * once all data has been added. Datasets with shared coordinates use the
+     * dictionary's index instead.
+     */
+    public void buildGridCodeIndex()
+    {
+        if (coordinates == null) {
+            gridCodeIndex = IntIntHashIndex.ofRows(gridCodes, size);
+        }
+    }
+    
+    /**
+     * Build the list of the rows holding values, which getData() uses to find its points
+     * when some rows have no value. This should be called once all data has been added.
+     */
+    public void buildPointRows()
+    {
+        if (!isComplete()) {
+            rowOfPoint = findPointRows();
+        }
+    }
+    
+    /**
+     * Return the row of each data point, in order.
+     */
+    private int[] findPointRows()
+    {
+        int[] rows = new int[valueCount];
+        int point = 0;
+        for (int row = 0; row < size; row++) {
+            if (hasValue(row)) {
+                rows[point++] = row;
+            }
+        }
+        return rows;
+    }
+    
+    /**
+     * Return the row holding a grid code, or -1 if the dataset has no data for it.
+     */
+    public int findRow(int gridCode)
+    {
+        int row;
+        if (coordinates != null) {
+            row = coordinates.find(gridCode);
+        } else {
+            IntIntHashIndex index = gridCodeIndex;
+            if (index == null) {
+                index = IntIntHashIndex.ofRows(gridCodes, size);
+                gridCodeIndex = index;
+            }
+            row = index.get(gridCode);
+        }
+        return row >= 0 && row < size && hasValue(row) ? row : -1;
+    }
+    
+    /**
+     * Return the data point stored in the given row.
+     */
+    public DataPoint getDataPoint(int row)
+    {
+        return new DataPoint(getGridCodeColumn()[row], getXColumn()[row], getYColumn()[row], valueColumn.get(row));
+    }
+    
     /**
      * Add a data point to this dataset. 
      * A data point consists of 4 pieces od data:
@@ -87,11 +361,96 @@ public class DataSet
      */
     public void addData(String[] values)
     {
-        if (toDouble(values[3]) != -1)
-        data.add(new DataPoint(toInt(values[0]), 
-                               toInt(values[1]), 
-                               toInt(values[2]), 
-                               toDouble(values[3]))); 
+        double value = toDouble(values[3]);
+        if (value != -1) {
+            addPoint(toInt(values[0]), toInt(values[1]), toInt(values[2]), value);
+        }
+    }
+    
+    /**
+     * Add a data point to this dataset, replacing any value already held for its grid
+     * code if the coordinates are shared.
+     */
+    public void addPoint(int gridCode, int x, int y, double value)
+    {
+        aggregationPyramid = null;
+        gridCodeIndex = null;
+        rowOfPoint = null;
+        if (values == null) {
+            values = valueColumn.toArray(present.length * Long.SIZE, size);
+            valueColumn = ValueColumn.of(values);
+        }
+        int row = coordinates == null ? size : coordinates.cellOf(gridCode, x, y);
+        if (row >= values.length) {
+            grow(row + 1);
+        }
+        if (coordinates == null) {
+            gridCodes[row] = gridCode;
+            xs[row] = x;
+            ys[row] = y;
+        }
+        for (int missing = size; missing < row; missing++) {
+            values[missing] = Double.NaN;
+        }
+        size = Math.max(size, row + 1);
+        if (!hasValue(row)) {
+            present[row >>> 6] |= 1L << row;
+            valueCount++;
+        }
+        values[row] = value;
+    }
+    
+    /**
+     * Make a dataset over shared coordinates from columns that are already built, such
+     * as those read from a DataSetCache file. Row r must be cell r of the dictionary.
+     * 
+     * @param size The number of rows
+     * @param present The rows with a value, one bit per row
+     * @param values The value column, NaN for rows without a value
+     */
+    public static DataSet fromColumns(String pollutant, String year, String metric, String units,
+                                      CoordinateDictionary coordinates, int size, long[] present, ValueColumn values)
+    {
+        DataSet dataSet = new DataSet(pollutant, year, metric, units, coordinates);
+        dataSet.size = size;
+        dataSet.present = Arrays.copyOf(present, Math.max(present.length, INITIAL_CAPACITY / Long.SIZE));
+        for (long bits : present) {
+            dataSet.valueCount += Long.bitCount(bits);
+        }
+        dataSet.values = null;
+        dataSet.valueColumn = values;
+        return dataSet;
+    }
+    
+    /**
+     * Move the values out of the Java heap into direct memory. Adding data afterwards
+     * brings them back onto the heap.
+     */
+    public void moveValuesOffHeap()
+    {
+        if (!valueColumn.isOffHeap()) {
+            valueColumn = ValueColumn.offHeap(values != null ? values : valueColumn.toArray(size, size), size);
+            values = null;
+        }
+    }
+    
+    /**
+     * Double the capacity of all columns until they hold at least a number of rows.
+     */
+    private void grow(int rows)
+    {
+        int capacity = this.values.length;
+        while (capacity < rows) {
+            capacity *= 2;
+        }
+        if (coordinates == null) {
+            gridCodes = Arrays.copyOf(gridCodes, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+        }
+        values = Arrays.copyOf(values, capacity);
+        valueColumn = ValueColumn.of(values);
+        present = Arrays.copyOf(present, capacity / Long.SIZE);
     }
     
     /**
@@ -130,6 +489,38 @@ public class DataSet
     public String toString()
     {
         return String.format("Dataset: Pollutant: %s, Year: %s, Metric: %s, Units: %s (%d data points)",
-                             pollutant, year, metric, units, data.size());
+                             pollutant, year, metric, units, valueCount);
+    }
+    
+    /**
+     * Read-only list view of the rows with values, creating each DataPoint on access.
+     */
+    private class DataPointView extends AbstractList<DataPoint> implements RandomAccess
+    {
+        @Override
+        public DataPoint get(int index)
+        {
+            Objects.checkIndex(index, valueCount);
+            return getDataPoint(isComplete() ? index : rowsOfPoints()[index]);
+        }
+        
+        @Override
+        public int size()
+        {
+            return valueCount;
+        }
+        
+        /**
+         * Return the row of each data point, for datasets with rows that have no value.
+         */
+        private int[] rowsOfPoints()
+        {
+            int[] rows = rowOfPoint;
+            if (rows == null) {
+                rows = findPointRows();
+                rowOfPoint = rows;
+            }
+            return rows;
+        }
     }
 }
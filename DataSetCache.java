@@ -0,0 +1,213 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A folder of binary copies of loaded datasets, so that later runs can skip parsing the
+ * CSV files. Each file holds a dataset's columns as they are in memory, little-endian:
+ *
+ *   magic, version, pollutant, year, metric, units, rows,
+ *   grid codes, eastings, northings (one int per row),
+ *   presence bits (one long per 64 rows), padding to 8 bytes,
+ *   values (one double per row, NaN where there is no value)
+ *
+ * The value column can be used straight from a memory mapped file, off the Java heap.
+ * The operating system then shares the pages between all processes reading the file,
+ * and the garbage collector never sees them.
+ *
+ * A file is ignored if it is older than its CSV file or was written by another version.
+ *
+ * @author Tejas Raj
+ * @version 2.0
+ */
+public class DataSetCache {
+    private static final int MAGIC = 0x41504453;
+    private static final int VERSION = 1;
+
+    private final Path directory;
+
+    /**
+     * Constructor for DataSetCache
+     *
+     * @param directory The folder holding the cache files
+     */
+    public DataSetCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Read a dataset from the cache. The rows are matched against the shared coordinate
+     * dictionary; if they are the dictionary's cells in order, as when files are loaded
+     * in the same order as when they were cached, the columns are used as they are.
+     * Otherwise the points are added one by one.
+     *
+     * @param name The name of the dataset's CSV file
+     * @param source The CSV file, to check the cache file is not out of date
+     * @param coordinates The shared coordinate dictionary
+     * @param mapped Whether to leave the values in the mapped file rather than copy them
+     *               onto the heap
+     * @return The dataset, or null if the cache has no usable copy
+     */
+    public DataSet read(String name, File source, CoordinateDictionary coordinates, boolean mapped) {
+        Path path = pathOf(name);
+        try {
+            if (!Files.exists(path) || Files.getLastModifiedTime(path).toMillis() < source.lastModified()) {
+                return null;
+            }
+            MappedByteBuffer file;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            file.order(ByteOrder.LITTLE_ENDIAN);
+            if (file.getInt() != MAGIC || file.getInt() != VERSION) {
+                return null;
+            }
+            String pollutant = readString(file);
+            String year = readString(file);
+            String metric = readString(file);
+            String units = readString(file);
+            int size = file.getInt();
+
+            int[] gridCodes = new int[size];
+            int[] xs = new int[size];
+            int[] ys = new int[size];
+            file.asIntBuffer().get(gridCodes);
+            file.position(file.position() + size * Integer.BYTES);
+            file.asIntBuffer().get(xs);
+            file.position(file.position() + size * Integer.BYTES);
+            file.asIntBuffer().get(ys);
+            file.position(file.position() + size * Integer.BYTES);
+            long[] present = new long[(size + Long.SIZE - 1) / Long.SIZE];
+            file.asLongBuffer().get(present);
+            file.position(align(file.position() + present.length * Long.BYTES));
+            DoubleBuffer values = file.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            values.limit(size);
+
+            boolean aligned = true;
+            for (int row = 0; row < size && aligned; row++) {
+                aligned = coordinates.cellOf(gridCodes[row], xs[row], ys[row]) == row;
+            }
+            if (aligned) {
+                ValueColumn column;
+                if (mapped) {
+                    column = ValueColumn.of(values);
+                } else {
+                    double[] heapValues = new double[present.length * Long.SIZE];
+                    values.get(heapValues, 0, size);
+                    column = ValueColumn.of(heapValues);
+                }
+                return DataSet.fromColumns(pollutant, year, metric, units, coordinates, size, present, column);
+            }
+
+            DataSet dataSet = new DataSet(pollutant, year, metric, units, coordinates);
+            for (int row = 0; row < size; row++) {
+                if ((present[row >>> 6] & (1L << row)) != 0) {
+                    dataSet.addPoint(gridCodes[row], xs[row], ys[row], values.get(row));
+                }
+            }
+            return dataSet;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Could not read cached dataset " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Write a dataset to the cache. The file is written under a temporary name and then
+     * renamed, so that a file being written is never read half finished.
+     *
+     * @param name The name of the dataset's CSV file
+     * @param dataSet The dataset
+     */
+    public void write(String name, DataSet dataSet) {
+        Path path = pathOf(name);
+        int size = dataSet.size();
+        byte[][] strings = {
+            dataSet.getPollutant().getBytes(StandardCharsets.UTF_8),
+            dataSet.getYear().getBytes(StandardCharsets.UTF_8),
+            dataSet.getMetric().getBytes(StandardCharsets.UTF_8),
+            dataSet.getUnits().getBytes(StandardCharsets.UTF_8)
+        };
+        long[] present = new long[(size + Long.SIZE - 1) / Long.SIZE];
+        for (int row = 0; row < size; row++) {
+            if (dataSet.hasValue(row)) {
+                present[row >>> 6] |= 1L << row;
+            }
+        }
+
+        int headerBytes = 3 * Integer.BYTES;
+        for (byte[] string : strings) {
+            headerBytes += Integer.BYTES + string.length;
+        }
+        int valuesOffset = align(headerBytes + 3 * size * Integer.BYTES + present.length * Long.BYTES);
+        ByteBuffer buffer = ByteBuffer.allocate(valuesOffset + size * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        for (byte[] string : strings) {
+            buffer.putInt(string.length).put(string);
+        }
+        buffer.putInt(size);
+        buffer.asIntBuffer().put(dataSet.getGridCodeColumn(), 0, size);
+        buffer.position(buffer.position() + size * Integer.BYTES);
+        buffer.asIntBuffer().put(dataSet.getXColumn(), 0, size);
+        buffer.position(buffer.position() + size * Integer.BYTES);
+        buffer.asIntBuffer().put(dataSet.getYColumn(), 0, size);
+        buffer.position(buffer.position() + size * Integer.BYTES);
+        buffer.asLongBuffer().put(present);
+        buffer.position(valuesOffset);
+        ValueColumn values = dataSet.getValues();
+        for (int row = 0; row < size; row++) {
+            buffer.putDouble(values.get(row));
+        }
+        buffer.flip();
+
+        try {
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, "dataset", ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            try {
+                Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not cache dataset " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the cache file of a dataset.
+     */
+    private Path pathOf(String name) {
+        return directory.resolve(name.replaceAll("[^A-Za-z0-9.]", "_") + ".bin");
+    }
+
+    /**
+     * Read a string stored as its length and UTF-8 bytes.
+     */
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Round a file position up to a whole number of doubles.
+     */
+    private static int align(int position) {
+        return (position + Double.BYTES - 1) / Double.BYTES * Double.BYTES;
+    }
+}
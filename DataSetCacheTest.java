@@ -0,0 +1,49 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class DataSetCacheTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testCachedCopyIsReadBack() throws Exception {
+        File source = Files.createFile(directory.resolve("source.csv")).toFile();
+        source.setLastModified(System.currentTimeMillis() - 60000);
+        DataSet dataset = new DataSet("NO2", "2023", "annual mean", "ugm-3", new CoordinateDictionary());
+        dataset.addData(new String[] {"10", "500", "500", "1.5"});
+        dataset.addData(new String[] {"11", "1500", "500", "2.5"});
+        DataSetCache cache = new DataSetCache(directory.resolve("cache"));
+        cache.write("source.csv", dataset);
+
+        // Mapped, with rows matching a fresh dictionary
+        DataSet mapped = cache.read("source.csv", source, new CoordinateDictionary(), true);
+        assertTrue(mapped.getValues().isOffHeap());
+        assertEquals("ugm-3", mapped.getUnits());
+        assertEquals(2.5, mapped.getDataPoint(mapped.findRow(11)).value());
+
+        // On the heap, with rows that no longer match the dictionary
+        CoordinateDictionary coordinates = new CoordinateDictionary();
+        coordinates.cellOf(99, 7500, 7500);
+        DataSet copied = cache.read("source.csv", source, coordinates, false);
+        assertFalse(copied.getValues().isOffHeap());
+        assertEquals(2, copied.getValueCount());
+        assertEquals(1500, copied.getDataPoint(copied.findRow(11)).x());
+        assertEquals(-1, copied.findRow(99));
+    }
+
+    @Test
+    public void testStaleCopyIsIgnored() throws Exception {
+        File source = Files.createFile(directory.resolve("source.csv")).toFile();
+        DataSet dataset = new DataSet("NO2", "2023", "annual mean", "ugm-3");
+        dataset.addData(new String[] {"10", "500", "500", "1.5"});
+        DataSetCache cache = new DataSetCache(directory.resolve("cache"));
+        cache.write("source.csv", dataset);
+        source.setLastModified(System.currentTimeMillis() + 60000);
+
+        assertNull(cache.read("source.csv", source, new CoordinateDictionary(), true));
+    }
+}
@@ -85,7 +85,7 @@ public class Graph {
         for (String year : years) {
             DataSet dataset = dataLoader.getDataset(pollutant, year);
             if (dataset != null) {
-                List<DataPoint> cityList = cityDataFilter.filterCityArea(dataset.getData(), selectedCity);
+                List<DataPoint> cityList = cityDataFilter.filterCityArea(dataset, selectedCity);
                 if (!cityList.isEmpty()) {
                     double avgValue = calculateAverage(cityList);
                     series.getData().add(new XYChart.Data<>(year, avgValue));
@@ -142,7 +142,7 @@ public class Graph {
             for (String pollutant : pollutants) {
                 DataSet dataset = dataLoader.getDataset(pollutant, year);
                 if (dataset != null) {
-                    List<DataPoint> filteredData = cityDataFilter.filterCityArea(dataset.getData(), selectedCity);
+                    List<DataPoint> filteredData = cityDataFilter.filterCityArea(dataset, selectedCity);
                     if (!filteredData.isEmpty()) {
                         double avgValue = calculateAverage(filteredData);
                         series.getData().add(new XYChart.Data<>(pollutant, avgValue));
@@ -197,7 +197,7 @@ public class Graph {
     private double getAveragePollutantValue(String pollutant, String year) {
         DataSet dataset = dataLoader.getDataset(pollutant, year);
         if (dataset != null) {
-            List<DataPoint> cityList = cityDataFilter.filterCityArea(dataset.getData(), selectedCity);
+            List<DataPoint> cityList = cityDataFilter.filterCityArea(dataset, selectedCity);
             if (!cityList.isEmpty()) {
                 return calculateAverage(cityList);
             }
@@ -225,10 +225,12 @@ public class Graph {
         XYChart.Series<String, Number> series = new XYChart.Series<>();
         series.setName(year + " " + pollutant + " Levels");
         
-        for (String city : cities) {
-            DataSet dataset = dataLoader.getDataset(pollutant, year);
-            if (dataset != null) {
-                List<DataPoint> cityData = cityDataFilter.filterCityArea(dataset.getData(), city);
+        // Assign the data to every city in a single scan rather than one scan per city
+        DataSet dataset = dataLoader.getDataset(pollutant, year);
+        if (dataset != null) {
+            Map<String, List<DataPoint>> dataByCity = cityDataFilter.filterCities(dataset.getData(), cities);
+            for (String city : cities) {
+                List<DataPoint> cityData = dataByCity.get(city);
                 if (!cityData.isEmpty()) {
                     double avgValue = calculateAverage(cityData);
                     series.getData().add(new XYChart.Data<>(city, avgValue));
@@ -0,0 +1,209 @@
+import java.util.Arrays;
+
+/**
+ * A spatial index of a dataset over the 1km grid, with summed-area tables for fast box
+ * totals.
+ *
+ * The index covers the dataset's extent with one entry per 1km cell, holding the row of
+ * the data point at the cell's centre. The rows inside a box can then be found by looking
+ * at just the cells of the box, without scanning the whole dataset. The summed-area
+ * tables hold, for every cell, the count and sum of all values south-west of it, so the
+ * count and sum of any box take four lookups each, whatever its size.
+ *
+ * The index only works for datasets with one point at the centre of each cell, as in the
+ * DEFRA files. build() returns null for any other dataset.
+ *
+ * @author Tejas Raj
+ * @version 2.0
+ */
+public class GridIndex {
+    private static final int CELL_SIZE = CityGrid.CELL_SIZE;
+    private static final int CENTRE_OFFSET = CELL_SIZE / 2;
+
+    private final int firstColumn;
+    private final int firstRow;
+    private final int columns;
+    private final int rows;
+
+    // Dataset row at each cell, row by row from the south, or -1 if the cell is empty
+    private final int[] rowOfCell;
+
+    // Counts and sums of all cells south-west of each corner, (columns + 1) x (rows + 1)
+    private final int[] countTable;
+    private final double[] sumTable;
+
+    private GridIndex(int firstColumn, int firstRow, int columns, int rows) {
+        this.firstColumn = firstColumn;
+        this.firstRow = firstRow;
+        this.columns = columns;
+        this.rows = rows;
+        this.rowOfCell = new int[columns * rows];
+        this.countTable = new int[(columns + 1) * (rows + 1)];
+        this.sumTable = new double[(columns + 1) * (rows + 1)];
+    }
+
+    /**
+     * Build the index of a dataset.
+     *
+     * @param dataset The dataset to index
+     * @return The index, or null if the dataset's points are not one per cell centre
+     */
+    public static GridIndex build(DataSet dataset) {
+        int size = dataset.size();
+        if (dataset.getValueCount() == 0) {
+            return null;
+        }
+        int[] xs = dataset.getXColumn();
+        int[] ys = dataset.getYColumn();
+        ValueColumn values = dataset.getValues();
+        boolean complete = dataset.isComplete();
+
+        int minColumn = Integer.MAX_VALUE;
+        int maxColumn = Integer.MIN_VALUE;
+        int minRow = Integer.MAX_VALUE;
+        int maxRow = Integer.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            if (!complete && !dataset.hasValue(i)) {
+                continue;
+            }
+            if (Math.floorMod(xs[i], CELL_SIZE) != CENTRE_OFFSET || Math.floorMod(ys[i], CELL_SIZE) != CENTRE_OFFSET) {
+                return null;
+            }
+            minColumn = Math.min(minColumn, Math.floorDiv(xs[i], CELL_SIZE));
+            maxColumn = Math.max(maxColumn, Math.floorDiv(xs[i], CELL_SIZE));
+            minRow = Math.min(minRow, Math.floorDiv(ys[i], CELL_SIZE));
+            maxRow = Math.max(maxRow, Math.floorDiv(ys[i], CELL_SIZE));
+        }
+
+        GridIndex index = new GridIndex(minColumn, minRow, maxColumn - minColumn + 1, maxRow - minRow + 1);
+        Arrays.fill(index.rowOfCell, -1);
+        for (int i = 0; i < size; i++) {
+            if (!complete && !dataset.hasValue(i)) {
+                continue;
+            }
+            int cell = (Math.floorDiv(ys[i], CELL_SIZE) - minRow) * index.columns + Math.floorDiv(xs[i], CELL_SIZE) - minColumn;
+            if (index.rowOfCell[cell] >= 0) {
+                // Two points in one cell
+                return null;
+            }
+            index.rowOfCell[cell] = i;
+        }
+
+        // Each corner's totals are its own cell plus the totals to the west and south,
+        // less the overlap to the south-west that was counted twice
+        int stride = index.columns + 1;
+        for (int row = 0; row < index.rows; row++) {
+            for (int column = 0; column < index.columns; column++) {
+                int dataRow = index.rowOfCell[row * index.columns + column];
+                int corner = (row + 1) * stride + column + 1;
+                index.countTable[corner] = (dataRow >= 0 ? 1 : 0) + index.countTable[corner - 1]
+                    + index.countTable[corner - stride] - index.countTable[corner - stride - 1];
+                index.sumTable[corner] = (dataRow >= 0 ? values.get(dataRow) : 0) + index.sumTable[corner - 1]
+                    + index.sumTable[corner - stride] - index.sumTable[corner - stride - 1];
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Get the range of cells whose centres lie in a box, including its edges.
+     *
+     * @return The first and last column, then the first and last row, or null if no cell
+     *         of the index is in the box
+     */
+    public int[] cellRange(double minEasting, double maxEasting, double minNorthing, double maxNorthing) {
+        int firstX = Math.max(0, (int) Math.ceil((minEasting - CENTRE_OFFSET) / CELL_SIZE) - firstColumn);
+        int lastX = Math.min(columns - 1, (int) Math.floor((maxEasting - CENTRE_OFFSET) / CELL_SIZE) - firstColumn);
+        int firstY = Math.max(0, (int) Math.ceil((minNorthing - CENTRE_OFFSET) / CELL_SIZE) - firstRow);
+        int lastY = Math.min(rows - 1, (int) Math.floor((maxNorthing - CENTRE_OFFSET) / CELL_SIZE) - firstRow);
+        if (firstX > lastX || firstY > lastY) {
+            return null;
+        }
+        return new int[] {firstX, lastX, firstY, lastY};
+    }
+
+    /**
+     * Get the range of every cell of the index.
+     */
+    public int[] fullRange() {
+        return new int[] {0, columns - 1, 0, rows - 1};
+    }
+
+    /**
+     * Get the number of cells in a range.
+     */
+    public static long cellsIn(int[] range) {
+        return range == null ? 0 : (long) (range[1] - range[0] + 1) * (range[3] - range[2] + 1);
+    }
+
+    /**
+     * Get the dataset row at a cell of a range.
+     *
+     * @return The row, or -1 if the cell has no data
+     */
+    public int rowAt(int column, int row) {
+        return rowOfCell[row * columns + column];
+    }
+
+    /**
+     * Get the number of data points in a range of cells, from the summed-area table.
+     */
+    public int count(int[] range) {
+        return range == null ? 0 : (int) boxTotal(countTable, range);
+    }
+
+    /**
+     * Get the sum of the values in a range of cells, from the summed-area table.
+     */
+    public double sum(int[] range) {
+        return range == null ? 0 : boxTotal(sumTable, range);
+    }
+
+    /**
+     * Get the memory used by the index, in bytes.
+     */
+    public long getMemoryBytes() {
+        return (long) rowOfCell.length * Integer.BYTES + (long) countTable.length * Integer.BYTES
+            + (long) sumTable.length * Double.BYTES;
+    }
+
+    /**
+     * Total a range of cells from a summed-area table.
+     */
+    private double boxTotal(int[] table, int[] range) {
+        int stride = columns + 1;
+        int west = range[0];
+        int east = range[1] + 1;
+        int south = range[2];
+        int north = range[3] + 1;
+        return (double) table[north * stride + east] - table[north * stride + west]
+            - table[south * stride + east] + table[south * stride + west];
+    }
+
+    /**
+     * Total a range of cells from a summed-area table.
+     */
+    private double boxTotal(double[] table, int[] range) {
+        int stride = columns + 1;
+        int west = range[0];
+        int east = range[1] + 1;
+        int south = range[2];
+        int north = range[3] + 1;
+        return table[north * stride + east] - table[north * stride + west]
+            - table[south * stride + east] + table[south * stride + west];
+    }
+
+    /**
+     * Get the easting of the centre of a column of cells.
+     */
+    public double columnEasting(int column) {
+        return (double) (firstColumn + column) * CELL_SIZE + CENTRE_OFFSET;
+    }
+
+    /**
+     * Get the northing of the centre of a row of cells.
+     */
+    public double rowNorthing(int row) {
+        return (double) (firstRow + row) * CELL_SIZE + CENTRE_OFFSET;
+    }
+}
@@ -0,0 +1,32 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class GridIndexTest {
+    @Test
+    public void testSummedAreaTableMatchesBoxContents() {
+        DataSet dataset = new DataSet("NO2", "2023", "annual mean", "ugm-3");
+        dataset.addData(new String[] {"1", "500", "500", "1"});
+        dataset.addData(new String[] {"2", "1500", "500", "2"});
+        dataset.addData(new String[] {"3", "2500", "500", "3"});
+        dataset.addData(new String[] {"4", "500", "1500", "4"});
+        dataset.addData(new String[] {"5", "1500", "1500", "5"});
+        dataset.addData(new String[] {"6", "2500", "2500", "6"});
+        GridIndex index = GridIndex.build(dataset);
+
+        // Centres from 1500 to 2500 east, 500 to 1500 north: values 2, 3 and 5
+        int[] range = index.cellRange(1200, 2600, 0, 1500);
+        assertEquals(3, index.count(range));
+        assertEquals(10, index.sum(range), 1e-9);
+
+        assertEquals(6, index.count(index.fullRange()));
+        assertNull(index.cellRange(3000, 4000, 0, 4000));
+    }
+
+    @Test
+    public void testPointsOffCellCentresCannotBeIndexed() {
+        DataSet offGrid = new DataSet("NO2", "2023", "annual mean", "ugm-3");
+        offGrid.addData(new String[] {"1", "500", "500", "1"});
+        offGrid.addData(new String[] {"2", "1234", "500", "2"});
+        assertNull(GridIndex.build(offGrid));
+    }
+}
@@ -0,0 +1,146 @@
+import java.util.Arrays;
+
+/**
+ * A hash table from int keys to non-negative int values, such as from grid codes to rows
+ * of a dataset, without the boxed Integer objects a HashMap would need.
+ *
+ * Keys and values are stored side by side in a single int array, and a key that is not
+ * in its home slot is in one of the slots following it (linear probing). The table is
+ * kept at most half full, so a lookup usually reads one or two neighbouring slots.
+ * Entries cannot be removed.
+ *
+ * @author Tejas Raj
+ * @version 2.0
+ */
+public class IntIntHashIndex {
+    public static final int MISSING = -1;
+
+    private static final int MIN_CAPACITY = 16;
+
+    // Key of each slot, then its value; MISSING as a value marks an empty slot
+    private int[] slots;
+    private int mask;
+    private int size;
+
+    /**
+     * Constructor for IntIntHashIndex
+     *
+     * @param expectedSize The number of entries expected, so the table need not grow
+     */
+    public IntIntHashIndex(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2L) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Build the index from grid code to row of a dataset. Where a grid code appears
+     * more than once, the first row is kept.
+     *
+     * @param gridCodes The grid code column
+     * @param rows The number of rows
+     * @return The index
+     */
+    public static IntIntHashIndex ofRows(int[] gridCodes, int rows) {
+        IntIntHashIndex index = new IntIntHashIndex(rows);
+        for (int row = 0; row < rows; row++) {
+            index.putIfAbsent(gridCodes[row], row);
+        }
+        return index;
+    }
+
+    /**
+     * Get the value of a key.
+     *
+     * @return The value, or MISSING if the key is not in the index
+     */
+    public int get(int key) {
+        int slot = home(key);
+        while (slots[slot + 1] != MISSING) {
+            if (slots[slot] == key) {
+                return slots[slot + 1];
+            }
+            slot = (slot + 2) & mask;
+        }
+        return MISSING;
+    }
+
+    /**
+     * Add a key unless it is already in the index.
+     *
+     * @param key The key
+     * @param value The value, which must not be negative
+     * @return The value already held for the key, or MISSING if the key was added
+     */
+    public int putIfAbsent(int key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Values must not be negative");
+        }
+        int slot = home(key);
+        while (slots[slot + 1] != MISSING) {
+            if (slots[slot] == key) {
+                return slots[slot + 1];
+            }
+            slot = (slot + 2) & mask;
+        }
+        slots[slot] = key;
+        slots[slot + 1] = value;
+        size++;
+        if (size * 4L > slots.length) {
+            grow();
+        }
+        return MISSING;
+    }
+
+    /**
+     * Get the number of keys in the index.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the memory used by the table, in bytes.
+     */
+    public long getMemoryBytes() {
+        return (long) slots.length * Integer.BYTES;
+    }
+
+    /**
+     * Get the first slot to look in for a key. Grid codes are mostly consecutive, so the
+     * key is mixed (Fibonacci hashing) to spread neighbouring codes over the table.
+     */
+    private int home(int key) {
+        int hash = key * 0x9E3779B9;
+        return ((hash ^ hash >>> 16) << 1) & mask;
+    }
+
+    /**
+     * Make an empty table with room for a number of slots.
+     */
+    private void allocate(int capacity) {
+        slots = new int[capacity * 2];
+        Arrays.fill(slots, MISSING);
+        mask = slots.length - 1;
+    }
+
+    /**
+     * Double the number of slots and put every entry back in.
+     */
+    private void grow() {
+        int[] old = slots;
+        allocate(old.length);
+        for (int slot = 0; slot < old.length; slot += 2) {
+            if (old[slot + 1] != MISSING) {
+                int free = home(old[slot]);
+                while (slots[free + 1] != MISSING) {
+                    free = (free + 2) & mask;
+                }
+                slots[free] = old[slot];
+                slots[free + 1] = old[slot + 1];
+            }
+        }
+    }
+}
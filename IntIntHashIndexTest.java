@@ -0,0 +1,30 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class IntIntHashIndexTest {
+    @Test
+    public void testLookupsSurviveGrowth() {
+        IntIntHashIndex index = new IntIntHashIndex(0);
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(IntIntHashIndex.MISSING, index.putIfAbsent(i * 7 - 5000, i));
+        }
+        assertEquals(10000, index.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, index.get(i * 7 - 5000));
+        }
+        assertEquals(IntIntHashIndex.MISSING, index.get(1));
+        assertEquals(3, index.putIfAbsent(-4979, 99));
+    }
+
+    @Test
+    public void testDataSetFindsRowsByGridCode() {
+        DataSet dataset = new DataSet("NO2", "2023", "annual mean", "ugm-3");
+        dataset.addData(new String[] {"42", "500", "500", "1"});
+        dataset.addData(new String[] {"17", "1500", "500", "2"});
+        assertEquals(1, dataset.findRow(17));
+        assertEquals(-1, dataset.findRow(5));
+
+        dataset.addData(new String[] {"5", "2500", "500", "3"});
+        assertEquals(2, dataset.findRow(5));
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Builds small JSON documents by hand, one field at a time, so that results can be
+ * written out as JSON without any extra libraries.
+ *
+ * @author Tejas Raj
+ * @version 2.0
+ */
+public class Json {
+    private final StringBuilder text = new StringBuilder();
+    private boolean firstField = true;
+
+    /**
+     * Start a new JSON object.
+     */
+    public Json() {
+        text.append('{');
+    }
+
+    /**
+     * Add a text field.
+     *
+     * @param name The field name
+     * @param value The value, or null
+     * @return This object, to add more fields
+     */
+    public Json add(String name, String value) {
+        name(name);
+        text.append(value == null ? "null" : quote(value));
+        return this;
+    }
+
+    /**
+     * Add a number field. Numbers that JSON cannot hold (NaN and infinity) are written as null.
+     *
+     * @param name The field name
+     * @param value The value
+     * @return This object, to add more fields
+     */
+    public Json add(String name, double value) {
+        name(name);
+        text.append(number(value));
+        return this;
+    }
+
+    /**
+     * Add a whole number field.
+     *
+     * @param name The field name
+     * @param value The value
+     * @return This object, to add more fields
+     */
+    public Json add(String name, long value) {
+        name(name);
+        text.append(value);
+        return this;
+    }
+
+    /**
+     * Add a field whose value is already JSON, such as a nested object or an array.
+     *
+     * @param name The field name
+     * @param json The JSON value
+     * @return This object, to add more fields
+     */
+    public Json addRaw(String name, String json) {
+        name(name);
+        text.append(json);
+        return this;
+    }
+
+    /**
+     * Get the finished object.
+     */
+    @Override
+    public String toString() {
+        return text + "}";
+    }
+
+    /**
+     * Quote a string for JSON, escaping any characters that need it.
+     *
+     * @param value The string
+     * @return The quoted string
+     */
+    public static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2);
+        quoted.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Write a number for JSON. NaN and infinity are written as null.
+     *
+     * @param value The number
+     * @return The number as JSON
+     */
+    public static String number(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return "null";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * Join JSON values into an array.
+     *
+     * @param values The values, each already JSON
+     * @return The array as JSON
+     */
+    public static String array(Iterable<?> values) {
+        StringBuilder array = new StringBuilder("[");
+        for (Object value : values) {
+            if (array.length() > 1) {
+                array.append(',');
+            }
+            array.append(value);
+        }
+        return array.append(']').toString();
+    }
+
+    /**
+     * Start the next field.
+     */
+    private void name(String name) {
+        if (!firstField) {
+            text.append(',');
+        }
+        firstField = false;
+        text.append(quote(name)).append(':');
+    }
+}
@@ -0,0 +1,189 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * A thread-safe least-recently-used cache with a capacity measured in an arbitrary
+ * unit, such as entries or bytes. Each value is weighed when it is added, and the least
+ * recently used entries are evicted until the total weight fits the capacity again.
+ * The cache counts its hits, misses and evictions so that its size can be tuned.
+ *
+ * @author Tejas Raj
+ * @version 2.0
+ */
+public class LruCache<K, V> {
+    /**
+     * A cached value with the weight it had when it was added. Values may grow once
+     * cached, so the weight is never measured again; otherwise the total would drift.
+     */
+    private record Entry<V>(V value, long weight) {
+    }
+
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private final ToLongFunction<V> weigher;
+    private final long capacity;
+    private long totalWeight;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Create a cache holding at most the given number of entries.
+     *
+     * @param maxEntries The maximum number of entries
+     */
+    public LruCache(long maxEntries) {
+        this(maxEntries, value -> 1);
+    }
+
+    /**
+     * Create a cache whose entries are weighed by the given function.
+     *
+     * @param capacity The maximum total weight of all entries
+     * @param weigher The function giving the weight of a value
+     */
+    public LruCache(long capacity, ToLongFunction<V> weigher) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.weigher = weigher;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Get a value, marking it as most recently used.
+     *
+     * @param key The key to look up
+     * @return The value, or null if it is not cached
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null) {
+            hitCount++;
+            return entry.value();
+        }
+        missCount++;
+        return null;
+    }
+
+    /**
+     * Get a value, marking it as most recently used, without counting a hit or a miss.
+     * This is for checking again a key whose lookup has already been counted.
+     *
+     * @param key The key to look up
+     * @return The value, or null if it is not cached
+     */
+    public synchronized V peek(K key) {
+        Entry<V> entry = entries.get(key);
+        return entry == null ? null : entry.value();
+    }
+
+    /**
+     * Add a value, evicting least recently used entries if the cache is over capacity.
+     * A value heavier than the whole capacity is kept on its own, evicting every other
+     * entry, so that the value last asked for is never lost straight away.
+     *
+     * @param key The key
+     * @param value The value
+     */
+    public synchronized void put(K key, V value) {
+        long weight = weigher.applyAsLong(value);
+        Entry<V> old = entries.put(key, new Entry<>(value, weight));
+        if (old != null) {
+            totalWeight -= old.weight();
+        }
+        totalWeight += weight;
+
+        Iterator<Entry<V>> iterator = entries.values().iterator();
+        while (totalWeight > capacity && entries.size() > 1) {
+            Entry<V> eldest = iterator.next();
+            totalWeight -= eldest.weight();
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Remove a value from the cache.
+     *
+     * @param key The key to remove
+     * @return The removed value, or null if it was not cached
+     */
+    public synchronized V remove(K key) {
+        Entry<V> old = entries.remove(key);
+        if (old == null) {
+            return null;
+        }
+        totalWeight -= old.weight();
+        return old.value();
+    }
+
+    /**
+     * Remove all values from the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        totalWeight = 0;
+    }
+
+    /**
+     * Get a copy of the cached values, least recently used first.
+     */
+    public synchronized List<V> values() {
+        List<V> values = new ArrayList<>(entries.size());
+        for (Entry<V> entry : entries.values()) {
+            values.add(entry.value());
+        }
+        return values;
+    }
+
+    /**
+     * Get the number of cached entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the total weight of the cached entries.
+     */
+    public synchronized long getTotalWeight() {
+        return totalWeight;
+    }
+
+    /**
+     * Get the number of lookups that found a value.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Get the number of lookups that found nothing.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Get the number of entries evicted to stay within the capacity.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Get the fraction of lookups that found a value, or 0 if there have been none.
+     */
+    public synchronized double getHitRate() {
+        long lookups = hitCount + missCount;
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    /**
+     * Get the capacity of the cache.
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+}
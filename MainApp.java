@@ -42,6 +42,15 @@ public class MainApp extends Application {
         stage.setTitle("UK Air Pollution Visualization");
         stage.setScene(scene);
         stage.show();
+        
+        // Decode the other cities' maps in the background so switching city is quick
+        cityMapManager.prefetchAllCityMaps();
+        
+        // Arrange the data by location in the background so history charts open at once.
+        // When datasets are loaded on demand, this would read them all, so wait until needed.
+        if (!dataLoader.isLoadingOnDemand()) {
+            java.util.concurrent.CompletableFuture.runAsync(dataLoader::getCellHistoryStore);
+        }
     }
     
     /**
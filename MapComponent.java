@@ -4,15 +4,25 @@ import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.*;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
+import javafx.geometry.Bounds;
 import javafx.geometry.Insets;
+import javafx.scene.chart.CategoryAxis;
 import javafx.scene.chart.LineChart;
-import java.util.Arrays;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.chart.XYChart;
+import javafx.application.Platform;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Component that handles map visualization and user interactions with the map.
  */
 public class MapComponent {
+    // Memory budget for rendered overlays, in megabytes of pixel data
+    private static final long OVERLAY_CACHE_MB = Long.getLong("airpollution.overlayCacheMB", 64);
+    
     // UI components
     private Pane mapPane;
     private ScrollPane scrollPane;
@@ -27,6 +37,13 @@ public class MapComponent {
     private CityMapManager cityMapManager;
     private CoordinateConverter coordinateConverter;
     private MapVisualizer mapVisualizer;
+    private YearPlayback yearPlayback;
+    private YearScrubber yearScrubber;
+    private ColourRamp colourRamp = ColourRamp.GREEN_RED;
+    private MapVisualizer.OverlayStyle overlayStyle = MapVisualizer.OverlayStyle.CELLS;
+    private double[] contourLevels;
+    private final LruCache<RasterOverlay.FrameKey, Image> overlayCache =
+        new LruCache<>(OVERLAY_CACHE_MB * 1024 * 1024, RasterOverlay::frameBytes);
     
     /**
      * Constructor
@@ -58,6 +75,7 @@ public class MapComponent {
      */
     public void updateCity(String cityName) {
         selectedCity = cityName;
+        stopPlayback();
         
         // Get city boundary
         CityDataFilter.CityBoundary boundary = cityDataFilter.getCityBoundary(cityName);
@@ -67,7 +85,7 @@ public class MapComponent {
         }
         
         // Get map info
-        CityMapManager.CityMapInfo mapInfo = cityMapManager.getCityMapInfo(cityName);
+        CityMapCatalog.CityMapInfo mapInfo = cityMapManager.getCityMapInfo(cityName);
         if (mapInfo == null) {
             System.out.println("Error: Map info not found for " + cityName);
             return;
@@ -87,13 +105,6 @@ public class MapComponent {
             return;
         }
         
-        // Create new image view
-        ImageView mapView = new ImageView(mapImage);
-        mapView.fitWidthProperty().bind(mapPane.widthProperty());
-        mapView.fitHeightProperty().bind(mapPane.heightProperty());
-        mapView.setPreserveRatio(true); // Keeps aspect ratio intact
-
-        
         // Create or clear the map pane
         if (mapPane == null) {
             mapPane = new Pane();
@@ -109,15 +120,59 @@ public class MapComponent {
             scrollPane.setPannable(true);
             scrollPane.setFitToWidth(true);
             scrollPane.setFitToHeight(true);
+            
+            // Keep the overlay's drawn cells in step with the visible part of the map
+            scrollPane.viewportBoundsProperty().addListener((obs, oldVal, newVal) -> updateViewport());
+            scrollPane.hvalueProperty().addListener((obs, oldVal, newVal) -> updateViewport());
+            scrollPane.vvalueProperty().addListener((obs, oldVal, newVal) -> updateViewport());
+            mapPane.widthProperty().addListener((obs, oldVal, newVal) -> updateViewport());
+            mapPane.heightProperty().addListener((obs, oldVal, newVal) -> updateViewport());
         } else {
             mapPane.getChildren().clear();
         }
         
+        // Create new image view. It shows the image as soon as background loading finishes
+        ImageView mapView = new ImageView(mapImage);
+        mapView.fitWidthProperty().bind(mapPane.widthProperty());
+        mapView.fitHeightProperty().bind(mapPane.heightProperty());
+        mapView.setPreserveRatio(true); // Keeps aspect ratio intact
+        
         // Add the map image to the pane
         mapPane.getChildren().add(mapView);
         
         // Create the map visualizer
-        mapVisualizer = new MapVisualizer(mapPane, coordinateConverter, cityName);
+        CityGrid cityGrid = new CityGrid(boundary);
+        mapVisualizer = new MapVisualizer(mapPane, coordinateConverter, cityName, cityGrid, overlayCache);
+        mapVisualizer.setColourRamp(colourRamp);
+        mapVisualizer.setContourLevels(contourLevels);
+        mapVisualizer.setOverlayStyle(overlayStyle);
+        
+        // Create the year playback and year slider layers, drawn above the overlay
+        yearPlayback = new YearPlayback(cityGrid, coordinateConverter);
+        yearScrubber = new YearScrubber(cityGrid, coordinateConverter);
+        yearScrubber.setColourRamp(colourRamp);
+        mapPane.getChildren().addAll(yearScrubber.getLayer(), yearPlayback.getLayer());
+        updateViewport();
+    }
+    
+    /**
+     * Tell the map visualizer which part of the map is visible in the scroll pane
+     */
+    private void updateViewport() {
+        Bounds viewport = scrollPane.getViewportBounds();
+        if (mapVisualizer == null || viewport.getWidth() <= 0 || viewport.getHeight() <= 0) {
+            return;
+        }
+        
+        // The scroll values run from hmin/vmin to hmax/vmax over the hidden part of the content
+        double hiddenWidth = Math.max(0, mapPane.getWidth() - viewport.getWidth());
+        double hiddenHeight = Math.max(0, mapPane.getHeight() - viewport.getHeight());
+        double hRange = scrollPane.getHmax() - scrollPane.getHmin();
+        double vRange = scrollPane.getVmax() - scrollPane.getVmin();
+        double x = hRange > 0 ? hiddenWidth * (scrollPane.getHvalue() - scrollPane.getHmin()) / hRange : 0;
+        double y = vRange > 0 ? hiddenHeight * (scrollPane.getVvalue() - scrollPane.getVmin()) / vRange : 0;
+        
+        mapVisualizer.setViewport(x, y, viewport.getWidth(), viewport.getHeight());
     }
     
     /**
@@ -185,7 +240,7 @@ public class MapComponent {
                 );
                 
                 // Show popup with data and chart
-                showInfoPopupWithChart(output);
+                showInfoPopupWithChart(output, nearestPoint.gridCode());
             } else {
                 // Just show coordinates if no data point is found nearby
                 String message = String.format("No data point found near\nEasting=%.2f, Northing=%.2f", 
@@ -248,40 +303,40 @@ public class MapComponent {
     }
     
     /**
-     * Show an information popup with line chart of pollution trends
+     * Show an information popup with a line chart of the pollution history of a cell.
+     * The history is read in the background, as it may need data files to be loaded,
+     * and the chart replaces a placeholder when it is ready.
      */
-    private void showInfoPopupWithChart(String message) {
+    private void showInfoPopupWithChart(String message, int gridCode) {
         Stage popupStage = new Stage();
         popupStage.initModality(Modality.APPLICATION_MODAL);
         popupStage.setTitle("Pollution Data");
         
         Label pollutionLabel = new Label(message);
-        
-        // Create line chart for pollution trends if we have a Graph instance
-        LineChart<String, Number> lineChart = null;
-        if (dataLoader != null && selectedPollutant != null) {
-            // Create a temporary graph to generate the chart
-            Graph tempGraph = new Graph(dataLoader, cityDataFilter);
-            tempGraph.setSelectedCity(selectedCity);
-            
-            // Create chart with data for all years
-            List<String> years = Arrays.asList("2018", "2019", "2020", "2021", "2022", "2023");
-            lineChart = tempGraph.lineGraph(selectedPollutant, years);
-            lineChart.setPrefSize(400, 300);
-        }
+        Label chartLabel = new Label(dataLoader != null ? "Loading history..." : "(Chart data unavailable)");
         
         Button closeButton = new Button("Close");
         closeButton.setOnAction(e -> popupStage.close());
         
         VBox content = new VBox(10);
         content.setPadding(new Insets(10));
+        content.getChildren().addAll(pollutionLabel, chartLabel, closeButton);
         
-        // Add either the chart or a message if chart couldn't be created
-        if (lineChart != null) {
-            content.getChildren().addAll(pollutionLabel, lineChart, closeButton);
-        } else {
-            Label noChartLabel = new Label("(Chart data unavailable)");
-            content.getChildren().addAll(pollutionLabel, noChartLabel, closeButton);
+        // Create line chart of the cell's values over the years, one line per pollutant,
+        // or say the chart is unavailable if the cell has no history
+        if (dataLoader != null) {
+            DataLoader loader = dataLoader;
+            CompletableFuture.supplyAsync(() -> loader.getCellHistory(gridCode))
+                .whenComplete((history, error) -> Platform.runLater(() -> {
+                    if (error != null) {
+                        System.out.println("Could not read the history of grid cell " + gridCode + ": " + error);
+                    }
+                    if (history != null) {
+                        content.getChildren().set(1, createHistoryChart(history));
+                    } else {
+                        chartLabel.setText("(Chart data unavailable)");
+                    }
+                }));
         }
         
         javafx.scene.Scene scene = new javafx.scene.Scene(content, 450, 500);
@@ -289,6 +344,34 @@ public class MapComponent {
         popupStage.showAndWait();
     }
     
+    /**
+     * Create a line chart of a cell's history, leaving out years without data
+     */
+    private LineChart<String, Number> createHistoryChart(CellHistoryStore.History history) {
+        CategoryAxis xAxis = new CategoryAxis();
+        xAxis.setLabel("Year");
+        NumberAxis yAxis = new NumberAxis();
+        yAxis.setLabel("Pollution Level");
+        
+        LineChart<String, Number> lineChart = new LineChart<>(xAxis, yAxis);
+        lineChart.setTitle("Pollution history of grid cell " + history.gridCode());
+        for (int p = 0; p < history.pollutants().size(); p++) {
+            XYChart.Series<String, Number> series = new XYChart.Series<>();
+            series.setName(history.pollutants().get(p));
+            for (int y = 0; y < history.years().size(); y++) {
+                double value = history.value(p, y);
+                if (!Double.isNaN(value)) {
+                    series.getData().add(new XYChart.Data<>(history.years().get(y), value));
+                }
+            }
+            if (!series.getData().isEmpty()) {
+                lineChart.getData().add(series);
+            }
+        }
+        lineChart.setPrefSize(400, 300);
+        return lineChart;
+    }
+    
     /**
      * Plot a point at the given coordinates
      */
@@ -305,6 +388,150 @@ public class MapComponent {
         }
     }
     
+    /**
+     * Set the colour ramp used for pollution data
+     */
+    public void setColourRamp(ColourRamp colourRamp) {
+        this.colourRamp = colourRamp;
+        if (mapVisualizer != null) {
+            mapVisualizer.setColourRamp(colourRamp);
+            yearScrubber.setColourRamp(colourRamp);
+        }
+    }
+    
+    /**
+     * Choose how the pollution overlay is drawn
+     */
+    public void setOverlayStyle(MapVisualizer.OverlayStyle overlayStyle) {
+        this.overlayStyle = overlayStyle;
+        if (mapVisualizer != null) {
+            mapVisualizer.setOverlayStyle(overlayStyle);
+        }
+    }
+    
+    /**
+     * Set the concentration levels for contours, or null for levels from the city's thresholds
+     */
+    public void setContourLevels(double[] contourLevels) {
+        this.contourLevels = contourLevels;
+        if (mapVisualizer != null) {
+            mapVisualizer.setContourLevels(contourLevels);
+        }
+    }
+    
+    /**
+     * Animate a pollutant over several years in place of the current overlay. The frames
+     * are prepared in the background, and the overlay comes back when playback ends.
+     * 
+     * @param years The years to animate, in order
+     * @param datasetOfYear Gives the dataset of a year (null for missing years), in the background
+     * @param stepsBetweenYears The number of blended frames between years
+     * @param onFrame Told the label of each frame as it is shown
+     */
+    public void playYears(List<String> years, Function<String, DataSet> datasetOfYear, int stepsBetweenYears,
+                          Consumer<String> onFrame) {
+        if (yearPlayback == null) {
+            return;
+        }
+        // The overlay stays on screen until the first frame is ready
+        yearPlayback.setOnFrame(label -> {
+            mapVisualizer.setOverlayVisible(false);
+            onFrame.accept(label);
+        });
+        yearPlayback.setOnFinished(this::stopPlayback);
+        yearPlayback.play(years, datasetOfYear, stepsBetweenYears, colourRamp);
+    }
+    
+    /**
+     * Stop any year playback and show the overlay again
+     */
+    public void stopPlayback() {
+        if (yearPlayback != null) {
+            yearPlayback.stop();
+            mapVisualizer.setOverlayVisible(true);
+        }
+    }
+    
+    /**
+     * Prepare the year slider for a pollutant in the background, so that years can be
+     * scrubbed through without reloading the map
+     * 
+     * @param pollutant The pollutant
+     * @param years The years on the slider, in order
+     * @param datasetOfYear Gives the dataset of a year (null for missing years), in the background
+     */
+    public void prepareYearScrubbing(String pollutant, List<String> years, Function<String, DataSet> datasetOfYear) {
+        if (yearScrubber != null) {
+            yearScrubber.prepare(pollutant, years, datasetOfYear);
+        }
+    }
+    
+    /**
+     * Drop anything prepared for the year slider, so that it moves between years by
+     * reloading the map instead
+     */
+    public void discardYearScrubbing() {
+        if (yearScrubber != null) {
+            yearScrubber.reset();
+            mapVisualizer.setOverlayVisible(true);
+        }
+    }
+    
+    /**
+     * Show one year of the prepared pollutant in place of the overlay
+     * 
+     * @param year The position of the year on the slider
+     * @return True if the year was shown, false if the slider is not prepared yet
+     */
+    public boolean scrubToYear(int year) {
+        if (yearScrubber == null || !yearScrubber.showYear(year)) {
+            return false;
+        }
+        mapVisualizer.setOverlayVisible(false);
+        return true;
+    }
+    
+    /**
+     * Stop showing the year slider's image and show the overlay again
+     */
+    public void endYearScrubbing() {
+        if (yearScrubber != null) {
+            yearScrubber.hide();
+            mapVisualizer.setOverlayVisible(true);
+        }
+    }
+    
+    /**
+     * Remove plotted points from the map, leaving the pollution overlay in place
+     */
+    public void clearPlottedPoints() {
+        if (mapVisualizer != null) {
+            mapVisualizer.clearPlottedPoints();
+        }
+    }
+    
+    /**
+     * Show pollution data on the map in the given mode, updating only the cells that change
+     */
+    public void showPollutionData(List<DataPoint> dataPoints, OverlayMode mode) {
+        mapVisualizer.showPollutionData(dataPoints, mode);
+    }
+    
+    /**
+     * Show pollution data for a pollutant and year on the map in the given mode. Overlays
+     * rendered in the background are cached, so repeat views are shown straight away
+     */
+    public void showPollutionData(List<DataPoint> dataPoints, OverlayMode mode, String pollutant, String year) {
+        mapVisualizer.showPollutionData(dataPoints, mode, pollutant, year);
+    }
+    
+    /**
+     * Get the cache of overlays rendered in the background
+     */
+    public LruCache<RasterOverlay.FrameKey, Image> getOverlayCache() {
+        return overlayCache;
+    }
+    
     /**
      * Visualize pollution data on the map
      */
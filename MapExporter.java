@@ -0,0 +1,246 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Exports high resolution PNG images of the city maps with their pollution overlays,
+ * without opening a window.
+ *
+ * Each image shows a city's base map with the overlay for one pollutant and year, drawn
+ * at any scale of the on-screen map. Images are drawn and written a strip of rows at a
+ * time, so even very large images never need a buffer for the whole picture. Different
+ * city, pollutant and year combinations are exported in parallel.
+ *
+ * Run from the command line with an output folder and, optionally, a scale:
+ * java MapExporter exports 4
+ *
+ * @author Nitin Anantharaju
+ * @version 2.0
+ */
+public class MapExporter {
+    private static final int STRIP_ROWS = 256;
+    private static final int NO_MAP_BACKGROUND = 0xffffffff;
+
+    private final DataLoader dataLoader;
+    private final CityDataFilter cityDataFilter;
+    private final CityMapCatalog cityMaps;
+
+    // Base map images, read once per city and shared by all exports (empty if unreadable)
+    private final Map<String, Optional<BufferedImage>> baseMaps = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor for MapExporter
+     *
+     * @param dataLoader The loader holding the datasets to export
+     * @param cityDataFilter The city boundaries
+     * @param cityMaps The map image and size of each city
+     */
+    public MapExporter(DataLoader dataLoader, CityDataFilter cityDataFilter, CityMapCatalog cityMaps) {
+        this.dataLoader = dataLoader;
+        this.cityDataFilter = cityDataFilter;
+        this.cityMaps = cityMaps;
+    }
+
+    /**
+     * Export every combination of city, pollutant and year in parallel. Files are named
+     * after the combination, for example London_NO2_2023.png.
+     *
+     * @param cities The cities to export
+     * @param pollutants The pollutants to export
+     * @param years The years to export
+     * @param scale The number of image pixels per pixel of the on-screen map
+     * @param outputDirectory The folder to write the images to
+     * @return The number of images written
+     * @throws IOException If the output folder cannot be created
+     */
+    public int exportAll(List<String> cities, List<String> pollutants, List<String> years,
+                         double scale, Path outputDirectory) throws IOException {
+        Files.createDirectories(outputDirectory);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        List<Future<Boolean>> results = new ArrayList<>();
+        try {
+            for (String city : cities) {
+                for (String pollutant : pollutants) {
+                    for (String year : years) {
+                        Path file = outputDirectory.resolve(city + "_" + pollutant + "_" + year + ".png");
+                        results.add(executor.submit(() -> exportMap(city, pollutant, year, scale, file)));
+                    }
+                }
+            }
+
+            int written = 0;
+            for (Future<Boolean> result : results) {
+                try {
+                    if (result.get()) {
+                        written++;
+                    }
+                } catch (Exception e) {
+                    System.out.println("Error exporting map: " + e.getMessage());
+                }
+            }
+            return written;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Export the map of one city with the overlay for one pollutant and year.
+     *
+     * @param city The city
+     * @param pollutant The pollutant
+     * @param year The year
+     * @param scale The number of image pixels per pixel of the on-screen map
+     * @param file The PNG file to write
+     * @return True if the image was written, false if there is no data or map for it
+     * @throws IOException If the image cannot be written
+     */
+    public boolean exportMap(String city, String pollutant, String year, double scale, Path file) throws IOException {
+        CityDataFilter.CityBoundary boundary = cityDataFilter.getCityBoundary(city);
+        CityMapCatalog.CityMapInfo mapInfo = cityMaps.getCityMapInfo(city);
+        DataSet dataset = dataLoader.getDataset(pollutant, year);
+        if (boundary == null || mapInfo == null || dataset == null) {
+            System.out.println("No data or map to export for " + city + ", " + pollutant + ", " + year);
+            return false;
+        }
+
+        CoordinateConverter converter = new CoordinateConverter(
+            boundary.getMinEasting(), boundary.getMaxEasting(),
+            boundary.getMinNorthing(), boundary.getMaxNorthing(),
+            mapInfo.getMapWidth(), mapInfo.getMapHeight()
+        );
+        OverlayRasterizer rasterizer = new OverlayRasterizer(converter, CityVisualizationHelper.getParamsForCity(city),
+            (int) mapInfo.getMapWidth(), (int) mapInfo.getMapHeight());
+        OverlayRasterizer.Cells cells = rasterizer.prepare(cityDataFilter.filterCityArea(dataset, city),
+            OverlayMode.FULL, ColourRamp.GREEN_RED);
+
+        BufferedImage baseMap = getBaseMap(city, mapInfo);
+        int width = (int) Math.round(mapInfo.getMapWidth() * scale);
+        int height = (int) Math.round(mapInfo.getMapHeight() * scale);
+
+        int[] base = new int[width * STRIP_ROWS];
+        int[] overlay = new int[width * STRIP_ROWS];
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file));
+             StreamingPngWriter png = new StreamingPngWriter(out, width, height)) {
+            for (int top = 0; top < height; top += STRIP_ROWS) {
+                int rows = Math.min(STRIP_ROWS, height - top);
+                drawBaseMap(baseMap, width, height, top, rows, base);
+                Arrays.fill(overlay, 0, width * rows, 0);
+                rasterizer.fill(cells, scale, 0, top, overlay, width, rows);
+                composite(overlay, base, width * rows);
+                png.writeRows(base, rows);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get a city's base map, reading it on first use. The map is converted to plain RGB
+     * ints so that its rows can be copied directly. Returns null if it cannot be read.
+     */
+    private BufferedImage getBaseMap(String city, CityMapCatalog.CityMapInfo mapInfo) {
+        return baseMaps.computeIfAbsent(city, name -> {
+            try {
+                BufferedImage image = ImageIO.read(new File(mapInfo.getMapImagePath()));
+                if (image == null) {
+                    System.out.println("Unreadable map image for " + name + ", exporting on a blank background");
+                    return Optional.empty();
+                }
+                BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+                rgb.getGraphics().drawImage(image, 0, 0, null);
+                return Optional.of(rgb);
+            } catch (IOException e) {
+                System.out.println("Could not read map image for " + name + ", exporting on a blank background");
+                return Optional.empty();
+            }
+        }).orElse(null);
+    }
+
+    /**
+     * Draw a strip of the base map, stretched to the size of the exported image.
+     */
+    private static void drawBaseMap(BufferedImage baseMap, int width, int height, int top, int rows, int[] pixels) {
+        if (baseMap == null) {
+            Arrays.fill(pixels, 0, width * rows, NO_MAP_BACKGROUND);
+            return;
+        }
+
+        int[] sourceColumns = new int[width];
+        for (int x = 0; x < width; x++) {
+            sourceColumns[x] = (int) ((long) x * baseMap.getWidth() / width);
+        }
+        int[] source = ((DataBufferInt) baseMap.getRaster().getDataBuffer()).getData();
+        for (int y = 0; y < rows; y++) {
+            int sourceOffset = (int) ((long) (top + y) * baseMap.getHeight() / height) * baseMap.getWidth();
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                pixels[offset + x] = source[sourceOffset + sourceColumns[x]] | 0xff000000;
+            }
+        }
+    }
+
+    /**
+     * Blend translucent overlay pixels over opaque base pixels, in place in the base.
+     */
+    private static void composite(int[] overlay, int[] base, int count) {
+        for (int i = 0; i < count; i++) {
+            int top = overlay[i];
+            int alpha = top >>> 24;
+            if (alpha == 0) {
+                continue;
+            }
+            int bottom = base[i];
+            int r = blend((top >> 16) & 0xff, (bottom >> 16) & 0xff, alpha);
+            int g = blend((top >> 8) & 0xff, (bottom >> 8) & 0xff, alpha);
+            int b = blend(top & 0xff, bottom & 0xff, alpha);
+            base[i] = 0xff000000 | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    /**
+     * Blend one colour channel.
+     */
+    private static int blend(int top, int bottom, int alpha) {
+        return (top * alpha + bottom * (255 - alpha) + 127) / 255;
+    }
+
+    /**
+     * Export every city, pollutant and year from the command line.
+     *
+     * @param args The output folder (default "exports") and the scale (default 2)
+     */
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        Path outputDirectory = Paths.get(args.length > 0 ? args[0] : "exports");
+        double scale = args.length > 1 ? Double.parseDouble(args[1]) : 2;
+
+        List<String> years = Arrays.asList("2018", "2019", "2020", "2021", "2022", "2023");
+        List<String> pollutants = Arrays.asList("NO2", "PM10", "PM2.5");
+        DataLoader dataLoader = new DataLoader();
+        dataLoader.loadAllDatasets(years, pollutants);
+
+        CityDataFilter cityDataFilter = new CityDataFilter();
+        MapExporter exporter = new MapExporter(dataLoader, cityDataFilter, new CityMapCatalog());
+
+        long start = System.nanoTime();
+        int written = exporter.exportAll(cityDataFilter.getAvailableCities(), pollutants, years, scale, outputDirectory);
+        System.out.printf("Exported %d maps to %s in %.1f s%n", written, outputDirectory, (System.nanoTime() - start) / 1e9);
+    }
+}
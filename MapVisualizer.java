@@ -1,7 +1,7 @@
+import javafx.scene.image.Image;
 import javafx.scene.layout.Pane;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
-import javafx.scene.shape.Rectangle;
 import java.util.*;
 
 /**
@@ -12,10 +12,31 @@ import java.util.*;
  * @version 2.0
  */
 public class MapVisualizer {
+    /**
+     * The ways the pollution overlay can be drawn.
+     */
+    public enum OverlayStyle {
+        /** One node per cell, updated on the JavaFX thread */
+        CELLS,
+        /** One image of all cells, rendered on a background thread */
+        RASTER,
+        /** Contour lines and filled bands between concentration levels */
+        CONTOURS
+    }
+    
     private final Pane mapPane;
     private final CoordinateConverter converter;
     private final String currentCity;
     private final CityVisualizationHelper.VisualizationParams vizParams;
+    private final PollutionOverlay overlay;
+    private final RasterOverlay rasterOverlay;
+    private final ContourOverlay contourOverlay;
+    
+    private OverlayStyle overlayStyle = OverlayStyle.CELLS;
+    private List<DataPoint> shownData;
+    private OverlayMode shownMode;
+    private String shownPollutant;
+    private String shownYear;
     
     /**
      * Constructor for the MapVisualizer
@@ -25,18 +46,64 @@ public class MapVisualizer {
      * @param cityName The name of the current city being visualized
      */
     public MapVisualizer(Pane mapPane, CoordinateConverter converter, String cityName) {
+        this(mapPane, converter, cityName, null, null);
+    }
+    
+    /**
+     * Constructor for the MapVisualizer with the city's grid, for contours, and a cache for
+     * overlays rendered as images
+     * 
+     * @param mapPane The JavaFX pane that displays the map
+     * @param converter The coordinate converter for translating between real-world and pixel coordinates
+     * @param cityName The name of the current city being visualized
+     * @param cityGrid The grid of cells covering the city, or null if contours are not needed
+     * @param frameCache The cache of rendered overlay images, or null for no caching
+     */
+    public MapVisualizer(Pane mapPane, CoordinateConverter converter, String cityName, CityGrid cityGrid,
+                         LruCache<RasterOverlay.FrameKey, Image> frameCache) {
         this.mapPane = mapPane;
         this.converter = converter;
         this.currentCity = cityName;
         this.vizParams = CityVisualizationHelper.getParamsForCity(cityName);
+        this.overlay = new PollutionOverlay(converter, vizParams);
+        this.rasterOverlay = new RasterOverlay(new OverlayRasterizer(
+            converter, vizParams, (int) converter.getMapWidth(), (int) converter.getMapHeight()),
+            cityName, frameCache);
+        this.contourOverlay = cityGrid == null ? null : new ContourOverlay(cityGrid, converter, vizParams);
+        mapPane.getChildren().addAll(overlay.getLayer(), rasterOverlay.getLayer());
+        if (contourOverlay != null) {
+            mapPane.getChildren().add(contourOverlay.getLayer());
+        }
     }
     
     /**
      * Clear all data visualizations from the map
      */
     public void clearMapData() {
-        // Remove all rectangles and circles from the mapPane
-        mapPane.getChildren().removeIf(node -> node instanceof Rectangle || node instanceof Circle);
+        clearOverlays();
+        shownData = null;
+        shownMode = null;
+        shownPollutant = null;
+        shownYear = null;
+        clearPlottedPoints();
+    }
+    
+    /**
+     * Remove the pollution data from every overlay style
+     */
+    private void clearOverlays() {
+        overlay.clear();
+        rasterOverlay.clear();
+        if (contourOverlay != null) {
+            contourOverlay.clear();
+        }
+    }
+    
+    /**
+     * Remove the points plotted with plotPoint from the map
+     */
+    public void clearPlottedPoints() {
+        mapPane.getChildren().removeIf(node -> node instanceof Circle);
     }
     
     /**
@@ -62,44 +129,130 @@ public class MapVisualizer {
     }
     
     /**
-     * Visualize the pollution data on the map using colored rectangles
-     * with city-specific parameters from CityVisualizationHelper.
+     * Set the colour ramp used to colour pollution values.
      * 
-     * @param dataPoints The list of data points to visualize
+     * @param colourRamp The colour ramp to use
      */
-    public void visualizePollutionData(List<DataPoint> dataPoints) {
-        if (dataPoints == null || dataPoints.isEmpty()) {
+    public void setColourRamp(ColourRamp colourRamp) {
+        overlay.setColourRamp(colourRamp);
+        rasterOverlay.setColourRamp(colourRamp);
+        if (contourOverlay != null) {
+            contourOverlay.setColourRamp(colourRamp);
+        }
+    }
+    
+    /**
+     * Set the concentration levels drawn in the contour style.
+     * 
+     * @param levels The levels in increasing order, or null for levels between the city's
+     *               low and high pollution thresholds
+     */
+    public void setContourLevels(double[] levels) {
+        if (contourOverlay != null) {
+            contourOverlay.setLevels(levels);
+        }
+    }
+    
+    /**
+     * Choose how the overlay is drawn. The data on screen is redrawn in the new style.
+     * Contours fall back to cells if the visualizer has no city grid.
+     * 
+     * @param overlayStyle The style to draw the overlay in
+     */
+    public void setOverlayStyle(OverlayStyle overlayStyle) {
+        if (overlayStyle == OverlayStyle.CONTOURS && contourOverlay == null) {
+            overlayStyle = OverlayStyle.CELLS;
+        }
+        if (overlayStyle == this.overlayStyle) {
             return;
         }
+        this.overlayStyle = overlayStyle;
         
-        double min = Collections.min(dataPoints.stream().map(DataPoint::value).toList());
-        double max = Collections.max(dataPoints.stream().map(DataPoint::value).toList());
-        double difference = max - min;
-        
-        double squareWidth = vizParams.getSquareWidth();
-        double squareHeight = vizParams.getSquareHeight();
-        double scaleAdjustment = vizParams.getScaleAdjustment();
-        
-        // Normalizing values and displaying rectangles
-        for (DataPoint point : dataPoints) {
-            double normValue = (point.value() - min) / difference;
-            float r = (float) normValue;
-            float g = (float) (1.0d - normValue);
-            float b = 0.0f;
-            
-            // Apply city-specific adjustments
-            Rectangle rectangle = new Rectangle(
-                squareWidth * scaleAdjustment, 
-                squareHeight * scaleAdjustment, 
-                new Color(r, g, b, 0.275)
-            );
-            
-            rectangle.setX(converter.convertToPixelX(point.x()) - (squareWidth * scaleAdjustment) / 2);
-            rectangle.setY(converter.convertToPixelY(point.y()) - (squareHeight * scaleAdjustment) / 2);
-            mapPane.getChildren().add(rectangle);
+        List<DataPoint> data = shownData;
+        OverlayMode mode = shownMode;
+        clearOverlays();
+        if (data != null) {
+            showPollutionData(data, mode, shownPollutant, shownYear);
         }
     }
     
+    /**
+     * Show pollution data on the map in the given mode. Showing the same list again in
+     * another mode only updates the cells that change, when the overlay is drawn as cells.
+     * 
+     * @param dataPoints The list of data points to visualize
+     * @param mode Whether to show all data, or only high or low pollution areas
+     */
+    public void showPollutionData(List<DataPoint> dataPoints, OverlayMode mode) {
+        showPollutionData(dataPoints, mode, null, null);
+    }
+    
+    /**
+     * Show pollution data for a pollutant and year on the map in the given mode. Overlays
+     * drawn as images or contours for the same city, pollutant, year and mode before are
+     * taken from a cache.
+     * 
+     * @param dataPoints The list of data points to visualize
+     * @param mode Whether to show all data, or only high or low pollution areas
+     * @param pollutant The pollutant of the data, or null if unknown
+     * @param year The year of the data, or null if unknown
+     */
+    public void showPollutionData(List<DataPoint> dataPoints, OverlayMode mode,
+                                  String pollutant, String year) {
+        shownData = dataPoints;
+        shownMode = mode;
+        shownPollutant = pollutant;
+        shownYear = year;
+        switch (overlayStyle) {
+            case RASTER:
+                rasterOverlay.show(dataPoints, mode, pollutant, year);
+                break;
+            case CONTOURS:
+                contourOverlay.show(dataPoints, mode, pollutant, year);
+                break;
+            default:
+                overlay.show(dataPoints, mode);
+                break;
+        }
+    }
+    
+    /**
+     * Show or hide the pollution overlay without discarding it, for example while an
+     * animation is shown in its place.
+     * 
+     * @param visible True to show the overlay
+     */
+    public void setOverlayVisible(boolean visible) {
+        overlay.getLayer().setVisible(visible);
+        rasterOverlay.getLayer().setVisible(visible);
+        if (contourOverlay != null) {
+            contourOverlay.getLayer().setVisible(visible);
+        }
+    }
+    
+    /**
+     * Set the region of the map that is currently visible, so that only the cells
+     * around it are drawn.
+     * 
+     * @param x The left edge of the visible region, in map pixels
+     * @param y The top edge of the visible region, in map pixels
+     * @param width The width of the visible region
+     * @param height The height of the visible region
+     */
+    public void setViewport(double x, double y, double width, double height) {
+        overlay.setViewport(x, y, width, height);
+    }
+    
+    /**
+     * Visualize the pollution data on the map using colored rectangles
+     * with city-specific parameters from CityVisualizationHelper.
+     * 
+     * @param dataPoints The list of data points to visualize
+     */
+    public void visualizePollutionData(List<DataPoint> dataPoints) {
+        showPollutionData(dataPoints, OverlayMode.FULL);
+    }
+    
     /**
      * Visualize high pollution areas (areas with normalized value >= threshold)
      * with city-specific parameters from CityVisualizationHelper.
@@ -107,35 +260,7 @@ public class MapVisualizer {
      * @param dataPoints The list of data points to filter and visualize
      */
     public void visualizeHighPollutionAreas(List<DataPoint> dataPoints) {
-        if (dataPoints == null || dataPoints.isEmpty()) {
-            return;
-        }
-        
-        double min = Collections.min(dataPoints.stream().map(DataPoint::value).toList());
-        double max = Collections.max(dataPoints.stream().map(DataPoint::value).toList());
-        double difference = max - min;
-        
-        double squareWidth = vizParams.getSquareWidth();
-        double squareHeight = vizParams.getSquareHeight();
-        double scaleAdjustment = vizParams.getScaleAdjustment();
-        double threshold = vizParams.getHighPollutionThreshold();
-        
-        // Normalizing values and displaying rectangles for high pollution areas
-        for (DataPoint point : dataPoints) {
-            double normValue = (point.value() - min) / difference;
-            
-            if (normValue >= threshold) {
-                Rectangle rectangle = new Rectangle(
-                    squareWidth * scaleAdjustment, 
-                    squareHeight * scaleAdjustment, 
-                    new Color(1, 0, 0, 0.275)
-                );
-                
-                rectangle.setX(converter.convertToPixelX(point.x()) - (squareWidth * scaleAdjustment) / 2);
-                rectangle.setY(converter.convertToPixelY(point.y()) - (squareHeight * scaleAdjustment) / 2);
-                mapPane.getChildren().add(rectangle);
-            }
-        }
+        showPollutionData(dataPoints, OverlayMode.HIGH);
     }
     
     /**
@@ -145,35 +270,7 @@ public class MapVisualizer {
      * @param dataPoints The list of data points to filter and visualize
      */
     public void visualizeLowPollutionAreas(List<DataPoint> dataPoints) {
-        if (dataPoints == null || dataPoints.isEmpty()) {
-            return;
-        }
-        
-        double min = Collections.min(dataPoints.stream().map(DataPoint::value).toList());
-        double max = Collections.max(dataPoints.stream().map(DataPoint::value).toList());
-        double difference = max - min;
-        
-        double squareWidth = vizParams.getSquareWidth();
-        double squareHeight = vizParams.getSquareHeight();
-        double scaleAdjustment = vizParams.getScaleAdjustment();
-        double threshold = vizParams.getLowPollutionThreshold();
-        
-        // Normalizing values and displaying rectangles for low pollution areas
-        for (DataPoint point : dataPoints) {
-            double normValue = (point.value() - min) / difference;
-            
-            if (normValue <= threshold) {
-                Rectangle rectangle = new Rectangle(
-                    squareWidth * scaleAdjustment, 
-                    squareHeight * scaleAdjustment, 
-                    new Color(0, 1, 0, 0.275)
-                );
-                
-                rectangle.setX(converter.convertToPixelX(point.x()) - (squareWidth * scaleAdjustment) / 2);
-                rectangle.setY(converter.convertToPixelY(point.y()) - (squareHeight * scaleAdjustment) / 2);
-                mapPane.getChildren().add(rectangle);
-            }
-        }
+        showPollutionData(dataPoints, OverlayMode.LOW);
     }
     
     /**
@@ -0,0 +1,202 @@
+/**
+ * Converts between Ordnance Survey National Grid eastings and northings, as used by the
+ * pollution data, and WGS84 latitudes and longitudes, as used by web maps and GPS.
+ *
+ * The conversion follows the Ordnance Survey's published method: a Transverse Mercator
+ * projection on the Airy 1830 ellipsoid for the grid, and a seven parameter Helmert
+ * transformation between the OSGB36 and WGS84 datums. It is accurate to a few metres,
+ * which is far finer than the 1km data cells.
+ *
+ * @author Amey Tripathi
+ * @version 2.0
+ */
+public class OsGridProjection {
+    // Airy 1830 ellipsoid, used by OSGB36
+    private static final double AIRY_A = 6377563.396;
+    private static final double AIRY_B = 6356256.909;
+
+    // WGS84 ellipsoid
+    private static final double WGS84_A = 6378137.000;
+    private static final double WGS84_B = 6356752.3142;
+
+    // National Grid projection: scale factor, true origin and false origin
+    private static final double F0 = 0.9996012717;
+    private static final double LAT0 = Math.toRadians(49);
+    private static final double LON0 = Math.toRadians(-2);
+    private static final double E0 = 400000;
+    private static final double N0 = -100000;
+
+    // Helmert transformation from WGS84 to OSGB36: translations in metres, scale in ppm,
+    // rotations in arc seconds
+    private static final double TX = -446.448;
+    private static final double TY = 125.157;
+    private static final double TZ = -542.060;
+    private static final double S = 20.4894;
+    private static final double RX = -0.1502;
+    private static final double RY = -0.2470;
+    private static final double RZ = -0.8421;
+
+    private OsGridProjection() {
+    }
+
+    /**
+     * Convert a WGS84 latitude and longitude to a National Grid position.
+     *
+     * @param latitude The latitude in degrees
+     * @param longitude The longitude in degrees
+     * @return The easting and northing in metres
+     */
+    public static double[] toGrid(double latitude, double longitude) {
+        double[] osgb36 = transformDatum(Math.toRadians(latitude), Math.toRadians(longitude),
+                                         WGS84_A, WGS84_B, AIRY_A, AIRY_B, 1);
+        return project(osgb36[0], osgb36[1]);
+    }
+
+    /**
+     * Convert a National Grid position to a WGS84 latitude and longitude.
+     *
+     * @param easting The easting in metres
+     * @param northing The northing in metres
+     * @return The latitude and longitude in degrees
+     */
+    public static double[] toLatLon(double easting, double northing) {
+        double[] osgb36 = unproject(easting, northing);
+        double[] wgs84 = transformDatum(osgb36[0], osgb36[1], AIRY_A, AIRY_B, WGS84_A, WGS84_B, -1);
+        return new double[] {Math.toDegrees(wgs84[0]), Math.toDegrees(wgs84[1])};
+    }
+
+    /**
+     * Project an OSGB36 latitude and longitude (in radians) onto the National Grid.
+     */
+    private static double[] project(double lat, double lon) {
+        double n = (AIRY_A - AIRY_B) / (AIRY_A + AIRY_B);
+        double e2 = 1 - (AIRY_B * AIRY_B) / (AIRY_A * AIRY_A);
+        double sinLat = Math.sin(lat);
+        double cosLat = Math.cos(lat);
+        double tanLat = Math.tan(lat);
+        double tan2 = tanLat * tanLat;
+        double tan4 = tan2 * tan2;
+
+        double nu = AIRY_A * F0 / Math.sqrt(1 - e2 * sinLat * sinLat);
+        double rho = AIRY_A * F0 * (1 - e2) / Math.pow(1 - e2 * sinLat * sinLat, 1.5);
+        double eta2 = nu / rho - 1;
+        double m = meridionalArc(lat, n);
+
+        double cos3 = cosLat * cosLat * cosLat;
+        double cos5 = cos3 * cosLat * cosLat;
+        double i = m + N0;
+        double ii = nu / 2 * sinLat * cosLat;
+        double iii = nu / 24 * sinLat * cos3 * (5 - tan2 + 9 * eta2);
+        double iiiA = nu / 720 * sinLat * cos5 * (61 - 58 * tan2 + tan4);
+        double iv = nu * cosLat;
+        double v = nu / 6 * cos3 * (nu / rho - tan2);
+        double vi = nu / 120 * cos5 * (5 - 18 * tan2 + tan4 + 14 * eta2 - 58 * tan2 * eta2);
+
+        double dLon = lon - LON0;
+        double dLon2 = dLon * dLon;
+        double northing = i + ii * dLon2 + iii * dLon2 * dLon2 + iiiA * dLon2 * dLon2 * dLon2;
+        double easting = E0 + iv * dLon + v * dLon2 * dLon + vi * dLon2 * dLon2 * dLon;
+        return new double[] {easting, northing};
+    }
+
+    /**
+     * Find the OSGB36 latitude and longitude (in radians) of a National Grid position.
+     */
+    private static double[] unproject(double easting, double northing) {
+        double n = (AIRY_A - AIRY_B) / (AIRY_A + AIRY_B);
+        double e2 = 1 - (AIRY_B * AIRY_B) / (AIRY_A * AIRY_A);
+
+        // Find the latitude whose meridional arc matches the northing, to within 0.01mm
+        double lat = LAT0;
+        double m = 0;
+        do {
+            lat = (northing - N0 - m) / (AIRY_A * F0) + lat;
+            m = meridionalArc(lat, n);
+        } while (Math.abs(northing - N0 - m) >= 0.00001);
+
+        double sinLat = Math.sin(lat);
+        double tanLat = Math.tan(lat);
+        double secLat = 1 / Math.cos(lat);
+        double tan2 = tanLat * tanLat;
+        double tan4 = tan2 * tan2;
+        double tan6 = tan4 * tan2;
+
+        double nu = AIRY_A * F0 / Math.sqrt(1 - e2 * sinLat * sinLat);
+        double rho = AIRY_A * F0 * (1 - e2) / Math.pow(1 - e2 * sinLat * sinLat, 1.5);
+        double eta2 = nu / rho - 1;
+        double nu3 = nu * nu * nu;
+        double nu5 = nu3 * nu * nu;
+        double nu7 = nu5 * nu * nu;
+
+        double vii = tanLat / (2 * rho * nu);
+        double viii = tanLat / (24 * rho * nu3) * (5 + 3 * tan2 + eta2 - 9 * tan2 * eta2);
+        double ix = tanLat / (720 * rho * nu5) * (61 + 90 * tan2 + 45 * tan4);
+        double x = secLat / nu;
+        double xi = secLat / (6 * nu3) * (nu / rho + 2 * tan2);
+        double xii = secLat / (120 * nu5) * (5 + 28 * tan2 + 24 * tan4);
+        double xiiA = secLat / (5040 * nu7) * (61 + 662 * tan2 + 1320 * tan4 + 720 * tan6);
+
+        double dE = easting - E0;
+        double dE2 = dE * dE;
+        double latitude = lat - vii * dE2 + viii * dE2 * dE2 - ix * dE2 * dE2 * dE2;
+        double longitude = LON0 + x * dE - xi * dE2 * dE + xii * dE2 * dE2 * dE - xiiA * dE2 * dE2 * dE2 * dE;
+        return new double[] {latitude, longitude};
+    }
+
+    /**
+     * Get the distance along the central meridian from the true origin to a latitude.
+     */
+    private static double meridionalArc(double lat, double n) {
+        double n2 = n * n;
+        double n3 = n2 * n;
+        double dLat = lat - LAT0;
+        double sLat = lat + LAT0;
+        return AIRY_B * F0 * ((1 + n + 5.0 / 4 * n2 + 5.0 / 4 * n3) * dLat
+            - (3 * n + 3 * n2 + 21.0 / 8 * n3) * Math.sin(dLat) * Math.cos(sLat)
+            + (15.0 / 8 * n2 + 15.0 / 8 * n3) * Math.sin(2 * dLat) * Math.cos(2 * sLat)
+            - 35.0 / 24 * n3 * Math.sin(3 * dLat) * Math.cos(3 * sLat));
+    }
+
+    /**
+     * Move a latitude and longitude (in radians, at zero height) from one datum to the
+     * other, through earth-centred cartesian coordinates.
+     *
+     * @param direction 1 to go from WGS84 to OSGB36, -1 to go back
+     */
+    private static double[] transformDatum(double lat, double lon, double fromA, double fromB,
+                                           double toA, double toB, int direction) {
+        // To cartesian coordinates on the source ellipsoid
+        double fromE2 = 1 - (fromB * fromB) / (fromA * fromA);
+        double sinLat = Math.sin(lat);
+        double nu = fromA / Math.sqrt(1 - fromE2 * sinLat * sinLat);
+        double x1 = nu * Math.cos(lat) * Math.cos(lon);
+        double y1 = nu * Math.cos(lat) * Math.sin(lon);
+        double z1 = nu * (1 - fromE2) * sinLat;
+
+        // Helmert transformation; going back uses the same parameters negated
+        double tx = TX * direction;
+        double ty = TY * direction;
+        double tz = TZ * direction;
+        double s = S * direction / 1e6;
+        double rx = Math.toRadians(RX * direction / 3600);
+        double ry = Math.toRadians(RY * direction / 3600);
+        double rz = Math.toRadians(RZ * direction / 3600);
+        double x2 = tx + (1 + s) * x1 - rz * y1 + ry * z1;
+        double y2 = ty + rz * x1 + (1 + s) * y1 - rx * z1;
+        double z2 = tz - ry * x1 + rx * y1 + (1 + s) * z1;
+
+        // Back to latitude and longitude on the target ellipsoid
+        double toE2 = 1 - (toB * toB) / (toA * toA);
+        double p = Math.sqrt(x2 * x2 + y2 * y2);
+        double latitude = Math.atan2(z2, p * (1 - toE2));
+        double previous;
+        do {
+            previous = latitude;
+            double sin = Math.sin(latitude);
+            double toNu = toA / Math.sqrt(1 - toE2 * sin * sin);
+            latitude = Math.atan2(z2 + toE2 * toNu * sin, p);
+        } while (Math.abs(latitude - previous) > 1e-12);
+
+        return new double[] {latitude, Math.atan2(y2, x2)};
+    }
+}
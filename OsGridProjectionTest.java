@@ -0,0 +1,20 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class OsGridProjectionTest {
+    @Test
+    public void testKnownLandmark() {
+        // Big Ben, National Grid reference TQ 30266 79638
+        double[] grid = OsGridProjection.toGrid(51.500729, -0.124625);
+        assertEquals(530266, grid[0], 10);
+        assertEquals(179638, grid[1], 10);
+    }
+
+    @Test
+    public void testRoundTripReturnsToTheSamePosition() {
+        double[] latLon = OsGridProjection.toLatLon(412855, 557644);
+        double[] grid = OsGridProjection.toGrid(latLon[0], latLon[1]);
+        assertEquals(412855, grid[0], 0.01);
+        assertEquals(557644, grid[1], 0.01);
+    }
+}
@@ -0,0 +1,8 @@
+/**
+ * The ways a pollution overlay can show the data: every cell coloured on a ramp, or only
+ * the cells of high or of low pollution.
+ *
+ * @author Nitin Anantharaju
+ * @version 2.0
+ */
+public enum OverlayMode { FULL, HIGH, LOW }
@@ -0,0 +1,220 @@
+import java.util.List;
+
+/**
+ * Draws the pollution overlay of a city into a plain ARGB pixel buffer the size of the
+ * city map, with one filled square per data cell.
+ *
+ * The rasterizer uses no JavaFX classes, so it can run on a worker thread or without a
+ * display. It produces the same colours, cell sizes and high/low filtering as
+ * PollutionOverlay, and can also draw the overlay at other scales, a region at a time.
+ *
+ * @author Nitin Anantharaju
+ * @version 2.0
+ */
+public class OverlayRasterizer {
+    public static final double OVERLAY_OPACITY = 0.275;
+    private static final int HIGH_POLLUTION_ARGB = argb(OVERLAY_OPACITY, 0xff0000);
+    private static final int LOW_POLLUTION_ARGB = argb(OVERLAY_OPACITY, 0x00ff00);
+
+    // How many cells to draw between checks for cancellation
+    private static final int CANCEL_CHECK_INTERVAL = 1024;
+
+    private final CoordinateConverter converter;
+    private final CityVisualizationHelper.VisualizationParams vizParams;
+    private final int width;
+    private final int height;
+
+    /**
+     * Constructor for OverlayRasterizer
+     *
+     * @param converter The coordinate converter for the city map
+     * @param vizParams The visualization parameters for the city
+     * @param width The width of the map, in pixels
+     * @param height The height of the map, in pixels
+     */
+    public OverlayRasterizer(CoordinateConverter converter, CityVisualizationHelper.VisualizationParams vizParams,
+                             int width, int height) {
+        this.converter = converter;
+        this.vizParams = vizParams;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Get the width of the rendered frames.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height of the rendered frames.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Render the overlay for some data. If the rendering thread is interrupted, rendering
+     * stops early and null is returned.
+     *
+     * @param dataPoints The data points to draw
+     * @param mode Whether to draw all data, or only high or low pollution areas
+     * @param ramp The colour ramp for the full view
+     * @return The frame as width x height ARGB ints, row by row, or null if interrupted
+     */
+    public int[] render(List<DataPoint> dataPoints, OverlayMode mode, ColourRamp ramp) {
+        Cells cells = prepare(dataPoints, mode, ramp);
+        int[] pixels = new int[width * height];
+        if (cells == null || !fill(cells, 1, 0, 0, pixels, width, height)) {
+            return null;
+        }
+        return pixels;
+    }
+
+    /**
+     * Work out the position and colour of every cell to be drawn, so that the overlay can
+     * then be drawn in pieces or at other scales with fill().
+     *
+     * @param dataPoints The data points to draw
+     * @param mode Whether to draw all data, or only high or low pollution areas
+     * @param ramp The colour ramp for the full view
+     * @return The cells, or null if the thread was interrupted
+     */
+    public Cells prepare(List<DataPoint> dataPoints, OverlayMode mode, ColourRamp ramp) {
+        int count = dataPoints.size();
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = dataPoints.get(i).value();
+        }
+        double min = ColumnKernels.min(values, count);
+        double max = ColumnKernels.max(values, count);
+        double difference = max - min;
+
+        int[] colourIndices = new int[count];
+        ramp.quantise(values, count, min, max, colourIndices);
+        int[] colours = ramp.argbTable(OVERLAY_OPACITY);
+
+        double cellWidth = vizParams.getSquareWidth() * vizParams.getScaleAdjustment();
+        double cellHeight = vizParams.getSquareHeight() * vizParams.getScaleAdjustment();
+        Cells cells = new Cells(count, cellWidth, cellHeight);
+
+        for (int i = 0; i < count; i++) {
+            if (i % CANCEL_CHECK_INTERVAL == 0 && Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+
+            double normValue = difference > 0 ? (values[i] - min) / difference : 0;
+            int colour;
+            switch (mode) {
+                case HIGH:
+                    if (normValue < vizParams.getHighPollutionThreshold()) {
+                        continue;
+                    }
+                    colour = HIGH_POLLUTION_ARGB;
+                    break;
+                case LOW:
+                    if (normValue > vizParams.getLowPollutionThreshold()) {
+                        continue;
+                    }
+                    colour = LOW_POLLUTION_ARGB;
+                    break;
+                default:
+                    colour = colours[colourIndices[i]];
+                    break;
+            }
+
+            DataPoint point = dataPoints.get(i);
+            cells.add(converter.convertToPixelX(point.x()) - cellWidth / 2,
+                      converter.convertToPixelY(point.y()) - cellHeight / 2, colour);
+        }
+        return cells;
+    }
+
+    /**
+     * Draw prepared cells into a region of the overlay at a given scale. The region is
+     * given in scaled pixels, so a large overlay can be drawn one strip at a time.
+     *
+     * @param cells The prepared cells
+     * @param scale The number of output pixels per map pixel
+     * @param originX The left edge of the region, in scaled pixels
+     * @param originY The top edge of the region, in scaled pixels
+     * @param pixels The output ARGB pixels of the region, row by row
+     * @param regionWidth The width of the region
+     * @param regionHeight The height of the region
+     * @return True if drawn, false if the thread was interrupted
+     */
+    public boolean fill(Cells cells, double scale, int originX, int originY,
+                        int[] pixels, int regionWidth, int regionHeight) {
+        double scaledWidth = cells.cellWidth * scale;
+        double scaledHeight = cells.cellHeight * scale;
+        for (int i = 0; i < cells.count; i++) {
+            if (i % CANCEL_CHECK_INTERVAL == 0 && Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+
+            double left = cells.lefts[i] * scale - originX;
+            double top = cells.tops[i] * scale - originY;
+            int x0 = Math.max(0, (int) Math.round(left));
+            int y0 = Math.max(0, (int) Math.round(top));
+            int x1 = Math.min(regionWidth, (int) Math.round(left + scaledWidth));
+            int y1 = Math.min(regionHeight, (int) Math.round(top + scaledHeight));
+            int colour = cells.colours[i];
+            for (int y = y0; y < y1; y++) {
+                int row = y * regionWidth;
+                for (int x = x0; x < x1; x++) {
+                    pixels[row + x] = colour;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The cells of an overlay, ready to be drawn: the top left corner of each in map
+     * pixels, and its ARGB colour.
+     */
+    public static class Cells {
+        private final double cellWidth;
+        private final double cellHeight;
+        private final double[] lefts;
+        private final double[] tops;
+        private final int[] colours;
+        private int count;
+
+        /**
+         * Create an empty set of cells with room for the given number.
+         */
+        private Cells(int capacity, double cellWidth, double cellHeight) {
+            this.cellWidth = cellWidth;
+            this.cellHeight = cellHeight;
+            this.lefts = new double[capacity];
+            this.tops = new double[capacity];
+            this.colours = new int[capacity];
+        }
+
+        /**
+         * Add a cell.
+         */
+        private void add(double left, double top, int colour) {
+            lefts[count] = left;
+            tops[count] = top;
+            colours[count] = colour;
+            count++;
+        }
+
+        /**
+         * Get the number of cells to draw.
+         */
+        public int size() {
+            return count;
+        }
+    }
+
+    /**
+     * Combine an opacity and an RGB colour into a 0xAARRGGBB int.
+     */
+    private static int argb(double opacity, int rgb) {
+        return ((int) Math.round(opacity * 255) << 24) | rgb;
+    }
+}
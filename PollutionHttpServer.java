@@ -0,0 +1,322 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A small embedded HTTP server that serves the queries of a QueryService as JSON, so
+ * that other programs can use the pollution data and statistics without the JavaFX
+ * application.
+ *
+ * If a TileService is given, PNG map tiles are also served at
+ * /tiles/{pollutant}/{year}/{zoom}/{x}/{y}.png, with an optional ?ramp= colour ramp name.
+ *
+ * Responses carry an ETag. A client that sends it back in If-None-Match gets an empty
+ * 304 Not Modified response instead of the body.
+ *
+ * Each request is handled on its own virtual thread where the Java runtime supports them,
+ * and on a fixed pool of threads otherwise.
+ *
+ * Run from the command line with an optional port:
+ * java PollutionHttpServer 8080
+ * Tiles are cached on disk in the folder named by -Dairpollution.tileCacheDir (default
+ * tile-cache). The tiles of the cities listed in -Dairpollution.seedCities are drawn in
+ * the background at startup, at the zoom levels in -Dairpollution.seedZooms (default 8-12).
+ *
+ * @author Tejas Raj
+ * @version 2.0
+ */
+public class PollutionHttpServer {
+    private static final int DEFAULT_PORT = 8080;
+    private static final int CONNECTION_BACKLOG = 1024;
+    private static final int THREADS_PER_CORE = 8;
+    private static final int TILE_RETRY_SECONDS = 1;
+
+    private final QueryService queryService;
+    private final TileService tileService;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Create a server. It does not accept requests until it is started.
+     *
+     * @param queryService The service answering the queries
+     * @param port The port to listen on, or 0 for any free port
+     * @throws IOException If the port cannot be opened
+     */
+    public PollutionHttpServer(QueryService queryService, int port) throws IOException {
+        this(queryService, null, port);
+    }
+
+    /**
+     * Create a server that also serves map tiles. It does not accept requests until it is
+     * started.
+     *
+     * @param queryService The service answering the queries
+     * @param tileService The service drawing the tiles, or null to serve no tiles
+     * @param port The port to listen on, or 0 for any free port
+     * @throws IOException If the port cannot be opened
+     */
+    public PollutionHttpServer(QueryService queryService, TileService tileService, int port) throws IOException {
+        this.queryService = queryService;
+        this.tileService = tileService;
+
+        // Small responses are otherwise held back by Nagle's algorithm, adding ~40 ms to each request
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.server = HttpServer.create(new InetSocketAddress(port), CONNECTION_BACKLOG);
+        this.executor = newRequestExecutor();
+        server.createContext("/api/", this::handle);
+        if (tileService != null) {
+            server.createContext("/tiles/", this::handleTile);
+        }
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Start accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stop the server, waiting up to a second for requests in progress to finish.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        if (tileService != null) {
+            tileService.shutdown();
+        }
+    }
+
+    /**
+     * Get the port the server is listening on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Answer one request.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            try {
+                answer(exchange);
+            } catch (RuntimeException e) {
+                fail(exchange, e);
+            }
+        }
+    }
+
+    /**
+     * Answer one tile request.
+     */
+    private void handleTile(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            try {
+                answerTile(exchange);
+            } catch (IOException | RuntimeException e) {
+                fail(exchange, e);
+            }
+        }
+    }
+
+    /**
+     * Answer one request, sending its response.
+     */
+    private void answer(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+            exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+
+        QueryService.Response response = queryService.query(exchange.getRequestURI().getPath(),
+            parseQuery(exchange.getRequestURI().getRawQuery()));
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().set("ETag", response.etag());
+        // Clients may keep responses, but should check them with the ETag before use
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+
+        if (response.status() == 200 && matches(exchange.getRequestHeaders().getFirst("If-None-Match"), response.etag())) {
+            exchange.sendResponseHeaders(304, -1);
+        } else if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(response.status(), -1);
+        } else {
+            exchange.sendResponseHeaders(response.status(), response.body().length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(response.body());
+            }
+        }
+    }
+
+    /**
+     * Answer one tile request, sending its response.
+     */
+    private void answerTile(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            exchange.getResponseHeaders().set("Allow", "GET");
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+
+        // /tiles/{pollutant}/{year}/{zoom}/{x}/{y}.png
+        String[] parts = exchange.getRequestURI().getPath().split("/");
+        String ramp = parseQuery(exchange.getRequestURI().getRawQuery()).get("ramp");
+        ColourRamp colourRamp = ramp == null ? ColourRamp.GREEN_RED : TileService.findRamp(ramp);
+        if (parts.length != 7 || !parts[6].endsWith(".png") || colourRamp == null) {
+            sendError(exchange, 400, "Expected /tiles/{pollutant}/{year}/{zoom}/{x}/{y}.png?ramp={name}");
+            return;
+        }
+
+        TileService.Tile tile;
+        try {
+            tile = tileService.getTile(parts[2], parts[3], Integer.parseInt(parts[4]), Integer.parseInt(parts[5]),
+                Integer.parseInt(parts[6].substring(0, parts[6].length() - ".png".length())), colourRamp);
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+            return;
+        } catch (RejectedExecutionException e) {
+            exchange.getResponseHeaders().set("Retry-After", Integer.toString(TILE_RETRY_SECONDS));
+            sendError(exchange, 503, "Too many tiles are being drawn, try again shortly");
+            return;
+        }
+        if (tile == null) {
+            sendError(exchange, 404, "No data for " + parts[2] + " in " + parts[3]);
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "image/png");
+        exchange.getResponseHeaders().set("ETag", tile.etag());
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), tile.etag())) {
+            exchange.sendResponseHeaders(304, -1);
+        } else {
+            exchange.sendResponseHeaders(200, tile.png().length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(tile.png());
+            }
+        }
+    }
+
+    /**
+     * Log a failure to answer a request, and send a 500 error if no response has been
+     * started.
+     */
+    private static void fail(HttpExchange exchange, Exception e) throws IOException {
+        System.out.println("Error answering " + exchange.getRequestURI() + ": " + e);
+        if (exchange.getResponseCode() == -1) {
+            sendError(exchange, 500, "Internal error answering the request");
+        }
+    }
+
+    /**
+     * Send a JSON error response.
+     */
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = new Json().add("error", message).toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Check whether an If-None-Match header lists an entity tag.
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        List<String> tags = Arrays.asList(ifNoneMatch.split("\\s*,\\s*"));
+        return tags.contains("*") || tags.contains(etag) || tags.contains("W/" + etag);
+    }
+
+    /**
+     * Split a raw query string into decoded parameters.
+     */
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    /**
+     * Create the executor for requests: one virtual thread per request if the runtime has
+     * them (Java 21 and later), otherwise a fixed pool of platform threads.
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            Method virtualThreads = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtualThreads.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * THREADS_PER_CORE, runnable -> {
+                Thread thread = new Thread(runnable, "http-request");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Load all of the data and serve it.
+     *
+     * @param args The port to listen on (default 8080)
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+
+        DataLoader dataLoader = new DataLoader();
+        dataLoader.loadAllDatasets(Arrays.asList("2018", "2019", "2020", "2021", "2022", "2023"),
+                                   Arrays.asList("NO2", "PM10", "PM2.5"));
+
+        CityDataFilter cityDataFilter = new CityDataFilter();
+        TileService tileService = new TileService(dataLoader,
+            Paths.get(System.getProperty("airpollution.tileCacheDir", "tile-cache")));
+        PollutionHttpServer server = new PollutionHttpServer(new QueryService(dataLoader, cityDataFilter), tileService, port);
+        server.start();
+        System.out.println("Serving pollution data on http://localhost:" + server.getPort() + "/api/"
+            + " and tiles on http://localhost:" + server.getPort() + "/tiles/");
+
+        String seedCities = System.getProperty("airpollution.seedCities");
+        if (seedCities != null && !seedCities.isEmpty()) {
+            String[] zooms = System.getProperty("airpollution.seedZooms", "8-12").split("-");
+            int minZoom = Integer.parseInt(zooms[0]);
+            int maxZoom = Integer.parseInt(zooms[zooms.length - 1]);
+            Thread seeder = new Thread(() -> {
+                long start = System.nanoTime();
+                int drawn = tileService.seed(cityDataFilter, Arrays.asList(seedCities.split(",")),
+                                             minZoom, maxZoom, ColourRamp.GREEN_RED);
+                System.out.printf("Seeded %d tiles in %.1f s%n", drawn, (System.nanoTime() - start) / 1e9);
+            }, "tile-seeder");
+            seeder.setDaemon(true);
+            seeder.start();
+        }
+    }
+}
@@ -0,0 +1,400 @@
+import javafx.scene.Group;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import java.util.*;
+
+/**
+ * A retained layer of one rectangle per data cell, drawn over the map.
+ *
+ * The layer keeps its rectangles and the state of each cell between updates. Switching
+ * between the full, high and low pollution views only changes the cells whose state
+ * actually changes (their fill or visibility), instead of removing every rectangle and
+ * building the whole overlay again.
+ *
+ * Only the cells that intersect the visible part of the map (plus a margin) have a
+ * rectangle. Cells are grouped into square buckets on screen, so moving the viewport
+ * costs work in proportion to the visible area rather than the size of the city.
+ *
+ * @author Nitin Anantharaju
+ * @version 2.0
+ */
+public class PollutionOverlay {
+    private static final double OVERLAY_OPACITY = 0.275;
+    private static final Color HIGH_POLLUTION_COLOUR = new Color(1, 0, 0, OVERLAY_OPACITY);
+    private static final Color LOW_POLLUTION_COLOUR = new Color(0, 1, 0, OVERLAY_OPACITY);
+    private static final Map<ColourRamp, Color[]> COLOUR_TABLES = new HashMap<>();
+
+    // Extra pixels drawn around the viewport so that small scrolls need no new cells
+    private static final double VIEWPORT_MARGIN = 200;
+    
+    // Size in pixels of the buckets used to find the cells in a region
+    private static final double BUCKET_SIZE = 256;
+
+    // Cell states
+    private static final byte HIDDEN = 0;
+    private static final byte RAMP_COLOURED = 1;
+    private static final byte HIGH_COLOURED = 2;
+    private static final byte LOW_COLOURED = 3;
+
+    private final Group layer;
+    private final CoordinateConverter converter;
+    private final CityVisualizationHelper.VisualizationParams vizParams;
+
+    private ColourRamp colourRamp = ColourRamp.GREEN_RED;
+    private Color[] colourTable = colourTableFor(colourRamp);
+
+    // The retained data and per-cell state. A cell's rectangle is null while it is off screen.
+    private List<DataPoint> dataPoints;
+    private double[] normValues;
+    private int[] colourIndices;
+    private double[] cellX;
+    private double[] cellY;
+    private byte[] states;
+    private Rectangle[] cells;
+    private OverlayMode mode;
+    
+    // Cells by screen bucket, and the first liveCount entries of liveCells are the cells
+    // that currently have a rectangle. Released rectangles stay in the layer, hidden,
+    // until they are reused, so the layer's children only change when the pool is empty.
+    private int bucketColumns;
+    private int bucketRows;
+    private int[][] buckets;
+    private int[] liveCells = new int[0];
+    private int liveCount;
+    private final Deque<Rectangle> sparePool = new ArrayDeque<>();
+    
+    // The visible region, in map pixels (including the margin)
+    private double viewMinX = Double.NEGATIVE_INFINITY;
+    private double viewMinY = Double.NEGATIVE_INFINITY;
+    private double viewMaxX = Double.POSITIVE_INFINITY;
+    private double viewMaxY = Double.POSITIVE_INFINITY;
+
+    /**
+     * Constructor for PollutionOverlay
+     *
+     * @param converter The coordinate converter for the current map
+     * @param vizParams The visualization parameters for the current city
+     */
+    public PollutionOverlay(CoordinateConverter converter, CityVisualizationHelper.VisualizationParams vizParams) {
+        this.converter = converter;
+        this.vizParams = vizParams;
+        this.layer = new Group();
+
+        // The map pane handles all mouse events, so the cells don't need to be picked
+        layer.setMouseTransparent(true);
+    }
+
+    /**
+     * Get the node holding the overlay, to be added to the map pane.
+     */
+    public Group getLayer() {
+        return layer;
+    }
+
+    /**
+     * Show the given data in the given mode. If the data is the same list as is already
+     * shown, only the cells whose state changes are updated.
+     *
+     * @param dataPoints The data points to show
+     * @param mode How to show them
+     */
+    public void show(List<DataPoint> dataPoints, OverlayMode mode) {
+        if (dataPoints == null || dataPoints.isEmpty()) {
+            clear();
+            return;
+        }
+
+        if (dataPoints != this.dataPoints) {
+            rebuild(dataPoints);
+            this.mode = mode;
+            updateLiveCells();
+        } else {
+            this.mode = mode;
+            applyStates();
+        }
+    }
+    
+    /**
+     * Set the visible region of the map. Rectangles are only kept for cells that intersect
+     * this region plus a margin.
+     *
+     * @param x The left edge of the visible region, in map pixels
+     * @param y The top edge of the visible region, in map pixels
+     * @param width The width of the visible region
+     * @param height The height of the visible region
+     */
+    public void setViewport(double x, double y, double width, double height) {
+        viewMinX = x - VIEWPORT_MARGIN;
+        viewMinY = y - VIEWPORT_MARGIN;
+        viewMaxX = x + width + VIEWPORT_MARGIN;
+        viewMaxY = y + height + VIEWPORT_MARGIN;
+        
+        if (dataPoints != null) {
+            updateLiveCells();
+        }
+    }
+
+    /**
+     * Set the colour ramp, recolouring the cells that use it.
+     *
+     * @param colourRamp The colour ramp to use
+     */
+    public void setColourRamp(ColourRamp colourRamp) {
+        if (colourRamp == this.colourRamp) {
+            return;
+        }
+        this.colourRamp = colourRamp;
+        this.colourTable = colourTableFor(colourRamp);
+
+        if (dataPoints != null) {
+            quantise();
+            for (int live = 0; live < liveCount; live++) {
+                int i = liveCells[live];
+                if (states[i] == RAMP_COLOURED) {
+                    cells[i].setFill(colourTable[colourIndices[i]]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all cells from the overlay.
+     */
+    public void clear() {
+        layer.getChildren().clear();
+        liveCount = 0;
+        sparePool.clear();
+        dataPoints = null;
+        normValues = null;
+        colourIndices = null;
+        cellX = null;
+        cellY = null;
+        states = null;
+        cells = null;
+        buckets = null;
+        mode = null;
+    }
+
+    /**
+     * Work out the position and normalized value of each data point, and sort the cells
+     * into buckets. Rectangles are created later, for the visible cells only.
+     */
+    private void rebuild(List<DataPoint> newData) {
+        clear();
+        dataPoints = newData;
+
+        int count = newData.size();
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = newData.get(i).value();
+        }
+        double min = ColumnKernels.min(values, count);
+        double max = ColumnKernels.max(values, count);
+        double difference = max - min;
+
+        normValues = new double[count];
+        for (int i = 0; i < count; i++) {
+            normValues[i] = difference > 0 ? (values[i] - min) / difference : 0;
+        }
+        colourIndices = new int[count];
+        quantise();
+
+        double width = cellWidth();
+        double height = cellHeight();
+        cellX = new double[count];
+        cellY = new double[count];
+        double maxX = 0;
+        double maxY = 0;
+        for (int i = 0; i < count; i++) {
+            DataPoint point = newData.get(i);
+            cellX[i] = converter.convertToPixelX(point.x()) - width / 2;
+            cellY[i] = converter.convertToPixelY(point.y()) - height / 2;
+            maxX = Math.max(maxX, cellX[i]);
+            maxY = Math.max(maxY, cellY[i]);
+        }
+        
+        // Bucket each cell by its top left corner
+        bucketColumns = (int) (maxX / BUCKET_SIZE) + 1;
+        bucketRows = (int) (maxY / BUCKET_SIZE) + 1;
+        int[] bucketSizes = new int[bucketColumns * bucketRows];
+        int[] bucketOfCell = new int[count];
+        for (int i = 0; i < count; i++) {
+            bucketOfCell[i] = bucketOf(cellX[i], cellY[i]);
+            bucketSizes[bucketOfCell[i]]++;
+        }
+        buckets = new int[bucketSizes.length][];
+        for (int b = 0; b < buckets.length; b++) {
+            buckets[b] = new int[bucketSizes[b]];
+            bucketSizes[b] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            int b = bucketOfCell[i];
+            buckets[b][bucketSizes[b]++] = i;
+        }
+
+        states = new byte[count];
+        cells = new Rectangle[count];
+        liveCells = new int[count];
+    }
+    
+    /**
+     * Get the bucket holding a cell whose top left corner is at the given pixel.
+     */
+    private int bucketOf(double x, double y) {
+        int column = Math.max(0, Math.min(bucketColumns - 1, (int) Math.floor(x / BUCKET_SIZE)));
+        int row = Math.max(0, Math.min(bucketRows - 1, (int) Math.floor(y / BUCKET_SIZE)));
+        return row * bucketColumns + column;
+    }
+    
+    /**
+     * Get the width of a cell's rectangle in pixels.
+     */
+    private double cellWidth() {
+        return vizParams.getSquareWidth() * vizParams.getScaleAdjustment();
+    }
+    
+    /**
+     * Get the height of a cell's rectangle in pixels.
+     */
+    private double cellHeight() {
+        return vizParams.getSquareHeight() * vizParams.getScaleAdjustment();
+    }
+    
+    /**
+     * Check whether a cell intersects the visible region.
+     */
+    private boolean isInView(int i) {
+        return cellX[i] + cellWidth() >= viewMinX && cellX[i] <= viewMaxX
+            && cellY[i] + cellHeight() >= viewMinY && cellY[i] <= viewMaxY;
+    }
+    
+    /**
+     * Release the rectangles of cells that have left the visible region and create
+     * rectangles for cells that have entered it. Only those rectangles are touched.
+     */
+    private void updateLiveCells() {
+        int stillLive = 0;
+        for (int live = 0; live < liveCount; live++) {
+            int i = liveCells[live];
+            if (isInView(i)) {
+                liveCells[stillLive++] = i;
+            } else {
+                cells[i].setVisible(false);
+                sparePool.push(cells[i]);
+                cells[i] = null;
+                states[i] = HIDDEN;
+            }
+        }
+        liveCount = stillLive;
+        
+        // Only the buckets overlapping the region can hold cells that have entered it
+        int firstColumn = (int) Math.max(0, Math.floor((viewMinX - cellWidth()) / BUCKET_SIZE));
+        int lastColumn = (int) Math.min(bucketColumns - 1, Math.floor(Math.min(viewMaxX, Integer.MAX_VALUE) / BUCKET_SIZE));
+        int firstRow = (int) Math.max(0, Math.floor((viewMinY - cellHeight()) / BUCKET_SIZE));
+        int lastRow = (int) Math.min(bucketRows - 1, Math.floor(Math.min(viewMaxY, Integer.MAX_VALUE) / BUCKET_SIZE));
+        
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                for (int i : buckets[row * bucketColumns + column]) {
+                    if (cells[i] == null && isInView(i)) {
+                        cells[i] = acquireRectangle(i);
+                        liveCells[liveCount++] = i;
+                        if (mode != null) {
+                            updateCell(i, targetState(i));
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Get a hidden rectangle placed over a cell, reusing a released one if possible and
+     * otherwise adding a new one to the layer.
+     */
+    private Rectangle acquireRectangle(int i) {
+        Rectangle cell;
+        if (sparePool.isEmpty()) {
+            cell = new Rectangle(cellWidth(), cellHeight());
+            layer.getChildren().add(cell);
+        } else {
+            cell = sparePool.pop();
+        }
+        cell.setX(cellX[i]);
+        cell.setY(cellY[i]);
+        cell.setVisible(false);
+        return cell;
+    }
+    
+    /**
+     * Quantise the normalized values into indices of the current colour ramp.
+     */
+    private void quantise() {
+        colourRamp.quantise(normValues, normValues.length, 0, 1, colourIndices);
+    }
+
+    /**
+     * Bring every live cell to the state required by the current mode, touching only the
+     * cells whose state differs.
+     */
+    private void applyStates() {
+        for (int live = 0; live < liveCount; live++) {
+            int i = liveCells[live];
+            byte target = targetState(i);
+            if (target != states[i]) {
+                updateCell(i, target);
+            }
+        }
+    }
+    
+    /**
+     * Get the state a cell should have in the current mode.
+     */
+    private byte targetState(int i) {
+        switch (mode) {
+            case HIGH:
+                return normValues[i] >= vizParams.getHighPollutionThreshold() ? HIGH_COLOURED : HIDDEN;
+            case LOW:
+                return normValues[i] <= vizParams.getLowPollutionThreshold() ? LOW_COLOURED : HIDDEN;
+            default:
+                return RAMP_COLOURED;
+        }
+    }
+
+    /**
+     * Change the state of one live cell.
+     */
+    private void updateCell(int i, byte state) {
+        Rectangle cell = cells[i];
+        switch (state) {
+            case RAMP_COLOURED:
+                cell.setFill(colourTable[colourIndices[i]]);
+                break;
+            case HIGH_COLOURED:
+                cell.setFill(HIGH_POLLUTION_COLOUR);
+                break;
+            case LOW_COLOURED:
+                cell.setFill(LOW_POLLUTION_COLOUR);
+                break;
+            default:
+                break;
+        }
+        cell.setVisible(state != HIDDEN);
+        states[i] = state;
+    }
+
+    /**
+     * Get the JavaFX colours for a ramp at the overlay opacity. The colours are created
+     * once per ramp and then shared by every overlay.
+     */
+    private static Color[] colourTableFor(ColourRamp ramp) {
+        return COLOUR_TABLES.computeIfAbsent(ramp, r -> {
+            Color[] table = new Color[r.size()];
+            for (int i = 0; i < table.length; i++) {
+                int rgb = r.rgb(i);
+                table[i] = Color.rgb((rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff, OVERLAY_OPACITY);
+            }
+            return table;
+        });
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * Renders square pollution tiles covering the whole of Great Britain at several zoom
+ * levels, for the tiled map view.
+ *
+ * Zoom level 0 shows 8km per pixel, and each level halves that, down to 125m per pixel
+ * at the deepest level. Pixels are coloured from the dataset's aggregation pyramid,
+ * using the coarsest level whose cells are no larger than a pixel, so at the coarse zoom
+ * levels each pixel shows the mean of a whole block of 1km cells.
+ *
+ * The same data can also be rendered as standard web map tiles, addressed by zoom, x and
+ * y in the Web Mercator projection used by most online maps.
+ *
+ * The renderer only produces plain ARGB pixel arrays and is safe to use from several
+ * threads at once.
+ *
+ * @author Nitin Anantharaju
+ * @version 2.0
+ */
+public class PollutionTileRenderer {
+    public static final int TILE_SIZE = 256;
+    public static final int MIN_ZOOM = 0;
+    public static final int MAX_ZOOM = 6;
+
+    // Extent of the national grid covered by the tiles, in metres
+    public static final int MAX_EASTING = 700000;
+    public static final int MAX_NORTHING = 1300000;
+    private static final double ZOOM_0_METRES_PER_PIXEL = 8000;
+
+    // Web Mercator: ground distance per pixel at the equator at web zoom 0
+    private static final double WEB_ZOOM_0_METRES_PER_PIXEL = 156543.03392804097;
+
+    // Web tile pixels are projected exactly at this spacing and interpolated in between
+    private static final int PROJECTION_STEP = 16;
+
+    private final DataSet dataset;
+    private final AggregationPyramid pyramid;
+    private final double min;
+    private final double max;
+
+    /**
+     * Constructor for PollutionTileRenderer
+     *
+     * @param dataset The dataset to render
+     */
+    public PollutionTileRenderer(DataSet dataset) {
+        this.dataset = dataset;
+        this.pyramid = dataset.getAggregationPyramid();
+        this.min = dataset.getValues().min(dataset.size());
+        this.max = dataset.getValues().max(dataset.size());
+    }
+
+    /**
+     * Get the dataset this renderer draws.
+     */
+    public DataSet getDataSet() {
+        return dataset;
+    }
+
+    /**
+     * Get the ground distance covered by one pixel at a zoom level.
+     *
+     * @param zoom The zoom level
+     * @return Metres per pixel
+     */
+    public static double metresPerPixel(int zoom) {
+        return ZOOM_0_METRES_PER_PIXEL / (1 << zoom);
+    }
+
+    /**
+     * Get the number of tile columns needed to cover the grid at a zoom level.
+     */
+    public static int tileColumns(int zoom) {
+        return (int) Math.ceil(MAX_EASTING / metresPerPixel(zoom) / TILE_SIZE);
+    }
+
+    /**
+     * Get the number of tile rows needed to cover the grid at a zoom level.
+     */
+    public static int tileRows(int zoom) {
+        return (int) Math.ceil(MAX_NORTHING / metresPerPixel(zoom) / TILE_SIZE);
+    }
+
+    /**
+     * Render one tile. Row 0 is the northernmost row of tiles.
+     *
+     * @param zoom The zoom level
+     * @param tileColumn The tile column, from west to east
+     * @param tileRow The tile row, from north to south
+     * @param ramp The colour ramp to colour values with
+     * @param opacity The opacity of coloured pixels
+     * @return The tile's pixels as TILE_SIZE x TILE_SIZE ARGB ints, row by row
+     */
+    public int[] renderTile(int zoom, int tileColumn, int tileRow, ColourRamp ramp, double opacity) {
+        int[] pixels = new int[TILE_SIZE * TILE_SIZE];
+        int[] colours = ramp.argbTable(opacity);
+        double scale = max > min ? 1.0 / (max - min) : 0;
+
+        double metresPerPixel = metresPerPixel(zoom);
+        AggregationPyramid.Level level = pyramid.getCoarsestLevelFor(metresPerPixel);
+        double originEasting = (double) tileColumn * TILE_SIZE * metresPerPixel;
+        double originNorthing = MAX_NORTHING - (double) tileRow * TILE_SIZE * metresPerPixel;
+
+        // Colour each pixel from the cell under its centre
+        for (int py = 0; py < TILE_SIZE; py++) {
+            double northing = originNorthing - (py + 0.5) * metresPerPixel;
+            if (northing < 0) {
+                break;
+            }
+
+            for (int px = 0; px < TILE_SIZE; px++) {
+                double easting = originEasting + (px + 0.5) * metresPerPixel;
+                if (easting >= MAX_EASTING) {
+                    break;
+                }
+
+                int cell = level.find(easting, northing);
+                if (cell >= 0) {
+                    pixels[py * TILE_SIZE + px] = colours[ramp.indexOf((level.getMean(cell) - min) * scale)];
+                }
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Render one web map tile. Each pixel is placed on the National Grid with
+     * OsGridProjection and coloured from the cell under it, using the coarsest level of
+     * the aggregation pyramid whose cells are no larger than a pixel.
+     *
+     * Projecting every pixel exactly is slow, so positions are projected exactly every
+     * few pixels and interpolated between. Across a few pixels the error of this is far
+     * smaller than a data cell.
+     *
+     * @param zoom The web zoom level
+     * @param tileX The tile column, from west to east
+     * @param tileY The tile row, from north to south
+     * @param ramp The colour ramp to colour values with
+     * @param opacity The opacity of coloured pixels
+     * @return The tile's pixels as TILE_SIZE x TILE_SIZE ARGB ints, row by row
+     */
+    public int[] renderWebTile(int zoom, int tileX, int tileY, ColourRamp ramp, double opacity) {
+        int[] pixels = new int[TILE_SIZE * TILE_SIZE];
+        int[] colours = ramp.argbTable(opacity);
+        double scale = max > min ? 1.0 / (max - min) : 0;
+
+        // Project a lattice of points across the tile onto the grid
+        int steps = TILE_SIZE / PROJECTION_STEP;
+        double[] eastings = new double[(steps + 1) * (steps + 1)];
+        double[] northings = new double[(steps + 1) * (steps + 1)];
+        for (int j = 0; j <= steps; j++) {
+            for (int i = 0; i <= steps; i++) {
+                double[] latLon = webPixelToLatLon(zoom, (double) tileX * TILE_SIZE + i * PROJECTION_STEP,
+                                                   (double) tileY * TILE_SIZE + j * PROJECTION_STEP);
+                double[] grid = OsGridProjection.toGrid(latLon[0], latLon[1]);
+                eastings[j * (steps + 1) + i] = grid[0];
+                northings[j * (steps + 1) + i] = grid[1];
+            }
+        }
+
+        double centreLatitude = webPixelToLatLon(zoom, (tileX + 0.5) * TILE_SIZE, (tileY + 0.5) * TILE_SIZE)[0];
+        double metresPerPixel = WEB_ZOOM_0_METRES_PER_PIXEL * Math.cos(Math.toRadians(centreLatitude)) / (1 << zoom);
+        AggregationPyramid.Level level = pyramid.getCoarsestLevelFor(metresPerPixel);
+
+        // Colour each pixel from the cell under its centre
+        for (int py = 0; py < TILE_SIZE; py++) {
+            double v = (py + 0.5) / PROJECTION_STEP;
+            int j = Math.min((int) v, steps - 1);
+            double fy = v - j;
+            for (int px = 0; px < TILE_SIZE; px++) {
+                double u = (px + 0.5) / PROJECTION_STEP;
+                int i = Math.min((int) u, steps - 1);
+                double fx = u - i;
+                int corner = j * (steps + 1) + i;
+                double easting = interpolate(eastings, corner, steps + 1, fx, fy);
+                double northing = interpolate(northings, corner, steps + 1, fx, fy);
+
+                int cell = level.find(easting, northing);
+                if (cell >= 0) {
+                    pixels[py * TILE_SIZE + px] = colours[ramp.indexOf((level.getMean(cell) - min) * scale)];
+                }
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Get the range of web tiles covering part of the National Grid at a zoom level.
+     *
+     * @param zoom The web zoom level
+     * @param minEasting The west edge of the area
+     * @param maxEasting The east edge of the area
+     * @param minNorthing The south edge of the area
+     * @param maxNorthing The north edge of the area
+     * @return The first and last tile x, then the first and last tile y
+     */
+    public static int[] webTileRange(int zoom, double minEasting, double maxEasting,
+                                     double minNorthing, double maxNorthing) {
+        double minX = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        double[][] corners = {{minEasting, minNorthing}, {minEasting, maxNorthing},
+                              {maxEasting, minNorthing}, {maxEasting, maxNorthing}};
+        for (double[] corner : corners) {
+            double[] latLon = OsGridProjection.toLatLon(corner[0], corner[1]);
+            double[] pixel = latLonToWebPixel(zoom, latLon[0], latLon[1]);
+            minX = Math.min(minX, pixel[0]);
+            maxX = Math.max(maxX, pixel[0]);
+            minY = Math.min(minY, pixel[1]);
+            maxY = Math.max(maxY, pixel[1]);
+        }
+        return new int[] {(int) (minX / TILE_SIZE), (int) (maxX / TILE_SIZE),
+                          (int) (minY / TILE_SIZE), (int) (maxY / TILE_SIZE)};
+    }
+
+    /**
+     * Get the WGS84 latitude and longitude of a Web Mercator pixel position.
+     */
+    private static double[] webPixelToLatLon(int zoom, double x, double y) {
+        double worldSize = (double) TILE_SIZE * (1 << zoom);
+        double longitude = x / worldSize * 360 - 180;
+        double latitude = Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y / worldSize))));
+        return new double[] {latitude, longitude};
+    }
+
+    /**
+     * Get the Web Mercator pixel position of a WGS84 latitude and longitude.
+     */
+    private static double[] latLonToWebPixel(int zoom, double latitude, double longitude) {
+        double worldSize = (double) TILE_SIZE * (1 << zoom);
+        double sinLat = Math.sin(Math.toRadians(latitude));
+        double x = (longitude + 180) / 360 * worldSize;
+        double y = (0.5 - Math.log((1 + sinLat) / (1 - sinLat)) / (4 * Math.PI)) * worldSize;
+        return new double[] {x, y};
+    }
+
+    /**
+     * Interpolate bilinearly within one square of a lattice of values.
+     */
+    private static double interpolate(double[] lattice, int corner, int stride, double fx, double fy) {
+        double top = lattice[corner] + (lattice[corner + 1] - lattice[corner]) * fx;
+        double bottom = lattice[corner + stride] + (lattice[corner + stride + 1] - lattice[corner + stride]) * fx;
+        return top + (bottom - top) * fy;
+    }
+}
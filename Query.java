@@ -0,0 +1,342 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A description of an aggregate query over the pollution data: which datasets to read,
+ * which regions to look in, which values to include, how to group the results and what
+ * to calculate. A QueryPlanner decides how to run it.
+ *
+ * Queries are made with a builder, for example:
+ *
+ * Query query = Query.builder()
+ *     .pollutants("NO2").years("2018", "2019")
+ *     .city("London").city("Manchester")
+ *     .groupBy(Query.GroupBy.REGION, Query.GroupBy.YEAR)
+ *     .aggregates(Query.Aggregate.MEAN, Query.Aggregate.MAX)
+ *     .build();
+ *
+ * @author Tejas Raj
+ * @version 2.0
+ */
+public class Query {
+    /**
+     * The values that can be calculated.
+     */
+    public enum Aggregate {
+        COUNT, SUM, MEAN, MIN, MAX
+    }
+
+    /**
+     * The ways results can be grouped. Anything not grouped by is combined.
+     */
+    public enum GroupBy {
+        REGION, POLLUTANT, YEAR
+    }
+
+    /**
+     * An area to include data from: a named city, a box or a polygon of National Grid
+     * positions, or everywhere. Boxes include their edges, as city boundaries do.
+     */
+    public static class Region {
+        private static final Region EVERYWHERE = new Region("All", null, null, null);
+
+        private final String name;
+        private final String city;
+        private final double[] xs;
+        private final double[] ys;
+
+        private Region(String name, String city, double[] xs, double[] ys) {
+            this.name = name;
+            this.city = city;
+            this.xs = xs;
+            this.ys = ys;
+        }
+
+        /**
+         * Get the region covering all data.
+         */
+        public static Region everywhere() {
+            return EVERYWHERE;
+        }
+
+        /**
+         * Get the region of a city, as defined in CityDataFilter.
+         *
+         * @param city The name of the city
+         */
+        public static Region city(String city) {
+            return new Region(city, city, null, null);
+        }
+
+        /**
+         * Get a box region.
+         *
+         * @param name The name to show for the region in results
+         * @param minEasting The west edge
+         * @param maxEasting The east edge
+         * @param minNorthing The south edge
+         * @param maxNorthing The north edge
+         */
+        public static Region box(String name, double minEasting, double maxEasting,
+                                 double minNorthing, double maxNorthing) {
+            return new Region(name, null, new double[] {minEasting, maxEasting},
+                              new double[] {minNorthing, maxNorthing});
+        }
+
+        /**
+         * Get a polygon region.
+         *
+         * @param name The name to show for the region in results
+         * @param eastings The eastings of the corners, in order round the polygon
+         * @param northings The northings of the corners
+         */
+        public static Region polygon(String name, double[] eastings, double[] northings) {
+            if (eastings.length != northings.length || eastings.length < 3) {
+                throw new IllegalArgumentException("A polygon needs at least three corners");
+            }
+            return new Region(name, null, eastings.clone(), northings.clone());
+        }
+
+        /**
+         * Get the name of the region.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Get the city this region stands for, or null if it is not a city.
+         */
+        public String getCity() {
+            return city;
+        }
+
+        /**
+         * Check whether this region covers all data.
+         */
+        public boolean isEverywhere() {
+            return this == EVERYWHERE;
+        }
+
+        /**
+         * Check whether this region is a polygon rather than a box.
+         */
+        public boolean isPolygon() {
+            return xs != null && xs.length > 2;
+        }
+
+        /**
+         * Get the bounds of a box or polygon region: the minimum and maximum easting, then
+         * the minimum and maximum northing.
+         */
+        public double[] getBounds() {
+            double[] bounds = {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                               Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+            for (int i = 0; i < xs.length; i++) {
+                bounds[0] = Math.min(bounds[0], xs[i]);
+                bounds[1] = Math.max(bounds[1], xs[i]);
+                bounds[2] = Math.min(bounds[2], ys[i]);
+                bounds[3] = Math.max(bounds[3], ys[i]);
+            }
+            return bounds;
+        }
+
+        /**
+         * Check whether a polygon region contains a location, by counting how many of its
+         * edges a line running east from the location crosses.
+         */
+        public boolean polygonContains(double easting, double northing) {
+            boolean inside = false;
+            for (int i = 0, j = xs.length - 1; i < xs.length; j = i++) {
+                if ((ys[i] > northing) != (ys[j] > northing)
+                        && easting < (xs[j] - xs[i]) * (northing - ys[i]) / (ys[j] - ys[i]) + xs[i]) {
+                    inside = !inside;
+                }
+            }
+            return inside;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final List<String> pollutants;
+    private final List<String> years;
+    private final List<Region> regions;
+    private final double minValue;
+    private final double maxValue;
+    private final Set<GroupBy> groupBy;
+    private final Set<Aggregate> aggregates;
+
+    private Query(Builder builder) {
+        this.pollutants = Collections.unmodifiableList(new ArrayList<>(builder.pollutants));
+        this.years = Collections.unmodifiableList(new ArrayList<>(builder.years));
+        this.regions = builder.regions.isEmpty() ? List.of(Region.everywhere())
+                                                 : Collections.unmodifiableList(new ArrayList<>(builder.regions));
+        this.minValue = builder.minValue;
+        this.maxValue = builder.maxValue;
+        this.groupBy = Collections.unmodifiableSet(builder.groupBy.clone());
+        this.aggregates = Collections.unmodifiableSet(builder.aggregates.clone());
+    }
+
+    /**
+     * Start building a query.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Get the pollutants to read.
+     */
+    public List<String> getPollutants() {
+        return pollutants;
+    }
+
+    /**
+     * Get the years to read.
+     */
+    public List<String> getYears() {
+        return years;
+    }
+
+    /**
+     * Get the regions to look in.
+     */
+    public List<Region> getRegions() {
+        return regions;
+    }
+
+    /**
+     * Get the lowest value to include.
+     */
+    public double getMinValue() {
+        return minValue;
+    }
+
+    /**
+     * Get the highest value to include.
+     */
+    public double getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * Check whether the query only includes some values.
+     */
+    public boolean hasValueFilter() {
+        return minValue > Double.NEGATIVE_INFINITY || maxValue < Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Get what the results are grouped by.
+     */
+    public Set<GroupBy> getGroupBy() {
+        return groupBy;
+    }
+
+    /**
+     * Get what is calculated.
+     */
+    public Set<Aggregate> getAggregates() {
+        return aggregates;
+    }
+
+    @Override
+    public String toString() {
+        return "pollutants " + pollutants + ", years " + years + ", regions " + regions
+            + (hasValueFilter() ? ", values " + minValue + " to " + maxValue : "")
+            + ", group by " + groupBy + ", aggregates " + aggregates;
+    }
+
+    /**
+     * Builds a Query.
+     */
+    public static class Builder {
+        private final List<String> pollutants = new ArrayList<>();
+        private final List<String> years = new ArrayList<>();
+        private final List<Region> regions = new ArrayList<>();
+        private double minValue = Double.NEGATIVE_INFINITY;
+        private double maxValue = Double.POSITIVE_INFINITY;
+        private final EnumSet<GroupBy> groupBy = EnumSet.noneOf(GroupBy.class);
+        private final EnumSet<Aggregate> aggregates = EnumSet.noneOf(Aggregate.class);
+
+        private Builder() {
+        }
+
+        /**
+         * Read data for these pollutants.
+         */
+        public Builder pollutants(String... pollutants) {
+            this.pollutants.addAll(Arrays.asList(pollutants));
+            return this;
+        }
+
+        /**
+         * Read data for these years.
+         */
+        public Builder years(String... years) {
+            this.years.addAll(Arrays.asList(years));
+            return this;
+        }
+
+        /**
+         * Look in a city. If no region is given, all data is used.
+         */
+        public Builder city(String city) {
+            regions.add(Region.city(city));
+            return this;
+        }
+
+        /**
+         * Look in a region. If no region is given, all data is used.
+         */
+        public Builder region(Region region) {
+            regions.add(region);
+            return this;
+        }
+
+        /**
+         * Only include values in a range, including its ends.
+         */
+        public Builder whereValue(double minValue, double maxValue) {
+            this.minValue = minValue;
+            this.maxValue = maxValue;
+            return this;
+        }
+
+        /**
+         * Give separate results for each of these.
+         */
+        public Builder groupBy(GroupBy... groupBy) {
+            this.groupBy.addAll(Arrays.asList(groupBy));
+            return this;
+        }
+
+        /**
+         * Calculate these values.
+         */
+        public Builder aggregates(Aggregate... aggregates) {
+            this.aggregates.addAll(Arrays.asList(aggregates));
+            return this;
+        }
+
+        /**
+         * Finish the query.
+         *
+         * @throws IllegalArgumentException If no pollutant, year or aggregate was given
+         */
+        public Query build() {
+            if (pollutants.isEmpty() || years.isEmpty() || aggregates.isEmpty()) {
+                throw new IllegalArgumentException("A query needs at least one pollutant, year and aggregate");
+            }
+            return new Query(this);
+        }
+    }
+}
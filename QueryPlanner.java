@@ -0,0 +1,438 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Runs Query objects, choosing the cheapest way to answer each part of a query.
+ *
+ * A query is split into steps, one for each dataset and region it reads. For each step
+ * the planner estimates the cost of every way it could be answered, as the number of
+ * cells or rows to visit, and picks the lowest:
+ *   PYRAMID           - the dataset's aggregation pyramid, for boxes on the 1km grid
+ *   SUMMED_AREA_TABLE - a handful of lookups giving the count and sum of any box
+ *   SPATIAL_INDEX     - only the grid cells inside the region's bounds
+ *   FULL_SCAN         - every row of the dataset
+ * The pyramid and summed-area tables hold totals rather than single values, so they can
+ * only answer box queries without value filters. Neither holds minimums, and the
+ * summed-area tables hold no maximums. explain() shows the plan chosen for each step,
+ * with the costs of the alternatives.
+ *
+ * Grid indexes and their summed-area tables are built for a dataset the first time it is
+ * planned, and kept in a cache keyed by pollutant and year. An index holds rows rather
+ * than the dataset, so it never keeps a dataset in memory that the loader has evicted,
+ * and it still fits the dataset if the same file is loaded again.
+ *
+ * @author Tejas Raj
+ * @version 2.0
+ */
+public class QueryPlanner {
+    private static final long INDEX_CACHE_MB = Long.getLong("airpollution.queryIndexMB", 256);
+
+    // Summed-area table lookups needed for the count and sum of a box
+    private static final int SUMMED_AREA_TABLE_COST = 8;
+
+    // The weight given to a cached note that a dataset cannot be indexed
+    private static final long NO_INDEX_BYTES = 64;
+
+    // A box on the 25km grid covering the whole country, so the pyramid can answer for all data
+    private static final double[] COUNTRY_BOUNDS = {0, 1000000, 0, 1500000};
+
+    private static final Set<Query.Aggregate> TOTAL_AGGREGATES =
+        EnumSet.of(Query.Aggregate.COUNT, Query.Aggregate.SUM, Query.Aggregate.MEAN);
+    private static final Set<Query.Aggregate> PYRAMID_AGGREGATES =
+        EnumSet.of(Query.Aggregate.COUNT, Query.Aggregate.SUM, Query.Aggregate.MEAN, Query.Aggregate.MAX);
+
+    /**
+     * The ways a step of a query can be answered.
+     */
+    public enum Plan {
+        PYRAMID, SUMMED_AREA_TABLE, SPATIAL_INDEX, FULL_SCAN
+    }
+
+    /**
+     * One step of a query: a dataset and region, and the plan chosen for it.
+     *
+     * @param pollutant The pollutant of the dataset
+     * @param year The year of the dataset
+     * @param region The region
+     * @param plan The chosen plan, or null if there is no such dataset
+     * @param cost The estimated cost of the chosen plan
+     * @param alternatives The other plans considered, with their costs or why they could not be used
+     */
+    public record Step(String pollutant, String year, Query.Region region, Plan plan, long cost,
+                       List<String> alternatives) {
+    }
+
+    /**
+     * One row of results: the values of the grouped fields and the aggregates.
+     *
+     * @param groups The value of each field grouped by
+     * @param values The value of each aggregate, NaN where there was no data
+     */
+    public record Row(Map<Query.GroupBy, String> groups, Map<Query.Aggregate, Double> values) {
+        /**
+         * Get the value of one aggregate.
+         */
+        public double get(Query.Aggregate aggregate) {
+            return values.get(aggregate);
+        }
+    }
+
+    /**
+     * The results of a query, and the steps taken to get them.
+     *
+     * @param rows The result rows, in the order of the query's pollutants, years and regions
+     * @param steps The steps taken
+     */
+    public record Result(List<Row> rows, List<Step> steps) {
+    }
+
+    private final DataLoader dataLoader;
+    private final CityDataFilter cityDataFilter;
+    private final LruCache<String, Optional<GridIndex>> indexes;
+    private final SingleFlight<String, Optional<GridIndex>> indexBuilds = new SingleFlight<>();
+
+    /**
+     * Constructor for QueryPlanner
+     *
+     * @param dataLoader The loader holding the datasets to query
+     * @param cityDataFilter The city boundaries
+     */
+    public QueryPlanner(DataLoader dataLoader, CityDataFilter cityDataFilter) {
+        this.dataLoader = dataLoader;
+        this.cityDataFilter = cityDataFilter;
+        this.indexes = new LruCache<>(INDEX_CACHE_MB * 1024 * 1024,
+                                      index -> index.map(GridIndex::getMemoryBytes).orElse(NO_INDEX_BYTES));
+    }
+
+    /**
+     * Choose a plan for every step of a query.
+     *
+     * @param query The query
+     * @return The steps, in the order of the query's pollutants, years and regions
+     * @throws IllegalArgumentException If the query names an unknown city
+     */
+    public List<Step> plan(Query query) {
+        List<Step> steps = new ArrayList<>();
+        for (String pollutant : query.getPollutants()) {
+            for (String year : query.getYears()) {
+                for (Query.Region region : query.getRegions()) {
+                    steps.add(planStep(query, pollutant, year, region));
+                }
+            }
+        }
+        return steps;
+    }
+
+    /**
+     * Describe the plan chosen for every step of a query.
+     *
+     * @param query The query
+     * @return A description with one paragraph per step
+     */
+    public String explain(Query query) {
+        StringBuilder text = new StringBuilder("Query: ").append(query).append('\n');
+        for (Step step : plan(query)) {
+            text.append(step.pollutant()).append(' ').append(step.year()).append(", ").append(step.region()).append(": ");
+            if (step.plan() == null) {
+                text.append("no data\n");
+                continue;
+            }
+            text.append(step.plan()).append(", cost ").append(step.cost()).append('\n');
+            for (String alternative : step.alternatives()) {
+                text.append("    ").append(alternative).append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Run a query.
+     *
+     * @param query The query
+     * @return The results
+     * @throws IllegalArgumentException If the query names an unknown city
+     */
+    public Result execute(Query query) {
+        List<Step> steps = plan(query);
+        List<Totals> stepTotals = steps.parallelStream().map(step -> run(query, step)).toList();
+
+        // Combine the steps that fall in the same group
+        Map<List<String>, Map<Query.GroupBy, String>> groupKeys = new LinkedHashMap<>();
+        Map<List<String>, Totals> groupTotals = new LinkedHashMap<>();
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            Map<Query.GroupBy, String> groups = new EnumMap<>(Query.GroupBy.class);
+            if (query.getGroupBy().contains(Query.GroupBy.REGION)) {
+                groups.put(Query.GroupBy.REGION, step.region().getName());
+            }
+            if (query.getGroupBy().contains(Query.GroupBy.POLLUTANT)) {
+                groups.put(Query.GroupBy.POLLUTANT, step.pollutant());
+            }
+            if (query.getGroupBy().contains(Query.GroupBy.YEAR)) {
+                groups.put(Query.GroupBy.YEAR, step.year());
+            }
+            List<String> key = new ArrayList<>(groups.values());
+            groupKeys.putIfAbsent(key, groups);
+            groupTotals.computeIfAbsent(key, k -> new Totals()).add(stepTotals.get(i));
+        }
+
+        List<Row> rows = new ArrayList<>();
+        for (Map.Entry<List<String>, Totals> group : groupTotals.entrySet()) {
+            Map<Query.Aggregate, Double> values = new EnumMap<>(Query.Aggregate.class);
+            for (Query.Aggregate aggregate : query.getAggregates()) {
+                values.put(aggregate, group.getValue().get(aggregate));
+            }
+            rows.add(new Row(Collections.unmodifiableMap(groupKeys.get(group.getKey())),
+                             Collections.unmodifiableMap(values)));
+        }
+        return new Result(rows, steps);
+    }
+
+    /**
+     * Choose the cheapest plan for one dataset and region.
+     */
+    private Step planStep(Query query, String pollutant, String year, Query.Region region) {
+        double[] bounds = boundsOf(region);
+        DataSet dataset = dataLoader.getDataset(pollutant, year);
+        if (dataset == null) {
+            return new Step(pollutant, year, region, null, 0, List.of());
+        }
+
+        GridIndex index = getIndex(dataset);
+        String totalsProblem = region.isPolygon() ? "the region is a polygon"
+            : query.hasValueFilter() ? "the query filters values" : null;
+        Map<Plan, Long> costs = new EnumMap<>(Plan.class);
+        List<String> notes = new ArrayList<>();
+
+        // The pyramid's boxes exclude their north and east edges, which only gives the same
+        // answer as an inclusive box when no point lies on the grid lines (as is checked
+        // when the index is built)
+        double[] pyramidBounds = bounds == null ? COUNTRY_BOUNDS : bounds;
+        if (totalsProblem != null) {
+            notes.add("PYRAMID: not possible, " + totalsProblem);
+        } else if (!PYRAMID_AGGREGATES.containsAll(query.getAggregates())) {
+            notes.add("PYRAMID: not possible, it holds no minimums");
+        } else if (index == null) {
+            notes.add("PYRAMID: not possible, the points are not at 1km cell centres");
+        } else if (!onGrid(pyramidBounds)) {
+            notes.add("PYRAMID: not possible, the region edges are not on the 1km grid");
+        } else {
+            costs.put(Plan.PYRAMID, (long) dataset.getAggregationPyramid().getLevelForBox(
+                pyramidBounds[0], pyramidBounds[1], pyramidBounds[2], pyramidBounds[3]).size());
+        }
+
+        if (totalsProblem != null) {
+            notes.add("SUMMED_AREA_TABLE: not possible, " + totalsProblem);
+        } else if (!TOTAL_AGGREGATES.containsAll(query.getAggregates())) {
+            notes.add("SUMMED_AREA_TABLE: not possible, it only gives counts, sums and means");
+        } else if (index == null) {
+            notes.add("SUMMED_AREA_TABLE: not possible, the points are not at 1km cell centres");
+        } else {
+            costs.put(Plan.SUMMED_AREA_TABLE, (long) SUMMED_AREA_TABLE_COST);
+        }
+
+        if (index == null) {
+            notes.add("SPATIAL_INDEX: not possible, the points are not at 1km cell centres");
+        } else {
+            costs.put(Plan.SPATIAL_INDEX, GridIndex.cellsIn(rangeOf(index, bounds)));
+        }
+
+        costs.put(Plan.FULL_SCAN, (long) dataset.size());
+
+        Plan chosen = Plan.FULL_SCAN;
+        for (Map.Entry<Plan, Long> cost : costs.entrySet()) {
+            if (cost.getValue() < costs.get(chosen)) {
+                chosen = cost.getKey();
+            }
+        }
+        for (Map.Entry<Plan, Long> cost : costs.entrySet()) {
+            if (cost.getKey() != chosen) {
+                notes.add(cost.getKey() + ": cost " + cost.getValue());
+            }
+        }
+        return new Step(pollutant, year, region, chosen, costs.get(chosen), notes);
+    }
+
+    /**
+     * Run one step of a query with its chosen plan.
+     */
+    private Totals run(Query query, Step step) {
+        Totals totals = new Totals();
+        if (step.plan() == null) {
+            return totals;
+        }
+        DataSet dataset = dataLoader.getDataset(step.pollutant(), step.year());
+        double[] bounds = boundsOf(step.region());
+        ValueColumn values = dataset.getValues();
+
+        switch (step.plan()) {
+            case PYRAMID: {
+                double[] box = bounds == null ? COUNTRY_BOUNDS : bounds;
+                AggregationPyramid.Summary summary = dataset.getAggregationPyramid().summariseBox(box[0], box[1], box[2], box[3]);
+                totals.count = summary.count();
+                totals.sum = summary.mean() * summary.count();
+                totals.max = summary.count() > 0 ? summary.max() : Double.NEGATIVE_INFINITY;
+                break;
+            }
+            case SUMMED_AREA_TABLE: {
+                GridIndex index = getIndex(dataset);
+                int[] range = rangeOf(index, bounds);
+                totals.count = index.count(range);
+                totals.sum = index.sum(range);
+                break;
+            }
+            case SPATIAL_INDEX: {
+                GridIndex index = getIndex(dataset);
+                int[] range = rangeOf(index, bounds);
+                if (range == null) {
+                    break;
+                }
+                for (int row = range[2]; row <= range[3]; row++) {
+                    for (int column = range[0]; column <= range[1]; column++) {
+                        int dataRow = index.rowAt(column, row);
+                        if (dataRow >= 0 && (!step.region().isPolygon()
+                                || step.region().polygonContains(index.columnEasting(column), index.rowNorthing(row)))) {
+                            totals.add(values.get(dataRow), query);
+                        }
+                    }
+                }
+                break;
+            }
+            default: {
+                int[] xs = dataset.getXColumn();
+                int[] ys = dataset.getYColumn();
+                for (int row = 0; row < dataset.size(); row++) {
+                    if (!dataset.hasValue(row)) {
+                        continue;
+                    }
+                    if (bounds != null && (xs[row] < bounds[0] || xs[row] > bounds[1]
+                            || ys[row] < bounds[2] || ys[row] > bounds[3])) {
+                        continue;
+                    }
+                    if (step.region().isPolygon() && !step.region().polygonContains(xs[row], ys[row])) {
+                        continue;
+                    }
+                    totals.add(values.get(row), query);
+                }
+                break;
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Get a region's bounds, or null if it covers all data.
+     */
+    private double[] boundsOf(Query.Region region) {
+        if (region.isEverywhere()) {
+            return null;
+        }
+        if (region.getCity() != null) {
+            CityDataFilter.CityBoundary boundary = cityDataFilter.getCityBoundary(region.getCity());
+            if (boundary == null) {
+                throw new IllegalArgumentException("Unknown city " + region.getCity());
+            }
+            return new double[] {boundary.getMinEasting(), boundary.getMaxEasting(),
+                                 boundary.getMinNorthing(), boundary.getMaxNorthing()};
+        }
+        return region.getBounds();
+    }
+
+    /**
+     * Get the index cells within some bounds, or all cells if there are no bounds.
+     */
+    private static int[] rangeOf(GridIndex index, double[] bounds) {
+        return bounds == null ? index.fullRange() : index.cellRange(bounds[0], bounds[1], bounds[2], bounds[3]);
+    }
+
+    /**
+     * Check whether all edges of a box lie on the 1km grid.
+     */
+    private static boolean onGrid(double[] bounds) {
+        for (double edge : bounds) {
+            if (edge % CityGrid.CELL_SIZE != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the grid index of a dataset, building it on first use.
+     *
+     * @return The index, or null if the dataset cannot be indexed
+     */
+    private GridIndex getIndex(DataSet dataset) {
+        String key = dataset.getPollutant() + "-" + dataset.getYear();
+        Optional<GridIndex> index = indexes.get(key);
+        if (index == null) {
+            index = indexBuilds.execute(key, () -> {
+                Optional<GridIndex> built = indexes.peek(key);
+                if (built == null) {
+                    built = Optional.ofNullable(GridIndex.build(dataset));
+                    indexes.put(key, built);
+                }
+                return built;
+            });
+        }
+        return index.orElse(null);
+    }
+
+    /**
+     * Running totals of the values included by a query.
+     */
+    private static class Totals {
+        private long count;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+
+        /**
+         * Add one value, if it passes the query's value filter.
+         */
+        private void add(double value, Query query) {
+            if (value < query.getMinValue() || value > query.getMaxValue()) {
+                return;
+            }
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        /**
+         * Add the totals of another step.
+         */
+        private void add(Totals other) {
+            count += other.count;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+
+        /**
+         * Get the value of an aggregate.
+         */
+        private double get(Query.Aggregate aggregate) {
+            switch (aggregate) {
+                case COUNT:
+                    return count;
+                case SUM:
+                    return sum;
+                case MEAN:
+                    return count > 0 ? sum / count : Double.NaN;
+                case MIN:
+                    return count > 0 ? min : Double.NaN;
+                default:
+                    return count > 0 ? max : Double.NaN;
+            }
+        }
+    }
+}
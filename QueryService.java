@@ -0,0 +1,412 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Answers queries about the pollution data with JSON documents, for use by the HTTP
+ * server or by any other code that needs the data without the user interface.
+ *
+ * The queries available are:
+ *   /api/cities                                     - the cities and their boundaries
+ *   /api/datasets                                   - the datasets in memory
+ *   /api/points?pollutant=&year=[&city=]            - the data points of a dataset
+ *   /api/statistics?city=&pollutant=&year=          - the statistics of a city
+ *   /api/compare?city=&pollutant=&year1=&year2=     - a comparison of two years
+ *   /api/query?pollutants=&years=&aggregates=[&cities=][&box=][&minValue=][&maxValue=]
+ *             [&groupBy=][&explain=true]          - any Query, run by a QueryPlanner
+ *   /api/cache                                      - the result and dataset cache statistics
+ *
+ * The data does not change once loaded, so every other successful response is kept in
+ * an LRU cache; the dataset list and cache statistics change, and are never cached. All
+ * responses carry an ETag computed from their content, letting clients revalidate them
+ * cheaply. Identical queries arriving together share a single computation, so the work
+ * done grows with the number of different queries rather than the number of requests.
+ *
+ * @author Tejas Raj
+ * @version 2.0
+ */
+public class QueryService {
+    private static final long RESULT_CACHE_MB = Long.getLong("airpollution.resultCacheMB", 32);
+
+    /**
+     * A response to a query: the HTTP status, the JSON body and its entity tag.
+     *
+     * @param status The HTTP status code
+     * @param body The body, as UTF-8 JSON
+     * @param etag The quoted entity tag of the body
+     */
+    public record Response(int status, byte[] body, String etag) {
+        /**
+         * Get the body as text.
+         */
+        public String bodyText() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    private final DataLoader dataLoader;
+    private final CityDataFilter cityDataFilter;
+    private final StatisticsCalculator statisticsCalculator;
+    private final CompareStatistics compareStatistics;
+    private final QueryPlanner queryPlanner;
+
+    // Successful responses by normalised query, weighed by the size of their bodies
+    private final LruCache<String, Response> resultCache;
+
+    // Queries being answered, shared by identical queries arriving meanwhile
+    private final SingleFlight<String, Response> inFlight = new SingleFlight<>();
+
+    /**
+     * Constructor for QueryService
+     *
+     * @param dataLoader The loader holding the datasets to query
+     * @param cityDataFilter The city boundaries
+     */
+    public QueryService(DataLoader dataLoader, CityDataFilter cityDataFilter) {
+        this.dataLoader = dataLoader;
+        this.cityDataFilter = cityDataFilter;
+        this.statisticsCalculator = new StatisticsCalculator();
+        this.compareStatistics = new CompareStatistics(dataLoader, cityDataFilter);
+        this.queryPlanner = new QueryPlanner(dataLoader, cityDataFilter);
+        this.resultCache = new LruCache<>(RESULT_CACHE_MB * 1024 * 1024, response -> response.body().length);
+    }
+
+    /**
+     * Answer a query.
+     *
+     * @param path The path of the query, for example /api/statistics
+     * @param parameters The query parameters
+     * @return The response
+     */
+    public Response query(String path, Map<String, String> parameters) {
+        if (path.equals("/api/cache")) {
+            // Never cached, as it changes with every query
+            return response(200, cacheStatistics());
+        }
+        if (path.equals("/api/datasets")) {
+            // Never cached, as datasets loaded on demand come and go
+            return response(200, datasets());
+        }
+
+        String key = path + new TreeMap<>(parameters);
+        Response cached = resultCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        return inFlight.execute(key, () -> {
+            // Another query may have finished and cached the result since the check above
+            Response result = resultCache.peek(key);
+            if (result == null) {
+                result = answer(path, parameters);
+                if (result.status() == 200) {
+                    resultCache.put(key, result);
+                }
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Get the result cache, for its statistics.
+     */
+    public LruCache<String, Response> getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Work out the answer to a query that is not in the cache.
+     */
+    private Response answer(String path, Map<String, String> parameters) {
+        try {
+            switch (path) {
+                case "/api/cities":
+                    return response(200, cities());
+                case "/api/points":
+                    return points(required(parameters, "pollutant"), required(parameters, "year"), parameters.get("city"));
+                case "/api/statistics":
+                    return statistics(required(parameters, "city"), required(parameters, "pollutant"),
+                                      required(parameters, "year"));
+                case "/api/compare":
+                    return compare(required(parameters, "city"), required(parameters, "pollutant"),
+                                   required(parameters, "year1"), required(parameters, "year2"));
+                case "/api/query":
+                    return query(parameters);
+                default:
+                    return error(404, "Unknown query " + path);
+            }
+        } catch (IllegalArgumentException e) {
+            return error(400, e.getMessage());
+        }
+    }
+
+    /**
+     * List the cities and their boundaries.
+     */
+    private String cities() {
+        List<String> cities = new ArrayList<>();
+        for (String city : cityDataFilter.getAvailableCities()) {
+            CityDataFilter.CityBoundary boundary = cityDataFilter.getCityBoundary(city);
+            cities.add(new Json()
+                .add("name", city)
+                .add("minEasting", boundary.getMinEasting())
+                .add("maxEasting", boundary.getMaxEasting())
+                .add("minNorthing", boundary.getMinNorthing())
+                .add("maxNorthing", boundary.getMaxNorthing())
+                .toString());
+        }
+        return Json.array(cities);
+    }
+
+    /**
+     * List the loaded datasets.
+     */
+    private String datasets() {
+        List<String> datasets = new ArrayList<>();
+        for (DataSet dataset : dataLoader.getLoadedDatasets()) {
+            datasets.add(new Json()
+                .add("pollutant", dataset.getPollutant())
+                .add("year", dataset.getYear())
+                .add("metric", dataset.getMetric())
+                .add("units", dataset.getUnits())
+                .add("size", dataset.getValueCount())
+                .toString());
+        }
+        return Json.array(datasets);
+    }
+
+    /**
+     * List the data points of a dataset, optionally only those in one city.
+     */
+    private Response points(String pollutant, String year, String city) {
+        DataSet dataset = dataLoader.getDataset(pollutant, year);
+        if (dataset == null) {
+            return error(404, "No data for " + pollutant + " in " + year);
+        }
+        if (city != null && cityDataFilter.getCityBoundary(city) == null) {
+            return error(404, "Unknown city " + city);
+        }
+
+        List<DataPoint> dataPoints = city == null ? dataset.getData() : cityDataFilter.filterCityArea(dataset, city);
+        StringBuilder points = new StringBuilder(dataPoints.size() * 48).append('[');
+        for (int i = 0; i < dataPoints.size(); i++) {
+            DataPoint point = dataPoints.get(i);
+            if (i > 0) {
+                points.append(',');
+            }
+            points.append("{\"gridCode\":").append(point.gridCode())
+                  .append(",\"x\":").append(point.x())
+                  .append(",\"y\":").append(point.y())
+                  .append(",\"value\":").append(Json.number(point.value()))
+                  .append('}');
+        }
+        points.append(']');
+
+        return response(200, new Json()
+            .add("pollutant", pollutant)
+            .add("year", year)
+            .add("units", dataset.getUnits())
+            .add("city", city)
+            .addRaw("points", points.toString())
+            .toString());
+    }
+
+    /**
+     * Calculate the statistics of a city for one pollutant and year.
+     */
+    private Response statistics(String city, String pollutant, String year) {
+        DataSet dataset = dataLoader.getDataset(pollutant, year);
+        if (dataset == null) {
+            return error(404, "No data for " + pollutant + " in " + year);
+        }
+        StatisticsCalculator.Summary summary = statisticsCalculator.summarise(cityDataFilter.filterCityArea(dataset, city));
+        if (summary == null) {
+            return error(404, "No data for " + city);
+        }
+
+        return response(200, new Json()
+            .add("city", city)
+            .add("pollutant", pollutant)
+            .add("year", year)
+            .add("units", dataset.getUnits())
+            .add("count", summary.count())
+            .add("average", summary.average())
+            .addRaw("min", pointJson(summary.minPoint()))
+            .addRaw("max", pointJson(summary.maxPoint()))
+            .toString());
+    }
+
+    /**
+     * Compare a city's pollution between two years.
+     */
+    private Response compare(String city, String pollutant, String year1, String year2) {
+        CompareStatistics.Comparison comparison = compareStatistics.compare(pollutant, year1, year2, city);
+        if (comparison == null) {
+            return error(404, "No data for " + city + " in one or both years");
+        }
+
+        return response(200, new Json()
+            .add("city", city)
+            .add("pollutant", pollutant)
+            .add("year1", year1)
+            .add("year2", year2)
+            .add("average1", comparison.average1())
+            .add("average2", comparison.average2())
+            .add("averageChangePercent", comparison.averageChange())
+            .addRaw("max1", pointJson(comparison.maxPoint1()))
+            .addRaw("max2", pointJson(comparison.maxPoint2()))
+            .add("maxChangePercent", comparison.maxChange())
+            .toString());
+    }
+
+    /**
+     * Run a general query. Lists are given comma separated; a box is given as
+     * minEasting,maxEasting,minNorthing,maxNorthing.
+     */
+    private Response query(Map<String, String> parameters) {
+        Query.Builder builder = Query.builder()
+            .pollutants(required(parameters, "pollutants").split(","))
+            .years(required(parameters, "years").split(","));
+        for (String aggregate : required(parameters, "aggregates").split(",")) {
+            builder.aggregates(Query.Aggregate.valueOf(aggregate.trim().toUpperCase()));
+        }
+        if (parameters.containsKey("groupBy")) {
+            for (String groupBy : parameters.get("groupBy").split(",")) {
+                builder.groupBy(Query.GroupBy.valueOf(groupBy.trim().toUpperCase()));
+            }
+        }
+        if (parameters.containsKey("cities")) {
+            for (String city : parameters.get("cities").split(",")) {
+                builder.city(city);
+            }
+        }
+        if (parameters.containsKey("box")) {
+            String[] edges = parameters.get("box").split(",");
+            if (edges.length != 4) {
+                throw new IllegalArgumentException("A box needs four edges");
+            }
+            builder.region(Query.Region.box("box", Double.parseDouble(edges[0]), Double.parseDouble(edges[1]),
+                                            Double.parseDouble(edges[2]), Double.parseDouble(edges[3])));
+        }
+        if (parameters.containsKey("minValue") || parameters.containsKey("maxValue")) {
+            builder.whereValue(Double.parseDouble(parameters.getOrDefault("minValue", "-Infinity")),
+                               Double.parseDouble(parameters.getOrDefault("maxValue", "Infinity")));
+        }
+        Query query = builder.build();
+
+        QueryPlanner.Result result = queryPlanner.execute(query);
+        List<String> rows = new ArrayList<>();
+        for (QueryPlanner.Row row : result.rows()) {
+            Json json = new Json();
+            row.groups().forEach((groupBy, value) -> json.add(groupBy.name().toLowerCase(), value));
+            row.values().forEach((aggregate, value) -> json.add(aggregate.name().toLowerCase(), value));
+            rows.add(json.toString());
+        }
+        Json response = new Json().addRaw("rows", Json.array(rows));
+        if (Boolean.parseBoolean(parameters.get("explain"))) {
+            List<String> steps = new ArrayList<>();
+            for (QueryPlanner.Step step : result.steps()) {
+                steps.add(new Json()
+                    .add("pollutant", step.pollutant())
+                    .add("year", step.year())
+                    .add("region", step.region().getName())
+                    .add("plan", step.plan() == null ? null : step.plan().name())
+                    .add("cost", step.cost())
+                    .addRaw("alternatives", Json.array(step.alternatives().stream().map(Json::quote).toList()))
+                    .toString());
+            }
+            response.addRaw("plan", Json.array(steps));
+        }
+        return response(200, response.toString());
+    }
+
+    /**
+     * Describe the result cache, and the dataset cache when datasets are loaded on demand.
+     */
+    private String cacheStatistics() {
+        Json statistics = new Json()
+            .add("entries", resultCache.size())
+            .add("bytes", resultCache.getTotalWeight())
+            .add("capacityBytes", resultCache.getCapacity())
+            .add("hits", resultCache.getHitCount())
+            .add("misses", resultCache.getMissCount())
+            .add("evictions", resultCache.getEvictionCount())
+            .add("hitRate", resultCache.getHitRate())
+            .add("computations", inFlight.getComputationCount())
+            .add("sharedComputations", inFlight.getSharedCount());
+        LruCache<String, DataSet> datasets = dataLoader.getDatasetCache();
+        if (datasets != null) {
+            statistics.addRaw("datasets", new Json()
+                .add("inMemory", datasets.size())
+                .add("bytes", datasets.getTotalWeight())
+                .add("capacityBytes", datasets.getCapacity())
+                .add("loads", dataLoader.getLoadCount())
+                .add("hits", datasets.getHitCount())
+                .add("evictions", datasets.getEvictionCount())
+                .toString());
+        }
+        return statistics.toString();
+    }
+
+    /**
+     * Describe one data point.
+     */
+    private static String pointJson(DataPoint point) {
+        return new Json()
+            .add("gridCode", point.gridCode())
+            .add("x", point.x())
+            .add("y", point.y())
+            .add("value", point.value())
+            .toString();
+    }
+
+    /**
+     * Get a parameter that must be given.
+     */
+    private static String required(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter " + name);
+        }
+        return value;
+    }
+
+    /**
+     * Build an error response.
+     */
+    private static Response error(int status, String message) {
+        return response(status, new Json().add("error", message).toString());
+    }
+
+    /**
+     * Build a response, tagging it with a hash of its body.
+     */
+    private static Response response(int status, String json) {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        return new Response(status, body, etag(body));
+    }
+
+    /**
+     * Compute the entity tag of a response body from a hash of its content.
+     *
+     * @param body The body
+     * @return The quoted entity tag
+     */
+    public static String etag(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            StringBuilder tag = new StringBuilder("\"");
+            for (int i = 0; i < 12; i++) {
+                tag.append(String.format("%02x", digest[i]));
+            }
+            return tag.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform provides SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.util.Map;
+
+public class QueryServiceTest {
+    private QueryService queryService;
+
+    @BeforeEach
+    public void setUp() {
+        queryService = new QueryService(new DataLoader(), new CityDataFilter());
+    }
+
+    @Test
+    public void testRepeatedQueryIsServedFromCache() {
+        QueryService.Response first = queryService.query("/api/cities", Map.of());
+        QueryService.Response second = queryService.query("/api/cities", Map.of());
+
+        assertEquals(200, first.status());
+        assertTrue(first.bodyText().contains("\"name\":\"London\""));
+        assertSame(first, second);
+        assertEquals(1, queryService.getResultCache().getHitCount());
+        assertEquals(1, queryService.getResultCache().getMissCount());
+    }
+
+    @Test
+    public void testMissingParameterIsBadRequest() {
+        QueryService.Response response = queryService.query("/api/statistics", Map.of("city", "London"));
+        assertEquals(400, response.status());
+        assertEquals("{\"error\":\"Missing parameter pollutant\"}", response.bodyText());
+    }
+
+    @Test
+    public void testMissingDataIsNotFoundAndNotCached() {
+        Map<String, String> parameters = Map.of("city", "London", "pollutant", "NO2", "year", "2018");
+        assertEquals(404, queryService.query("/api/statistics", parameters).status());
+        assertEquals(0, queryService.getResultCache().size());
+    }
+}
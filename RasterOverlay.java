@@ -0,0 +1,200 @@
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An overlay drawn as a single image instead of one node per cell.
+ *
+ * Each update is rendered by an OverlayRasterizer on a background thread. When the frame
+ * is finished it is put on screen in one short step on the JavaFX thread, by swapping the
+ * image shown by the layer, so the JavaFX thread does the same small amount of work
+ * whatever the size of the data. A newer update cancels any frame still being rendered,
+ * and frames that finish after they have been superseded are thrown away.
+ *
+ * Finished frames can be kept in a cache shared by all overlays, keyed by the city,
+ * pollutant, year, display mode and colour ramp they show, so a repeat view is put on
+ * screen straight away without rendering.
+ *
+ * @author Nitin Anantharaju
+ * @version 2.0
+ */
+public class RasterOverlay {
+    /**
+     * Identifies a rendered frame in the frame cache.
+     */
+    public record FrameKey(String city, String pollutant, String year, OverlayMode mode, ColourRamp ramp) {
+    }
+
+    // One thread is enough: only the latest frame is ever wanted
+    private static final ExecutorService RENDER_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "overlay-renderer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ImageView layer;
+    private final OverlayRasterizer rasterizer;
+    private final String city;
+    private final LruCache<FrameKey, Image> frameCache;
+
+    // Incremented by every update, so frames can tell whether they are still wanted
+    private final AtomicLong generation = new AtomicLong();
+    private Future<?> pendingFrame;
+
+    private ColourRamp colourRamp = ColourRamp.GREEN_RED;
+    private List<DataPoint> dataPoints;
+    private OverlayMode mode;
+    private String pollutant;
+    private String year;
+
+    /**
+     * Constructor for RasterOverlay
+     *
+     * @param rasterizer The rasterizer for the current city map
+     * @param city The name of the city
+     * @param frameCache The cache of finished frames, or null to always render
+     */
+    public RasterOverlay(OverlayRasterizer rasterizer, String city, LruCache<FrameKey, Image> frameCache) {
+        this.rasterizer = rasterizer;
+        this.city = city;
+        this.frameCache = frameCache;
+        this.layer = new ImageView();
+
+        // The map pane handles all mouse events
+        layer.setMouseTransparent(true);
+    }
+
+    /**
+     * Get the node holding the overlay, to be added to the map pane.
+     */
+    public ImageView getLayer() {
+        return layer;
+    }
+
+    /**
+     * Render the given data in the background and show it when ready. The current image
+     * stays on screen until then. If a frame for the same data is cached it is shown
+     * straight away.
+     *
+     * @param dataPoints The data points to show
+     * @param mode How to show them
+     * @param pollutant The pollutant the data is for, or null if the frame should not be cached
+     * @param year The year the data is for, or null if the frame should not be cached
+     */
+    public void show(List<DataPoint> dataPoints, OverlayMode mode, String pollutant, String year) {
+        if (dataPoints == null || dataPoints.isEmpty()) {
+            clear();
+            return;
+        }
+        this.dataPoints = dataPoints;
+        this.mode = mode;
+        this.pollutant = pollutant;
+        this.year = year;
+        requestFrame();
+    }
+
+    /**
+     * Set the colour ramp, re-rendering the data on screen.
+     *
+     * @param colourRamp The colour ramp to use
+     */
+    public void setColourRamp(ColourRamp colourRamp) {
+        if (colourRamp == this.colourRamp) {
+            return;
+        }
+        this.colourRamp = colourRamp;
+        if (dataPoints != null) {
+            requestFrame();
+        }
+    }
+
+    /**
+     * Remove the overlay, cancelling any frame being rendered.
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        cancelPendingFrame();
+        dataPoints = null;
+        mode = null;
+        pollutant = null;
+        year = null;
+        layer.setImage(null);
+    }
+
+    /**
+     * Start rendering a frame for the current data, mode and colour ramp, cancelling the
+     * previous one. A cached frame is shown immediately instead.
+     */
+    private void requestFrame() {
+        long frame = generation.incrementAndGet();
+        cancelPendingFrame();
+
+        FrameKey key = null;
+        if (frameCache != null && pollutant != null && year != null) {
+            key = new FrameKey(city, pollutant, year, mode, colourRamp);
+            Image cached = frameCache.get(key);
+            if (cached != null) {
+                layer.setImage(cached);
+                return;
+            }
+        }
+
+        List<DataPoint> frameData = dataPoints;
+        OverlayMode frameMode = mode;
+        ColourRamp frameRamp = colourRamp;
+        FrameKey frameKey = key;
+        pendingFrame = RENDER_EXECUTOR.submit(() -> {
+            if (frame != generation.get()) {
+                return;
+            }
+            int[] pixels = rasterizer.render(frameData, frameMode, frameRamp);
+            if (pixels == null || frame != generation.get()) {
+                return;
+            }
+
+            // The image is not on screen yet, so it can be filled on this thread
+            int width = rasterizer.getWidth();
+            int height = rasterizer.getHeight();
+            WritableImage image = new WritableImage(width, height);
+            image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(),
+                                             pixels, 0, width);
+            if (frameKey != null) {
+                frameCache.put(frameKey, image);
+            }
+            Platform.runLater(() -> swapIn(frame, image));
+        });
+    }
+
+    /**
+     * Put a finished frame on screen, unless a newer update has been made since.
+     */
+    private void swapIn(long frame, Image image) {
+        if (frame == generation.get()) {
+            layer.setImage(image);
+        }
+    }
+
+    /**
+     * Get the number of bytes of pixel data in a frame, for weighing frames in a cache.
+     */
+    public static long frameBytes(Image image) {
+        return 4L * (long) image.getWidth() * (long) image.getHeight();
+    }
+
+    /**
+     * Cancel the frame being rendered, if any.
+     */
+    private void cancelPendingFrame() {
+        if (pendingFrame != null) {
+            pendingFrame.cancel(true);
+            pendingFrame = null;
+        }
+    }
+}
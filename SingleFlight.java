@@ -0,0 +1,72 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Makes concurrent requests for the same key share one computation. The first caller for
+ * a key runs the computation; callers arriving while it is still running wait for it and
+ * get the same result, instead of repeating the work.
+ *
+ * Nothing is kept once a computation finishes, so results should be cached separately,
+ * from within the computation so the cache is filled before later callers can miss it.
+ *
+ * @author Tejas Raj
+ * @version 2.0
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong computations = new AtomicLong();
+    private final AtomicLong sharedResults = new AtomicLong();
+
+    /**
+     * Get the result for a key, running the computation only if no other caller is
+     * already running it.
+     *
+     * @param key The key identifying the computation
+     * @param computation The computation to run if none is in progress for the key
+     * @return The result of the computation
+     */
+    public V execute(K key, Supplier<V> computation) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            sharedResults.incrementAndGet();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        computations.incrementAndGet();
+        try {
+            V result = computation.get();
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * Get the number of computations that have been run.
+     */
+    public long getComputationCount() {
+        return computations.get();
+    }
+
+    /**
+     * Get the number of callers that shared another caller's computation.
+     */
+    public long getSharedCount() {
+        return sharedResults.get();
+    }
+}
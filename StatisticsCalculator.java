@@ -22,28 +22,12 @@ public class StatisticsCalculator {
             return "No data available for statistics calculation.";
         }
         
-        // Calculate statistics
-        double sum = 0;
-        double min = Double.MAX_VALUE;
-        double max = Double.MIN_VALUE;
-        DataPoint minPoint = null;
-        DataPoint maxPoint = null;
-
-        for (DataPoint point : dataPoints) {
-            double value = point.value();
-            sum += value;
-
-            if (value < min) {
-                min = value;
-                minPoint = point;
-            }
-            if (value > max) {
-                max = value;
-                maxPoint = point;
-            }
-        }
-
-        double avg = sum / dataPoints.size();
+        Summary summary = summarise(dataPoints);
+        double avg = summary.average();
+        double min = summary.minPoint().value();
+        double max = summary.maxPoint().value();
+        DataPoint minPoint = summary.minPoint();
+        DataPoint maxPoint = summary.maxPoint();
 
         // Format the statistics as a string
         StringBuilder sb = new StringBuilder();
@@ -68,4 +52,43 @@ public class StatisticsCalculator {
         
         return sb.toString();
     }
-}
\ No newline at end of file
+    
+    /**
+     * Calculate the count, average, minimum and maximum of a list of data points, as
+     * numbers rather than as text.
+     * 
+     * @param dataPoints The list of data points
+     * @return The summary, or null if there are no data points
+     */
+    public Summary summarise(List<DataPoint> dataPoints) {
+        if (dataPoints == null || dataPoints.isEmpty()) {
+            return null;
+        }
+        
+        double sum = 0;
+        DataPoint minPoint = dataPoints.get(0);
+        DataPoint maxPoint = dataPoints.get(0);
+        for (DataPoint point : dataPoints) {
+            sum += point.value();
+            if (point.value() < minPoint.value()) {
+                minPoint = point;
+            }
+            if (point.value() > maxPoint.value()) {
+                maxPoint = point;
+            }
+        }
+        
+        return new Summary(dataPoints.size(), sum / dataPoints.size(), minPoint, maxPoint);
+    }
+    
+    /**
+     * The numeric statistics of a set of data points.
+     * 
+     * @param count The number of data points
+     * @param average The average value
+     * @param minPoint The data point with the lowest value
+     * @param maxPoint The data point with the highest value
+     */
+    public record Summary(int count, double average, DataPoint minPoint, DataPoint maxPoint) {
+    }
+}
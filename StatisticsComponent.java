@@ -182,7 +182,7 @@ public class StatisticsComponent {
         if (selectedPollutant != null && selectedYear != null) {
             DataSet dataset = dataLoader.getDataset(selectedPollutant, selectedYear);
             if (dataset != null) {
-                List<DataPoint> cityData = cityDataFilter.filterCityArea(dataset.getData(), selectedCity);
+                List<DataPoint> cityData = cityDataFilter.filterCityArea(dataset, selectedCity);
                 
                 if (!cityData.isEmpty()) {
                     // Create comparison controls
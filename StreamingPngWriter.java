@@ -0,0 +1,155 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a PNG image a few rows at a time, so that an image of any size can be written
+ * without holding all of its pixels in memory.
+ *
+ * Rows are given as ARGB ints and written as 8-bit RGBA. Compressed data is written out
+ * in chunks as it is produced.
+ *
+ * @author Nitin Anantharaju
+ * @version 2.0
+ */
+public class StreamingPngWriter implements AutoCloseable {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    // PNG filter type for each row: each byte is stored as the difference from the byte one pixel to the left
+    private static final int FILTER_SUB = 1;
+
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+    private final Deflater deflater;
+    private final DeflaterOutputStream compressor;
+    private final byte[] rowBytes;
+    private int rowsWritten;
+
+    /**
+     * Start writing an image.
+     *
+     * @param out The stream to write the PNG file to
+     * @param width The width of the image
+     * @param height The height of the image
+     * @throws IOException If the header cannot be written
+     */
+    public StreamingPngWriter(OutputStream out, int width, int height) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.height = height;
+        this.rowBytes = new byte[1 + width * BYTES_PER_PIXEL];
+
+        this.out.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerData = new DataOutputStream(header);
+        headerData.writeInt(width);
+        headerData.writeInt(height);
+        headerData.writeByte(8);   // bits per channel
+        headerData.writeByte(6);   // colour type: RGBA
+        headerData.writeByte(0);   // compression: deflate
+        headerData.writeByte(0);   // filtering: adaptive
+        headerData.writeByte(0);   // no interlacing
+        writeChunk("IHDR", header.toByteArray(), header.size());
+
+        this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        this.compressor = new DeflaterOutputStream(new ChunkOutputStream(), deflater, CHUNK_SIZE);
+    }
+
+    /**
+     * Write the next rows of the image.
+     *
+     * @param pixels ARGB pixels, row by row, each row the width of the image
+     * @param rows The number of rows to write
+     * @throws IOException If the rows cannot be written
+     */
+    public void writeRows(int[] pixels, int rows) throws IOException {
+        if (rowsWritten + rows > height) {
+            throw new IllegalStateException("More rows written than the image height");
+        }
+
+        for (int row = 0; row < rows; row++) {
+            rowBytes[0] = FILTER_SUB;
+            int previous = 0;
+            int offset = row * width;
+            for (int x = 0; x < width; x++) {
+                int argb = pixels[offset + x];
+                int index = 1 + x * BYTES_PER_PIXEL;
+                rowBytes[index] = (byte) ((argb >> 16) - (previous >> 16));
+                rowBytes[index + 1] = (byte) ((argb >> 8) - (previous >> 8));
+                rowBytes[index + 2] = (byte) (argb - previous);
+                rowBytes[index + 3] = (byte) ((argb >>> 24) - (previous >>> 24));
+                previous = argb;
+            }
+            compressor.write(rowBytes);
+        }
+        rowsWritten += rows;
+    }
+
+    /**
+     * Finish the image. All rows must have been written. The compressor's native memory
+     * is released even if the image cannot be finished.
+     *
+     * @throws IOException If the end of the image cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rowsWritten != height) {
+                throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows written");
+            }
+            compressor.finish();
+            writeChunk("IEND", new byte[0], 0);
+            out.flush();
+        } finally {
+            // DeflaterOutputStream never ends a Deflater it was given
+            deflater.end();
+        }
+    }
+
+    /**
+     * Write one chunk with its length and checksum.
+     */
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Receives the compressed image data and writes it out as IDAT chunks.
+     */
+    private class ChunkOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            if (offset == 0) {
+                writeChunk("IDAT", data, length);
+            } else {
+                byte[] copy = new byte[length];
+                System.arraycopy(data, offset, copy, 0, length);
+                writeChunk("IDAT", copy, length);
+            }
+        }
+    }
+}
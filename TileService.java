@@ -0,0 +1,310 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the pollution data as PNG web map tiles, addressed by zoom, x and y as in most
+ * online maps, so the data can be shown in other map clients.
+ *
+ * Tiles are kept in a memory cache and in a cache folder on disk, and are only drawn
+ * when neither has them. Drawing happens on a small fixed number of worker threads with
+ * a short queue. When the queue is full, requests are turned away at once rather than
+ * queued, so a burst of requests cannot use up memory. The tiles of chosen cities can be
+ * drawn in advance with seed().
+ *
+ * @author Nitin Anantharaju
+ * @version 2.0
+ */
+public class TileService {
+    public static final int MIN_ZOOM = 5;
+    public static final int MAX_ZOOM = 16;
+    private static final double TILE_OPACITY = 0.85;
+
+    private static final int WORKERS = Integer.getInteger("airpollution.tileWorkers",
+        Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private static final int QUEUED_TILES = WORKERS * 8;
+    private static final long MEMORY_CACHE_MB = Long.getLong("airpollution.tileCacheMB", 64);
+
+    /**
+     * A finished tile: the PNG image and its entity tag.
+     *
+     * @param png The PNG file contents
+     * @param etag The quoted entity tag of the image
+     */
+    public record Tile(byte[] png, String etag) {
+    }
+
+    private final DataLoader dataLoader;
+    private final Path cacheDirectory;
+    private final LruCache<String, Tile> memoryCache;
+    private final ThreadPoolExecutor workers;
+
+    // Renderers of the datasets drawn most recently, as each holds the dataset's value
+    // range. No more are kept than can be drawing at once, so that a dataset the loader
+    // has evicted is not held here.
+    private final LruCache<DataSet, PollutionTileRenderer> renderers = new LruCache<>(WORKERS);
+
+    /**
+     * Constructor for TileService
+     *
+     * @param dataLoader The loader holding the datasets to draw
+     * @param cacheDirectory The folder to keep drawn tiles in, or null for no disk cache
+     */
+    public TileService(DataLoader dataLoader, Path cacheDirectory) {
+        this.dataLoader = dataLoader;
+        this.cacheDirectory = cacheDirectory;
+        this.memoryCache = new LruCache<>(MEMORY_CACHE_MB * 1024 * 1024, tile -> tile.png().length);
+        this.workers = new ThreadPoolExecutor(WORKERS, WORKERS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUED_TILES), runnable -> {
+                Thread thread = new Thread(runnable, "tile-worker");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Get a tile, from the caches if possible and otherwise by drawing it on a worker.
+     * The dataset is only asked for when the tile has to be drawn, so a cached tile never
+     * makes a loader that loads on demand read a data file.
+     *
+     * @param pollutant The pollutant
+     * @param year The year
+     * @param zoom The zoom level
+     * @param x The tile column, from west to east
+     * @param y The tile row, from north to south
+     * @param ramp The colour ramp
+     * @return The tile, or null if there is no such dataset
+     * @throws IllegalArgumentException If the tile address is not valid
+     * @throws RejectedExecutionException If the workers are too busy to draw the tile
+     * @throws IOException If drawing the tile fails
+     */
+    public Tile getTile(String pollutant, String year, int zoom, int x, int y, ColourRamp ramp) throws IOException {
+        checkAddress(zoom, x, y);
+        if (!dataLoader.hasDataset(pollutant, year)) {
+            return null;
+        }
+
+        String key = tileKey(pollutant, year, ramp, zoom, x, y);
+        Tile tile = memoryCache.get(key);
+        if (tile != null) {
+            return tile;
+        }
+        tile = readFromDisk(key);
+        if (tile != null) {
+            memoryCache.put(key, tile);
+            return tile;
+        }
+
+        DataSet dataset = dataLoader.getDataset(pollutant, year);
+        if (dataset == null) {
+            return null;
+        }
+        Future<Tile> drawn = workers.submit(() -> drawAndStore(key, dataset, zoom, x, y, ramp));
+        try {
+            return drawn.get();
+        } catch (InterruptedException e) {
+            drawn.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while drawing tile " + key, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not draw tile " + key, e.getCause());
+        }
+    }
+
+    /**
+     * Draw in advance all tiles covering some cities, so that they are served straight
+     * from the cache. Tiles already on disk are skipped. Seeding runs on the calling
+     * thread, so it never competes with requests for places in the worker queue.
+     *
+     * @param cityDataFilter The city boundaries
+     * @param cities The cities to seed
+     * @param minZoom The first zoom level to seed
+     * @param maxZoom The last zoom level to seed
+     * @param ramp The colour ramp
+     * @return The number of tiles drawn
+     */
+    public int seed(CityDataFilter cityDataFilter, List<String> cities, int minZoom, int maxZoom, ColourRamp ramp) {
+        int drawn = 0;
+        for (String pollutant : dataLoader.getPollutants()) {
+            for (String year : dataLoader.getYears()) {
+                DataSet dataset = dataLoader.getDataset(pollutant, year);
+                if (dataset != null) {
+                    drawn += seedDataset(dataset, cityDataFilter, cities, minZoom, maxZoom, ramp);
+                }
+            }
+        }
+        return drawn;
+    }
+
+    /**
+     * Draw in advance the tiles of one dataset covering some cities.
+     *
+     * @return The number of tiles drawn
+     */
+    private int seedDataset(DataSet dataset, CityDataFilter cityDataFilter, List<String> cities,
+                            int minZoom, int maxZoom, ColourRamp ramp) {
+        int drawn = 0;
+        for (String city : cities) {
+            CityDataFilter.CityBoundary boundary = cityDataFilter.getCityBoundary(city);
+            if (boundary == null) {
+                System.out.println("Cannot seed tiles for unknown city " + city);
+                continue;
+            }
+            for (int zoom = Math.max(MIN_ZOOM, minZoom); zoom <= Math.min(MAX_ZOOM, maxZoom); zoom++) {
+                int[] range = PollutionTileRenderer.webTileRange(zoom,
+                    boundary.getMinEasting(), boundary.getMaxEasting(),
+                    boundary.getMinNorthing(), boundary.getMaxNorthing());
+                for (int x = range[0]; x <= range[1]; x++) {
+                    for (int y = range[2]; y <= range[3]; y++) {
+                        String key = tileKey(dataset.getPollutant(), dataset.getYear(), ramp, zoom, x, y);
+                        if (cacheDirectory != null && Files.exists(tilePath(key))) {
+                            continue;
+                        }
+                        try {
+                            drawAndStore(key, dataset, zoom, x, y, ramp);
+                            drawn++;
+                        } catch (IOException e) {
+                            System.out.println("Could not seed tile " + key + ": " + e.getMessage());
+                        }
+                    }
+                }
+            }
+        }
+        return drawn;
+    }
+
+    /**
+     * Get the memory cache, for its statistics.
+     */
+    public LruCache<String, Tile> getMemoryCache() {
+        return memoryCache;
+    }
+
+    /**
+     * Stop the worker threads.
+     */
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Find a colour ramp by its name, ignoring case, spaces and punctuation, so that
+     * "viridis" or "green-to-red" can be used in a URL.
+     *
+     * @param name The name of the ramp
+     * @return The ramp, or null if there is none with that name
+     */
+    public static ColourRamp findRamp(String name) {
+        for (ColourRamp ramp : ColourRamp.getAvailableRamps()) {
+            if (simplify(ramp.getName()).equals(simplify(name))) {
+                return ramp;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Draw a tile, encode it and put it in both caches.
+     */
+    private Tile drawAndStore(String key, DataSet dataset, int zoom, int x, int y, ColourRamp ramp) throws IOException {
+        PollutionTileRenderer renderer = renderers.get(dataset);
+        if (renderer == null) {
+            renderer = new PollutionTileRenderer(dataset);
+            renderers.put(dataset, renderer);
+        }
+        int[] pixels = renderer.renderWebTile(zoom, x, y, ramp, TILE_OPACITY);
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        try (StreamingPngWriter writer = new StreamingPngWriter(png, PollutionTileRenderer.TILE_SIZE,
+                                                                PollutionTileRenderer.TILE_SIZE)) {
+            writer.writeRows(pixels, PollutionTileRenderer.TILE_SIZE);
+        }
+        Tile tile = new Tile(png.toByteArray(), QueryService.etag(png.toByteArray()));
+
+        memoryCache.put(key, tile);
+        writeToDisk(key, tile);
+        return tile;
+    }
+
+    /**
+     * Read a tile from the disk cache, if it is there.
+     */
+    private Tile readFromDisk(String key) {
+        if (cacheDirectory == null) {
+            return null;
+        }
+        try {
+            byte[] png = Files.readAllBytes(tilePath(key));
+            return new Tile(png, QueryService.etag(png));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Write a tile to the disk cache. The file is written under a temporary name and then
+     * renamed, so that a tile being written is never read half finished.
+     */
+    private void writeToDisk(String key, Tile tile) {
+        if (cacheDirectory == null) {
+            return;
+        }
+        Path path = tilePath(key);
+        try {
+            Files.createDirectories(path.getParent());
+            Path temporary = Files.createTempFile(path.getParent(), "tile", ".tmp");
+            Files.write(temporary, tile.png());
+            try {
+                Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not cache tile " + key + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the cache key of a tile, which is also its path in the disk cache.
+     */
+    private static String tileKey(String pollutant, String year, ColourRamp ramp, int zoom, int x, int y) {
+        return pollutant + "/" + year + "/" + simplify(ramp.getName()) + "/" + zoom + "/" + x + "/" + y;
+    }
+
+    /**
+     * Get the file holding a tile in the disk cache.
+     */
+    private Path tilePath(String key) {
+        return cacheDirectory.resolve(key + ".png");
+    }
+
+    /**
+     * Check that a tile address is within the supported zoom levels and the world.
+     */
+    private static void checkAddress(int zoom, int x, int y) {
+        if (zoom < MIN_ZOOM || zoom > MAX_ZOOM) {
+            throw new IllegalArgumentException("Zoom must be from " + MIN_ZOOM + " to " + MAX_ZOOM);
+        }
+        int tiles = 1 << zoom;
+        if (x < 0 || x >= tiles || y < 0 || y >= tiles) {
+            throw new IllegalArgumentException("No tile " + x + "/" + y + " at zoom " + zoom);
+        }
+    }
+
+    /**
+     * Reduce a name to lower case letters and digits.
+     */
+    private static String simplify(String name) {
+        return name.toLowerCase().replaceAll("[^a-z0-9]", "");
+    }
+}
@@ -0,0 +1,236 @@
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.Pane;
+import javafx.scene.shape.Rectangle;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A zoomable, pannable view of pollution across the whole of Great Britain.
+ *
+ * The view is made of square tiles at several levels of detail, rendered lazily on
+ * background threads by a PollutionTileRenderer and kept in a least-recently-used cache.
+ * Only the tiles in view are on screen, so the full resolution overlay is never held in
+ * memory. Drag to pan and scroll to zoom.
+ *
+ * @author Nitin Anantharaju
+ * @version 2.0
+ */
+public class TiledMapView {
+    private static final double TILE_OPACITY = 0.85;
+    private static final long TILE_BYTES = 4L * PollutionTileRenderer.TILE_SIZE * PollutionTileRenderer.TILE_SIZE;
+    private static final long TILE_CACHE_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Identifies one rendered tile. Tiles are keyed by the dataset's pollutant and year
+     * rather than by the dataset itself, so cached tiles never keep a dataset in memory
+     * and stay valid if the dataset is loaded again.
+     */
+    private record TileKey(String pollutant, String year, ColourRamp ramp, int zoom, int column, int row) {
+        /**
+         * Check whether this tile shows a dataset.
+         */
+        boolean shows(DataSet dataset) {
+            return pollutant.equals(dataset.getPollutant()) && year.equals(dataset.getYear());
+        }
+    }
+
+    private final Pane view;
+    private final Pane tileLayer;
+    private final LruCache<TileKey, Image> tileCache;
+    private final Set<TileKey> pendingTiles;
+    private final ExecutorService tileExecutor;
+
+    private volatile PollutionTileRenderer renderer;
+    private ColourRamp colourRamp = ColourRamp.GREEN_RED;
+
+    // The current zoom level, and the position of the view's top left corner in pixels at that level
+    private volatile int zoom = PollutionTileRenderer.MIN_ZOOM;
+    private double offsetX;
+    private double offsetY;
+
+    private double dragStartX;
+    private double dragStartY;
+
+    /**
+     * Constructor for TiledMapView
+     */
+    public TiledMapView() {
+        tileCache = new LruCache<>(TILE_CACHE_BYTES, image -> TILE_BYTES);
+        pendingTiles = ConcurrentHashMap.newKeySet();
+        tileExecutor = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+            runnable -> {
+                Thread thread = new Thread(runnable, "tile-renderer");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+        tileLayer = new Pane();
+        tileLayer.setMouseTransparent(true);
+
+        view = new Pane(tileLayer);
+        view.getStyleClass().add("pane");
+        view.setMinSize(0, 0);
+
+        Rectangle clip = new Rectangle();
+        clip.widthProperty().bind(view.widthProperty());
+        clip.heightProperty().bind(view.heightProperty());
+        view.setClip(clip);
+
+        view.widthProperty().addListener((obs, oldVal, newVal) -> refresh());
+        view.heightProperty().addListener((obs, oldVal, newVal) -> refresh());
+        view.setOnMousePressed(this::handleMousePressed);
+        view.setOnMouseDragged(this::handleMouseDragged);
+        view.setOnScroll(this::handleScroll);
+    }
+
+    /**
+     * Get the node displaying the map.
+     */
+    public Pane getView() {
+        return view;
+    }
+
+    /**
+     * Set the dataset to display.
+     *
+     * @param dataset The dataset, or null to show nothing
+     */
+    public void setDataSet(DataSet dataset) {
+        if (renderer != null && renderer.getDataSet() == dataset) {
+            return;
+        }
+        renderer = dataset == null ? null : new PollutionTileRenderer(dataset);
+        refresh();
+    }
+
+    /**
+     * Set the colour ramp used to colour the tiles.
+     *
+     * @param colourRamp The colour ramp
+     */
+    public void setColourRamp(ColourRamp colourRamp) {
+        this.colourRamp = colourRamp;
+        refresh();
+    }
+
+    /**
+     * Show the tiles covering the view, requesting any that are not yet rendered.
+     */
+    private void refresh() {
+        PollutionTileRenderer current = renderer;
+        if (current == null) {
+            tileLayer.getChildren().clear();
+            return;
+        }
+
+        int size = PollutionTileRenderer.TILE_SIZE;
+        int firstColumn = Math.max(0, (int) Math.floor(offsetX / size));
+        int firstRow = Math.max(0, (int) Math.floor(offsetY / size));
+        int lastColumn = Math.min(PollutionTileRenderer.tileColumns(zoom) - 1,
+                                  (int) Math.floor((offsetX + view.getWidth()) / size));
+        int lastRow = Math.min(PollutionTileRenderer.tileRows(zoom) - 1,
+                               (int) Math.floor((offsetY + view.getHeight()) / size));
+
+        List<ImageView> tiles = new ArrayList<>();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                TileKey key = new TileKey(current.getDataSet().getPollutant(), current.getDataSet().getYear(),
+                                          colourRamp, zoom, column, row);
+                Image image = tileCache.get(key);
+                if (image == null) {
+                    requestTile(key);
+                    continue;
+                }
+
+                ImageView tile = new ImageView(image);
+                tile.setLayoutX(column * size - offsetX);
+                tile.setLayoutY(row * size - offsetY);
+                tiles.add(tile);
+            }
+        }
+        tileLayer.getChildren().setAll(tiles);
+    }
+
+    /**
+     * Render a tile on a background thread and refresh the view when it is ready.
+     */
+    private void requestTile(TileKey key) {
+        if (!pendingTiles.add(key)) {
+            return;
+        }
+
+        tileExecutor.submit(() -> {
+            try {
+                // Skip tiles that are no longer wanted by the time a thread is free
+                PollutionTileRenderer current = renderer;
+                if (current != null && key.shows(current.getDataSet()) && key.zoom() == zoom) {
+                    int size = PollutionTileRenderer.TILE_SIZE;
+                    int[] pixels = current.renderTile(key.zoom(), key.column(), key.row(),
+                                                      key.ramp(), TILE_OPACITY);
+                    WritableImage image = new WritableImage(size, size);
+                    image.getPixelWriter().setPixels(0, 0, size, size, PixelFormat.getIntArgbInstance(),
+                                                     pixels, 0, size);
+                    tileCache.put(key, image);
+                    Platform.runLater(this::refresh);
+                }
+            } finally {
+                pendingTiles.remove(key);
+            }
+        });
+    }
+
+    /**
+     * Zoom in or out by one level, keeping the given point of the view fixed.
+     */
+    private void zoomAt(int newZoom, double viewX, double viewY) {
+        newZoom = Math.max(PollutionTileRenderer.MIN_ZOOM, Math.min(PollutionTileRenderer.MAX_ZOOM, newZoom));
+        if (newZoom == zoom) {
+            return;
+        }
+
+        double factor = PollutionTileRenderer.metresPerPixel(zoom) / PollutionTileRenderer.metresPerPixel(newZoom);
+        offsetX = (offsetX + viewX) * factor - viewX;
+        offsetY = (offsetY + viewY) * factor - viewY;
+        zoom = newZoom;
+        refresh();
+    }
+
+    /**
+     * Remember where a drag started.
+     */
+    private void handleMousePressed(MouseEvent event) {
+        dragStartX = event.getX();
+        dragStartY = event.getY();
+    }
+
+    /**
+     * Pan the map with the mouse.
+     */
+    private void handleMouseDragged(MouseEvent event) {
+        offsetX -= event.getX() - dragStartX;
+        offsetY -= event.getY() - dragStartY;
+        dragStartX = event.getX();
+        dragStartY = event.getY();
+        refresh();
+    }
+
+    /**
+     * Zoom with the mouse wheel around the mouse position.
+     */
+    private void handleScroll(ScrollEvent event) {
+        if (event.getDeltaY() > 0) {
+            zoomAt(zoom + 1, event.getX(), event.getY());
+        } else if (event.getDeltaY() < 0) {
+            zoomAt(zoom - 1, event.getX(), event.getY());
+        }
+    }
+}
@@ -0,0 +1,459 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+/**
+ * The value column of a dataset, stored in one of several encodings. Values are decoded
+ * inside the scans themselves, so a compact column is never expanded back into doubles.
+ *
+ * - DOUBLE holds the values as read, at 8 bytes each.
+ * - FLOAT holds them as 32-bit floats, at 4 bytes each, with about seven significant
+ *   digits, which is more than the data files give.
+ * - FIXED16 holds them as 16-bit steps between the column's minimum and maximum, at
+ *   2 bytes each. The error is at most half a step: under 0.001 for values up to 100.
+ *
+ * Rows without a value are NaN in every encoding, and are skipped by min, max and
+ * argmax. maxError() measures how far an encoding is from the original values, so an
+ * encoding can be checked before it is used.
+ *
+ * Double columns can also be kept off the Java heap, in direct memory or in a memory
+ * mapped file, where the garbage collector never has to look at them.
+ *
+ * @author Tejas Raj
+ * @version 2.0
+ */
+public abstract class ValueColumn {
+    /**
+     * The ways values can be stored.
+     */
+    public enum Encoding {
+        DOUBLE, FLOAT, FIXED16
+    }
+
+    /**
+     * Wrap an array of doubles without copying it.
+     */
+    public static ValueColumn of(double[] values) {
+        return new DoubleColumn(values);
+    }
+
+    /**
+     * Copy the first n values of an array into direct memory, off the Java heap.
+     */
+    public static ValueColumn offHeap(double[] values, int n) {
+        DoubleBuffer buffer = ByteBuffer.allocateDirect(n * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        buffer.put(values, 0, n);
+        return new BufferColumn(buffer);
+    }
+
+    /**
+     * Wrap a buffer of doubles, such as part of a memory mapped file, without copying it.
+     */
+    public static ValueColumn of(DoubleBuffer values) {
+        return new BufferColumn(values);
+    }
+
+    /**
+     * Encode the first n values of an array.
+     *
+     * @param values The values, NaN where a row has no value
+     * @param n The number of values
+     * @param encoding The encoding to use
+     * @return The encoded column
+     */
+    public static ValueColumn encode(double[] values, int n, Encoding encoding) {
+        switch (encoding) {
+            case FLOAT:
+                return new FloatColumn(values, n);
+            case FIXED16:
+                return new Fixed16Column(values, n);
+            default:
+                return new DoubleColumn(Arrays.copyOf(values, n));
+        }
+    }
+
+    /**
+     * Get the encoding of this column.
+     */
+    public abstract Encoding getEncoding();
+
+    /**
+     * Get the value of a row, or NaN if the row has no value.
+     */
+    public abstract double get(int row);
+
+    /**
+     * Sum the first n values for which the mask is set.
+     */
+    public abstract double maskedSum(boolean[] mask, int n);
+
+    /**
+     * Get the row of the largest of the first n values for which the mask is set.
+     *
+     * @return The row, or -1 if no row with a value is masked
+     */
+    public abstract int maskedArgMax(boolean[] mask, int n);
+
+    /**
+     * Get the smallest of the first n values, or positive infinity if there is none.
+     */
+    public abstract double min(int n);
+
+    /**
+     * Get the largest of the first n values, or negative infinity if there is none.
+     */
+    public abstract double max(int n);
+
+    /**
+     * Get the memory used by the column, in bytes, on or off the heap.
+     */
+    public abstract long getMemoryBytes();
+
+    /**
+     * Check whether the values are held outside the Java heap.
+     */
+    public boolean isOffHeap() {
+        return false;
+    }
+
+    /**
+     * Decode the column into a new array of doubles.
+     *
+     * @param length The length of the array, which may be more than the column holds
+     * @param n The number of values to decode
+     */
+    public double[] toArray(int length, int n) {
+        double[] values = new double[length];
+        for (int row = 0; row < n; row++) {
+            values[row] = get(row);
+        }
+        return values;
+    }
+
+    /**
+     * Get the largest difference between this column and the values it was made from.
+     * A row that has a value in one and not the other counts as an infinite error.
+     *
+     * @param original The original values
+     * @param n The number of values to compare
+     */
+    public double maxError(double[] original, int n) {
+        double maxError = 0;
+        for (int row = 0; row < n; row++) {
+            double value = get(row);
+            if (Double.isNaN(value) != Double.isNaN(original[row])) {
+                return Double.POSITIVE_INFINITY;
+            }
+            if (!Double.isNaN(value)) {
+                maxError = Math.max(maxError, Math.abs(value - original[row]));
+            }
+        }
+        return maxError;
+    }
+
+    /**
+     * Values stored as doubles, scanned with the column kernels.
+     */
+    private static class DoubleColumn extends ValueColumn {
+        private final double[] values;
+
+        DoubleColumn(double[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public Encoding getEncoding() {
+            return Encoding.DOUBLE;
+        }
+
+        @Override
+        public double get(int row) {
+            return values[row];
+        }
+
+        @Override
+        public double maskedSum(boolean[] mask, int n) {
+            return ColumnKernels.maskedSum(values, mask, n);
+        }
+
+        @Override
+        public int maskedArgMax(boolean[] mask, int n) {
+            return ColumnKernels.maskedArgMax(values, mask, n);
+        }
+
+        @Override
+        public double min(int n) {
+            return ColumnKernels.min(values, n);
+        }
+
+        @Override
+        public double max(int n) {
+            return ColumnKernels.max(values, n);
+        }
+
+        @Override
+        public long getMemoryBytes() {
+            return (long) values.length * Double.BYTES;
+        }
+
+        @Override
+        public double[] toArray(int length, int n) {
+            return Arrays.copyOf(values, length);
+        }
+    }
+
+    /**
+     * Values stored as doubles in a buffer outside the heap, read with absolute gets.
+     */
+    private static class BufferColumn extends ValueColumn {
+        private final DoubleBuffer values;
+
+        BufferColumn(DoubleBuffer values) {
+            this.values = values;
+        }
+
+        @Override
+        public Encoding getEncoding() {
+            return Encoding.DOUBLE;
+        }
+
+        @Override
+        public double get(int row) {
+            return values.get(row);
+        }
+
+        @Override
+        public double maskedSum(boolean[] mask, int n) {
+            double s0 = 0, s1 = 0;
+            int i = 0;
+            for (; i + 1 < n; i += 2) {
+                s0 += mask[i] ? values.get(i) : 0;
+                s1 += mask[i + 1] ? values.get(i + 1) : 0;
+            }
+            for (; i < n; i++) {
+                s0 += mask[i] ? values.get(i) : 0;
+            }
+            return s0 + s1;
+        }
+
+        @Override
+        public int maskedArgMax(boolean[] mask, int n) {
+            int best = -1;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                double value = values.get(i);
+                if (mask[i] && !Double.isNaN(value) && (best < 0 || value > bestValue)) {
+                    best = i;
+                    bestValue = value;
+                }
+            }
+            return best;
+        }
+
+        @Override
+        public double min(int n) {
+            double min = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                double value = values.get(i);
+                if (value < min) {
+                    min = value;
+                }
+            }
+            return min;
+        }
+
+        @Override
+        public double max(int n) {
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                double value = values.get(i);
+                if (value > max) {
+                    max = value;
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public long getMemoryBytes() {
+            return (long) values.capacity() * Double.BYTES;
+        }
+
+        @Override
+        public boolean isOffHeap() {
+            return true;
+        }
+    }
+
+    /**
+     * Values stored as 32-bit floats.
+     */
+    private static class FloatColumn extends ValueColumn {
+        private final float[] values;
+
+        FloatColumn(double[] original, int n) {
+            values = new float[n];
+            for (int row = 0; row < n; row++) {
+                values[row] = (float) original[row];
+            }
+        }
+
+        @Override
+        public Encoding getEncoding() {
+            return Encoding.FLOAT;
+        }
+
+        @Override
+        public double get(int row) {
+            return values[row];
+        }
+
+        @Override
+        public double maskedSum(boolean[] mask, int n) {
+            double s0 = 0, s1 = 0;
+            int i = 0;
+            for (; i + 1 < n; i += 2) {
+                s0 += mask[i] ? values[i] : 0;
+                s1 += mask[i + 1] ? values[i + 1] : 0;
+            }
+            for (; i < n; i++) {
+                s0 += mask[i] ? values[i] : 0;
+            }
+            return s0 + s1;
+        }
+
+        @Override
+        public int maskedArgMax(boolean[] mask, int n) {
+            int best = -1;
+            for (int i = 0; i < n; i++) {
+                if (mask[i] && !Float.isNaN(values[i]) && (best < 0 || values[i] > values[best])) {
+                    best = i;
+                }
+            }
+            return best;
+        }
+
+        @Override
+        public double min(int n) {
+            float min = Float.POSITIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                if (values[i] < min) {
+                    min = values[i];
+                }
+            }
+            return min;
+        }
+
+        @Override
+        public double max(int n) {
+            float max = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                if (values[i] > max) {
+                    max = values[i];
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public long getMemoryBytes() {
+            return (long) values.length * Float.BYTES;
+        }
+    }
+
+    /**
+     * Values stored as unsigned 16-bit steps: value = offset + code * scale. The highest
+     * code marks a row with no value. Sums are taken over the codes as whole numbers and
+     * scaled once at the end, and comparisons are made on the codes directly.
+     */
+    private static class Fixed16Column extends ValueColumn {
+        private static final char MISSING = Character.MAX_VALUE;
+        private static final int STEPS = Character.MAX_VALUE - 1;
+
+        private final char[] codes;
+        private final double offset;
+        private final double scale;
+
+        Fixed16Column(double[] original, int n) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int row = 0; row < n; row++) {
+                if (!Double.isNaN(original[row])) {
+                    min = Math.min(min, original[row]);
+                    max = Math.max(max, original[row]);
+                }
+            }
+            offset = min > max ? 0 : min;
+            scale = max > min ? (max - min) / STEPS : 1;
+
+            codes = new char[n];
+            for (int row = 0; row < n; row++) {
+                codes[row] = Double.isNaN(original[row]) ? MISSING
+                                                         : (char) Math.round((original[row] - offset) / scale);
+            }
+        }
+
+        @Override
+        public Encoding getEncoding() {
+            return Encoding.FIXED16;
+        }
+
+        @Override
+        public double get(int row) {
+            char code = codes[row];
+            return code == MISSING ? Double.NaN : offset + code * scale;
+        }
+
+        @Override
+        public double maskedSum(boolean[] mask, int n) {
+            long codeSum = 0;
+            int count = 0;
+            for (int i = 0; i < n; i++) {
+                if (mask[i] && codes[i] != MISSING) {
+                    codeSum += codes[i];
+                    count++;
+                }
+            }
+            return count * offset + codeSum * scale;
+        }
+
+        @Override
+        public int maskedArgMax(boolean[] mask, int n) {
+            int best = -1;
+            for (int i = 0; i < n; i++) {
+                if (mask[i] && codes[i] != MISSING && (best < 0 || codes[i] > codes[best])) {
+                    best = i;
+                }
+            }
+            return best;
+        }
+
+        @Override
+        public double min(int n) {
+            int min = MISSING;
+            for (int i = 0; i < n; i++) {
+                if (codes[i] < min) {
+                    min = codes[i];
+                }
+            }
+            return min == MISSING ? Double.POSITIVE_INFINITY : offset + min * scale;
+        }
+
+        @Override
+        public double max(int n) {
+            int max = -1;
+            for (int i = 0; i < n; i++) {
+                if (codes[i] != MISSING && codes[i] > max) {
+                    max = codes[i];
+                }
+            }
+            return max < 0 ? Double.NEGATIVE_INFINITY : offset + max * scale;
+        }
+
+        @Override
+        public long getMemoryBytes() {
+            return (long) codes.length * Character.BYTES;
+        }
+    }
+}
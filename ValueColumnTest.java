@@ -0,0 +1,37 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class ValueColumnTest {
+    private static final double[] VALUES = {12.345, Double.NaN, 40.957, 5.021, 23.5};
+    private static final boolean[] ALL = {true, true, true, true, true};
+
+    @Test
+    public void testEncodingsAgreeWithinTheirPrecision() {
+        for (ValueColumn.Encoding encoding : ValueColumn.Encoding.values()) {
+            ValueColumn column = ValueColumn.encode(VALUES, VALUES.length, encoding);
+            assertTrue(column.maxError(VALUES, VALUES.length) < 0.001, encoding.name());
+            assertTrue(Double.isNaN(column.get(1)), encoding.name());
+            assertEquals(5.021, column.min(VALUES.length), 0.001);
+            assertEquals(40.957, column.max(VALUES.length), 0.001);
+            assertEquals(2, column.maskedArgMax(ALL, VALUES.length));
+            assertEquals(12.345 + 40.957 + 23.5,
+                         column.maskedSum(new boolean[] {true, false, true, false, true}, VALUES.length), 0.002);
+        }
+    }
+
+    @Test
+    public void testDataSetFallsBackWhenTooImprecise() {
+        DataSet dataset = new DataSet("NO2", "2023", "annual mean", "ugm-3");
+        dataset.addData(new String[] {"1", "500", "500", "0.001"});
+        dataset.addData(new String[] {"2", "1500", "500", "60000"});
+        dataset.addData(new String[] {"3", "2500", "500", "12345.678"});
+
+        // 16-bit steps over this range are nearly 1 apart, so floats are used
+        assertEquals(ValueColumn.Encoding.FLOAT, dataset.encodeValues(ValueColumn.Encoding.FIXED16, 0.005));
+        assertEquals(0.001, dataset.getDataPoint(0).value(), 1e-6);
+
+        dataset.addData(new String[] {"4", "3500", "500", "7"});
+        assertEquals(ValueColumn.Encoding.DOUBLE, dataset.getValues().getEncoding());
+        assertEquals(60000, dataset.getDataPoint(1).value());
+    }
+}
@@ -0,0 +1,254 @@
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.util.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Animates a pollutant over several years for one city.
+ *
+ * Before playback starts, every frame is computed in parallel on background threads: the
+ * datasets are sampled onto the city's grid, optionally blended into in-between frames,
+ * coloured on one scale shared by all years, and turned into small images with one pixel
+ * per cell. Playing then only swaps which image is shown, at a steady frame rate, with no
+ * data scans and no new nodes per frame.
+ *
+ * @author Nitin Anantharaju
+ * @version 2.0
+ */
+public class YearPlayback {
+    private static final Duration YEAR_DURATION = Duration.seconds(1);
+
+    private final CityGrid grid;
+    private final ImageView layer;
+    private final Timeline timeline;
+
+    // Incremented whenever playback starts or stops, so that stale frame sets are ignored
+    private final AtomicLong generation = new AtomicLong();
+    private Image[] frames;
+    private String[] labels;
+    private Consumer<String> onFrame = label -> { };
+    private Runnable onFinished = () -> { };
+
+    /**
+     * Constructor for YearPlayback
+     *
+     * @param grid The grid of cells covering the city
+     * @param converter The coordinate converter for the city map
+     */
+    public YearPlayback(CityGrid grid, CoordinateConverter converter) {
+        this.grid = grid;
+
+        // Stretch the one-pixel-per-cell frames over the grid's area of the map
+        double left = converter.convertToPixelX(grid.getMinEasting());
+        double top = converter.convertToPixelY(grid.getMaxNorthing());
+        layer = new ImageView();
+        layer.setLayoutX(left);
+        layer.setLayoutY(top);
+        layer.setFitWidth(converter.convertToPixelX(grid.getMaxEasting()) - left);
+        layer.setFitHeight(converter.convertToPixelY(grid.getMinNorthing()) - top);
+        layer.setSmooth(false);
+        layer.setMouseTransparent(true);
+        layer.setVisible(false);
+
+        timeline = new Timeline();
+        timeline.setOnFinished(e -> onFinished.run());
+    }
+
+    /**
+     * Get the node showing the animation, to be added to the map pane.
+     */
+    public ImageView getLayer() {
+        return layer;
+    }
+
+    /**
+     * Set what to do when a new frame is shown. The action is given the frame's label.
+     */
+    public void setOnFrame(Consumer<String> onFrame) {
+        this.onFrame = onFrame;
+    }
+
+    /**
+     * Set what to do when playback reaches the last frame.
+     */
+    public void setOnFinished(Runnable onFinished) {
+        this.onFinished = onFinished;
+    }
+
+    /**
+     * Compute the frames in the background and play them once ready, replacing any
+     * animation already playing.
+     *
+     * @param years The years to animate, in order
+     * @param datasetOfYear Gives the dataset of a year (null for missing years); called in
+     *                      the background, and the datasets are not kept once sampled
+     * @param stepsBetweenYears The number of blended frames to insert between years
+     * @param ramp The colour ramp to colour values with
+     */
+    public void play(List<String> years, Function<String, DataSet> datasetOfYear, int stepsBetweenYears,
+                     ColourRamp ramp) {
+        stop();
+        if (years.isEmpty()) {
+            return;
+        }
+        
+        long playback = generation.get();
+        CompletableFuture
+            .supplyAsync(() -> computeFrames(years, datasetOfYear, stepsBetweenYears, ramp))
+            .thenAccept(images -> Platform.runLater(() -> {
+                if (playback == generation.get()) {
+                    start(images, frameLabels(years, stepsBetweenYears), stepsBetweenYears);
+                }
+            }))
+            .exceptionally(e -> {
+                System.out.println("Error preparing playback: " + e.getMessage());
+                return null;
+            });
+    }
+
+    /**
+     * Stop playback and hide the animation.
+     */
+    public void stop() {
+        generation.incrementAndGet();
+        timeline.stop();
+        layer.setVisible(false);
+        layer.setImage(null);
+    }
+
+    /**
+     * Start the timeline over a set of computed frames.
+     */
+    private void start(Image[] images, String[] frameLabels, int stepsBetweenYears) {
+        frames = images;
+        labels = frameLabels;
+
+        Duration frameDuration = YEAR_DURATION.divide(stepsBetweenYears + 1);
+        timeline.getKeyFrames().clear();
+        for (int i = 0; i < frames.length; i++) {
+            int frame = i;
+            timeline.getKeyFrames().add(new KeyFrame(frameDuration.multiply(i), e -> showFrame(frame)));
+        }
+        // Hold the last frame for a full step before finishing
+        timeline.getKeyFrames().add(new KeyFrame(frameDuration.multiply(frames.length)));
+
+        layer.setVisible(true);
+        timeline.playFromStart();
+    }
+
+    /**
+     * Show one precomputed frame.
+     */
+    private void showFrame(int frame) {
+        layer.setImage(frames[frame]);
+        onFrame.accept(labels[frame]);
+    }
+
+    /**
+     * Compute every frame. The datasets are sampled in parallel, then the frames are
+     * coloured in parallel on one scale covering all years.
+     */
+    private Image[] computeFrames(List<String> yearLabels, Function<String, DataSet> datasetOfYear,
+                                  int stepsBetweenYears, ColourRamp ramp) {
+        int years = yearLabels.size();
+        int cells = grid.getCellCount();
+        double[][] yearValues = new double[years][];
+        IntStream.range(0, years).parallel().forEach(i -> {
+            DataSet dataset = datasetOfYear.apply(yearLabels.get(i));
+            yearValues[i] = dataset == null ? emptyValues(cells) : grid.sample(dataset);
+        });
+
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double[] values : yearValues) {
+            for (double value : values) {
+                if (!Double.isNaN(value)) {
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+            }
+        }
+        double scale = max > min ? 1.0 / (max - min) : 0;
+        double low = min;
+        int[] colours = ramp.argbTable(OverlayRasterizer.OVERLAY_OPACITY);
+
+        int steps = stepsBetweenYears + 1;
+        int frameCount = (years - 1) * steps + 1;
+        Image[] images = new Image[frameCount];
+        IntStream.range(0, frameCount).parallel().forEach(frame -> {
+            int year = frame / steps;
+            double t = (double) (frame % steps) / steps;
+            double[] from = yearValues[year];
+            double[] to = t > 0 ? yearValues[year + 1] : from;
+
+            int[] pixels = new int[cells];
+            for (int cell = 0; cell < cells; cell++) {
+                double value = blend(from[cell], to[cell], t);
+                if (!Double.isNaN(value)) {
+                    pixels[cell] = colours[ramp.indexOf((value - low) * scale)];
+                }
+            }
+            images[frame] = toImage(pixels);
+        });
+        return images;
+    }
+
+    /**
+     * Blend two values. If only one of them is known, it is used as it is.
+     */
+    private static double blend(double from, double to, double t) {
+        if (Double.isNaN(from)) {
+            return to;
+        }
+        if (Double.isNaN(to)) {
+            return from;
+        }
+        return from + (to - from) * t;
+    }
+
+    /**
+     * Turn one pixel per cell into an image. The image is not on screen yet, so this can
+     * be done off the JavaFX thread.
+     */
+    private Image toImage(int[] pixels) {
+        int columns = grid.getColumns();
+        WritableImage image = new WritableImage(columns, grid.getRows());
+        image.getPixelWriter().setPixels(0, 0, columns, grid.getRows(), PixelFormat.getIntArgbInstance(),
+                                         pixels, 0, columns);
+        return image;
+    }
+
+    /**
+     * Get the label of every frame. Blended frames are labelled with the years they lie between.
+     */
+    private static String[] frameLabels(List<String> years, int stepsBetweenYears) {
+        int steps = stepsBetweenYears + 1;
+        String[] labels = new String[(years.size() - 1) * steps + 1];
+        for (int frame = 0; frame < labels.length; frame++) {
+            int year = frame / steps;
+            labels[frame] = frame % steps == 0 ? years.get(year)
+                                               : years.get(year) + " to " + years.get(year + 1);
+        }
+        return labels;
+    }
+
+    /**
+     * Get the values of a grid with no data.
+     */
+    private static double[] emptyValues(int cells) {
+        double[] values = new double[cells];
+        Arrays.fill(values, Double.NaN);
+        return values;
+    }
+}
@@ -0,0 +1,221 @@
+import javafx.application.Platform;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Shows one year of a pollutant for a city at a time, fast enough to follow a slider.
+ *
+ * The city is drawn as a single image with one pixel per grid cell, which is kept for as
+ * long as the city is shown. For every year, the colour of each cell is worked out in
+ * advance, in parallel, as an index into a palette; the indices do not depend on the
+ * colour ramp. Showing a year is then one bulk copy of that year's indices into the
+ * image, and changing the colour ramp only swaps the palette.
+ *
+ * The datasets are fetched in the background and not kept once sampled, so a loader
+ * that loads them on demand can read them off the JavaFX thread and evict them later.
+ *
+ * @author Nitin Anantharaju
+ * @version 2.0
+ */
+public class YearScrubber {
+    // Palette entry 0 is for cells without data, the rest cover the colour ramp
+    private static final int NO_DATA = 0;
+    private static final int PALETTE_SIZE = 256;
+
+    private final CityGrid grid;
+    private final ImageView layer;
+    private final WritableImage image;
+
+    // Incremented by every prepare() call, so that stale results are ignored
+    private final AtomicLong generation = new AtomicLong();
+    private String preparedKey;
+    private byte[][] yearIndices;
+    private PixelFormat<ByteBuffer> palette;
+    private int shownYear = -1;
+
+    /**
+     * Constructor for YearScrubber
+     *
+     * @param grid The grid of cells covering the city
+     * @param converter The coordinate converter for the city map
+     */
+    public YearScrubber(CityGrid grid, CoordinateConverter converter) {
+        this.grid = grid;
+        this.image = new WritableImage(grid.getColumns(), grid.getRows());
+        this.palette = paletteFor(ColourRamp.GREEN_RED);
+
+        // Stretch the one-pixel-per-cell image over the grid's area of the map
+        double left = converter.convertToPixelX(grid.getMinEasting());
+        double top = converter.convertToPixelY(grid.getMaxNorthing());
+        layer = new ImageView(image);
+        layer.setLayoutX(left);
+        layer.setLayoutY(top);
+        layer.setFitWidth(converter.convertToPixelX(grid.getMaxEasting()) - left);
+        layer.setFitHeight(converter.convertToPixelY(grid.getMinNorthing()) - top);
+        layer.setSmooth(false);
+        layer.setMouseTransparent(true);
+        layer.setVisible(false);
+    }
+
+    /**
+     * Get the node showing the selected year, to be added to the map pane.
+     */
+    public ImageView getLayer() {
+        return layer;
+    }
+
+    /**
+     * Work out the colour indices of every year of a pollutant in the background. Nothing
+     * is done if the same pollutant and years are already prepared.
+     *
+     * @param pollutant The pollutant
+     * @param years The years, in order
+     * @param datasetOfYear Gives the dataset of a year (null for missing years); called
+     *                      in the background
+     */
+    public void prepare(String pollutant, List<String> years, Function<String, DataSet> datasetOfYear) {
+        String key = pollutant + years;
+        if (key.equals(preparedKey)) {
+            return;
+        }
+        long request = generation.incrementAndGet();
+        preparedKey = key;
+        yearIndices = null;
+        shownYear = -1;
+
+        CompletableFuture
+            .supplyAsync(() -> computeIndices(years, datasetOfYear))
+            .thenAccept(indices -> Platform.runLater(() -> {
+                if (request == generation.get()) {
+                    yearIndices = indices;
+                }
+            }))
+            .exceptionally(e -> {
+                System.out.println("Error preparing year slider: " + e.getMessage());
+                return null;
+            });
+    }
+
+    /**
+     * Forget the prepared years, so that the next prepare() starts again.
+     */
+    public void reset() {
+        generation.incrementAndGet();
+        preparedKey = null;
+        yearIndices = null;
+        shownYear = -1;
+        hide();
+    }
+
+    /**
+     * Check whether the colour indices are ready, so that years can be shown.
+     */
+    public boolean isReady() {
+        return yearIndices != null;
+    }
+
+    /**
+     * Set the colour ramp. Only the palette changes; the prepared indices are kept.
+     *
+     * @param ramp The colour ramp to use
+     */
+    public void setColourRamp(ColourRamp ramp) {
+        palette = paletteFor(ramp);
+        int year = shownYear;
+        shownYear = -1;
+        if (year >= 0) {
+            showYear(year);
+        }
+    }
+
+    /**
+     * Show one year, by copying its colour indices into the image.
+     *
+     * @param year The position of the year in the prepared datasets
+     * @return True if the year was shown, false if the indices are not ready yet
+     */
+    public boolean showYear(int year) {
+        if (yearIndices == null || year < 0 || year >= yearIndices.length) {
+            return false;
+        }
+        if (year != shownYear) {
+            int columns = grid.getColumns();
+            image.getPixelWriter().setPixels(0, 0, columns, grid.getRows(), palette,
+                                             yearIndices[year], 0, columns);
+            shownYear = year;
+        }
+        layer.setVisible(true);
+        return true;
+    }
+
+    /**
+     * Hide the image.
+     */
+    public void hide() {
+        layer.setVisible(false);
+    }
+
+    /**
+     * Work out the palette index of every cell in every year, on one scale covering all
+     * years so that colours can be compared between years.
+     */
+    private byte[][] computeIndices(List<String> yearLabels, Function<String, DataSet> datasetOfYear) {
+        int years = yearLabels.size();
+        double[][] yearValues = new double[years][];
+        IntStream.range(0, years).parallel().forEach(i -> {
+            DataSet dataset = datasetOfYear.apply(yearLabels.get(i));
+            yearValues[i] = dataset == null ? null : grid.sample(dataset);
+        });
+
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double[] values : yearValues) {
+            if (values == null) {
+                continue;
+            }
+            for (double value : values) {
+                if (!Double.isNaN(value)) {
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+            }
+        }
+        double scale = max > min ? (PALETTE_SIZE - 2) / (max - min) : 0;
+        double low = min;
+
+        byte[][] indices = new byte[years][grid.getCellCount()];
+        IntStream.range(0, years).parallel().forEach(i -> {
+            double[] values = yearValues[i];
+            if (values == null) {
+                return;
+            }
+            for (int cell = 0; cell < values.length; cell++) {
+                if (!Double.isNaN(values[cell])) {
+                    indices[i][cell] = (byte) (1 + (int) ((values[cell] - low) * scale + 0.5));
+                }
+            }
+        });
+        return indices;
+    }
+
+    /**
+     * Build the palette for a colour ramp: transparent for cells without data, then the
+     * ramp at the overlay opacity.
+     */
+    private static PixelFormat<ByteBuffer> paletteFor(ColourRamp ramp) {
+        int[] colours = new int[PALETTE_SIZE];
+        colours[NO_DATA] = 0;
+        for (int i = 1; i < PALETTE_SIZE; i++) {
+            int rampIndex = ramp.indexOf((double) (i - 1) / (PALETTE_SIZE - 2));
+            colours[i] = ramp.argb(rampIndex, OverlayRasterizer.OVERLAY_OPACITY);
+        }
+        return PixelFormat.createByteIndexedInstance(colours);
+    }
+}